@@ -19,6 +19,7 @@ import com.beust.jcommander.JCommander;
 import com.beust.jcommander.Parameter;
 import com.beust.jcommander.ParameterException;
 import com.beust.jcommander.Parameters;
+import edu.wisc.regfixer.diagnostic.Deadline;
 import edu.wisc.regfixer.diagnostic.Diagnostic;
 import edu.wisc.regfixer.diagnostic.NullOutputStream;
 import edu.wisc.regfixer.diagnostic.Registry;
@@ -55,6 +56,7 @@ public class CLI {
           case "formula":
           case "model":
           case "stats":
+          case "history":
             break;
           default:
             String fmt = "Parameter 'debug' given unknown debugging channel '%s'";
@@ -90,6 +92,9 @@ public class CLI {
           case "dot":
           case "dotstar":
           case "emptyset":
+          case "unsat":
+          case "bounds":
+          case "length":
             break;
           default:
             String fmt = "Parameter 'tests' given unknown test name '%s'";
@@ -109,6 +114,26 @@ public class CLI {
     }
   }
 
+  public static class ThreadsValidator implements IValueValidator<Integer> {
+    public void validate(String name, Integer threads) throws ParameterException {
+      if (threads == null) {
+        throw new ParameterException("Parameter 'threads' cannot be null");
+      } else if (threads <= 0) {
+        throw new ParameterException("Parameter 'threads' must be greater than 0");
+      }
+    }
+  }
+
+  public static class DeadlineValidator implements IValueValidator<Integer> {
+    public void validate(String name, Integer deadline) throws ParameterException {
+      if (deadline == null) {
+        throw new ParameterException("Parameter 'deadline' cannot be null");
+      } else if (deadline <= 0) {
+        throw new ParameterException("Parameter 'deadline' must be greater than 0");
+      }
+    }
+  }
+
   private static class ArgsRoot {
     @Parameter(names={"--help", "-h"})
     private boolean help = false;
@@ -134,6 +159,13 @@ public class CLI {
     @Parameter(names="--debug")
     private boolean debug = false;
 
+    @Parameter(names="--cache")
+    private String cache = null;
+
+    @Parameter(names="--deadline",
+               validateValueWith=DeadlineValidator.class)
+    private Integer deadline = null;
+
     @Parameter
     private List<String> catchall = new ArrayList<>();
   }
@@ -144,6 +176,14 @@ public class CLI {
                validateValueWith=LimitValidator.class)
     private Integer limit = null;
 
+    @Parameter(names="--threads",
+               validateValueWith=ThreadsValidator.class)
+    private Integer threads = null;
+
+    @Parameter(names="--deadline",
+               validateValueWith=DeadlineValidator.class)
+    private Integer deadline = null;
+
     @Parameter(names="--timing",
                validateValueWith=TimingChannelValidator.class)
     private List<String> timingChannels = new ArrayList<>();
@@ -160,6 +200,15 @@ public class CLI {
                validateValueWith=TestValidator.class)
     private List<String> tests = new ArrayList<>();
 
+    @Parameter(names="--cache")
+    private String cache = null;
+
+    @Parameter(names="--checkpoint")
+    private String checkpoint = null;
+
+    @Parameter(names="--resume")
+    private String resume = null;
+
     @Parameter(names="--file",
                required=true)
     private String file = null;
@@ -225,6 +274,10 @@ public class CLI {
       + "%n          The maximum number of unsuccessful enumeration cycles that occur"
       + "%n          before a TimeoutException is thrown and the job aborts without a"
       + "%n          final result. Default value is 1000."
+      + "%n      --deadline <milliseconds>"
+      + "%n          The longest each repair request may search. Once the deadline"
+      + "%n          passes the best repair found so far is returned, or the request"
+      + "%n          times out if there isn't one. By default there is no deadline."
       + "%n      --open <file> (not implemented)"
       + "%n          Read a benchmark file and use its contents as the initial values"
       + "%n          in the web-app. If this flag is not set, the web-app will launch"
@@ -237,6 +290,9 @@ public class CLI {
       + "%n          UNIX timestamp (in milliseconds) and HASH is the first part of a"
       + "%n          SHA1 hash computed from formatting the repair requests inputs as"
       + "%n          a benchmark file."
+      + "%n      --cache <directory>"
+      + "%n          Remember the repair found for each request in the directory and"
+      + "%n          answer identical requests from there without searching again."
       + "%n    fix [options] <file>"
       + "%n      --quiet"
       + "%n          If a solution is successfully determined, output only the result"
@@ -247,6 +303,31 @@ public class CLI {
       + "%n          The maximum number of unsuccessful enumeration cycles that occur"
       + "%n          before a TimeoutException is thrown and the job aborts without a"
       + "%n          final result. Default value is 1000."
+      + "%n      --threads <number>"
+      + "%n          The number of worker threads used to evaluate templates. When"
+      + "%n          more than 1 thread is used, all templates with the same cost are"
+      + "%n          evaluated in parallel. Finds the same solutions as a search with"
+      + "%n          a single thread. Default value is 1."
+      + "%n      --deadline <milliseconds>"
+      + "%n          The longest the search may run. Once the deadline passes the"
+      + "%n          search stops (even in the middle of evaluating a template) and"
+      + "%n          the best solution found so far is used. If none was found a"
+      + "%n          TimeoutException is thrown. By default there is no deadline."
+      + "%n      --cache <directory>"
+      + "%n          Look for the benchmark's repair in a cache of earlier repairs kept"
+      + "%n          in the directory before searching. Any repair found is added to"
+      + "%n          the cache. The least recently used repairs are removed once the"
+      + "%n          cache grows larger than 64MB."
+      + "%n      --checkpoint <file>"
+      + "%n          Periodically write a snapshot of the search to the file so that"
+      + "%n          the search can be resumed if it's killed or reaches its limit."
+      + "%n          A snapshot is written every 30 seconds and when the limit is"
+      + "%n          reached."
+      + "%n      --resume <file>"
+      + "%n          Resume the search saved in a snapshot written by --checkpoint"
+      + "%n          for the same benchmark instead of starting from scratch. The"
+      + "%n          limit counts the templates searched before the snapshot so it"
+      + "%n          should be raised to search further."
       + "%n      --print-class-tree"
       + "%n          For all SAT formulae, print the character class trees that track"
       + "%n          how frequently each character class is used per unknown."
@@ -316,7 +397,17 @@ public class CLI {
       args.limit = -1;
     }
 
-    Server.start(args.port, args.limit, args.debug);
+    SolutionCache cache = null;
+    if (args.cache != null) {
+      try {
+        cache = new SolutionCache(Paths.get(args.cache));
+      } catch (IOException ex) {
+        System.err.println("unable to open cache");
+        return 1;
+      }
+    }
+
+    Server.start(args.port, args.limit, args.debug, cache, (args.deadline == null) ? -1 : args.deadline);
     return 0;
   }
 
@@ -350,6 +441,25 @@ public class CLI {
       reg.setBool("test-" + test, true);
     }
 
+    // Add number of worker threads.
+    if (args.threads != null) {
+      reg.setInt("threads", args.threads);
+    }
+
+    // Add checkpoint files.
+    if (args.checkpoint != null) {
+      reg.setStr("checkpoint", args.checkpoint);
+    }
+
+    if (args.resume != null) {
+      if (Files.isReadable(Paths.get(args.resume)) == false) {
+        System.err.println("unable to read checkpoint");
+        return 1;
+      }
+
+      reg.setStr("resume", args.resume);
+    }
+
     // Create a diagnostic object to manage diagnostic flags and any debugging
     // output produced during execution.
     Timing tim = new Timing();
@@ -362,6 +472,16 @@ public class CLI {
       return 1;
     }
 
+    SolutionCache cache = null;
+    if (args.cache != null) {
+      try {
+        cache = new SolutionCache(Paths.get(args.cache));
+      } catch (IOException ex) {
+        System.err.println("unable to open cache");
+        return 1;
+      }
+    }
+
     if (reg.getBool("output-header")) {
       System.out.print("name,");                         // name of benchmark file
       System.out.print("size,");                         // number of nodes in original regular expression
@@ -390,8 +510,13 @@ public class CLI {
       System.out.println();
     }
 
+    // The deadline starts once the benchmark has been read.
+    if (args.deadline != null) {
+      diag.setDeadline(new Deadline(args.deadline));
+    }
+
     try {
-      String result = RegFixer.fix(job, args.limit, diag);
+      String result = RegFixer.fix(job, args.limit, diag, cache);
       return result != null ? 0 : 1;
     } catch (TimeoutException ex) {
       System.out.println(ex.toString());
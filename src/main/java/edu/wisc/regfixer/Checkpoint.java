@@ -0,0 +1,256 @@
+package edu.wisc.regfixer;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import edu.wisc.regfixer.diagnostic.Diagnostic;
+import edu.wisc.regfixer.enumerate.Enumerants;
+import edu.wisc.regfixer.enumerate.Job;
+
+/**
+ * Checkpoint is a snapshot of a search written to a file so that a search
+ * that was killed or that reached its loop limit can be resumed (usually with
+ * a larger limit) without exploring the same templates again. A snapshot
+ * holds the templates waiting to be searched, the history of templates seen
+ * so far, the solutions found so far, the current cost cutoff and the search
+ * statistics in the diagnostic registry and timings.
+ *
+ * Snapshots are only read back for the same job they were written for (see
+ * Job#toDigest()).
+ *
+ * While searching, snapshots are taken by a Checkpoint.Writer at most once
+ * per INTERVAL_MILLIS. The search thread only copies its state into memory;
+ * compressing the copy and writing it to disk happens on the writer's own
+ * thread while the search carries on.
+ */
+public class Checkpoint {
+  public static final long INTERVAL_MILLIS = 30000;
+
+  private static final int MAGIC = 0x52464350;
+  private static final int VERSION = 2;
+
+  private final Enumerants enumerants;
+  private final int costCutoff;
+  private final Map<String, Integer> solutions;
+
+  private Checkpoint (Enumerants enumerants, int costCutoff, Map<String, Integer> solutions) {
+    this.enumerants = enumerants;
+    this.costCutoff = costCutoff;
+    this.solutions = solutions;
+  }
+
+  public Enumerants getEnumerants () {
+    return this.enumerants;
+  }
+
+  public int getCostCutoff () {
+    return this.costCutoff;
+  }
+
+  public Map<String, Integer> getSolutions () {
+    return this.solutions;
+  }
+
+  /**
+   * Writes a snapshot of the search to the file, replacing any earlier
+   * snapshot. If 'includePolled' is true, the template most recently polled
+   * from the enumerants hasn't been searched yet and is searched again when
+   * the snapshot is resumed.
+   */
+  public static void save (Path file, Job job, Enumerants enumerants, boolean includePolled, int costCutoff, Map<String, Integer> solutions, Diagnostic diag) throws IOException {
+    Checkpoint.save(file, Checkpoint.snapshot(job, enumerants, includePolled, costCutoff, solutions, diag));
+  }
+
+  /**
+   * Copies the state of the search (see #save) into an uncompressed array
+   * that can be written by #save(Path, byte[]) after the search has moved on.
+   */
+  public static byte[] snapshot (Job job, Enumerants enumerants, boolean includePolled, int costCutoff, Map<String, Integer> solutions, Diagnostic diag) throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+
+    try (DataOutputStream out = new DataOutputStream(bytes)) {
+      out.writeInt(MAGIC);
+      out.writeInt(VERSION);
+      out.writeUTF(job.toDigest());
+      out.writeInt(costCutoff);
+
+      out.writeInt(solutions.size());
+      for (Map.Entry<String, Integer> solution : solutions.entrySet()) {
+        out.writeUTF(solution.getKey());
+        out.writeInt(solution.getValue());
+      }
+
+      Map<String, Integer> ints = diag.registry().getInts();
+      out.writeInt(ints.size());
+      for (Map.Entry<String, Integer> entry : ints.entrySet()) {
+        out.writeUTF(entry.getKey());
+        out.writeInt(entry.getValue());
+      }
+
+      Map<String, Long> timings = diag.timing().getTimings();
+      out.writeInt(timings.size());
+      for (Map.Entry<String, Long> entry : timings.entrySet()) {
+        out.writeUTF(entry.getKey());
+        out.writeLong(entry.getValue());
+      }
+
+      enumerants.write(out, includePolled);
+    }
+
+    return bytes.toByteArray();
+  }
+
+  /**
+   * Compresses a snapshot taken by #snapshot and writes it to the file,
+   * replacing any earlier snapshot.
+   */
+  public static void save (Path file, byte[] snapshot) throws IOException {
+    Path absolute = file.toAbsolutePath();
+
+    // Write to a temporary file first so that a search killed while writing
+    // a snapshot leaves the previous snapshot intact.
+    Path temp = Files.createTempFile(absolute.getParent(), "checkpoint", ".tmp");
+
+    try {
+      try (OutputStream out = new GZIPOutputStream(Files.newOutputStream(temp))) {
+        out.write(snapshot);
+      }
+
+      Files.move(temp, absolute, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    } finally {
+      Files.deleteIfExists(temp);
+    }
+  }
+
+  /**
+   * Reads a snapshot written by #save for the same job. The statistics in the
+   * snapshot are added to the given diagnostic except for ints that have
+   * already been set (like command-line options).
+   */
+  public static Checkpoint load (Path file, Job job, Diagnostic diag) throws IOException {
+    try (DataInputStream in = new DataInputStream(new BufferedInputStream(new GZIPInputStream(Files.newInputStream(file))))) {
+      if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+        throw new IOException("not a checkpoint file");
+      }
+
+      if (in.readUTF().equals(job.toDigest()) == false) {
+        throw new IOException("checkpoint is for a different job");
+      }
+
+      int costCutoff = in.readInt();
+
+      Map<String, Integer> solutions = new HashMap<>();
+      for (int i = in.readInt(); i > 0; i--) {
+        String solution = in.readUTF();
+        solutions.put(solution, in.readInt());
+      }
+
+      Map<String, Integer> existing = diag.registry().getInts();
+      for (int i = in.readInt(); i > 0; i--) {
+        String name = in.readUTF();
+        int value = in.readInt();
+
+        if (existing.containsKey(name) == false) {
+          diag.registry().setInt(name, value);
+        }
+      }
+
+      for (int i = in.readInt(); i > 0; i--) {
+        String name = in.readUTF();
+        diag.timing().addTiming(name, in.readLong());
+      }
+
+      Enumerants enumerants = Enumerants.read(in, job.getTree(), job.getCorpus(), diag);
+      return new Checkpoint(enumerants, costCutoff, solutions);
+    }
+  }
+
+  /**
+   * A Writer saves the snapshots of a single search to a file on a background
+   * thread. A snapshot is due once INTERVAL_MILLIS have passed since the last
+   * one was taken and it has finished writing, so a slow disk never queues
+   * up snapshots or holds up the search. A Writer without a file never saves
+   * anything.
+   */
+  public static class Writer implements AutoCloseable {
+    private final Path file;
+    private final long intervalNanos;
+    private final ExecutorService thread;
+    private long lastTaken;
+    private Future<?> writing;
+
+    public Writer (Path file) {
+      this(file, INTERVAL_MILLIS);
+    }
+
+    public Writer (Path file, long intervalMillis) {
+      this.file = file;
+      this.intervalNanos = intervalMillis * 1000000;
+      this.thread = (file == null) ? null : Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "checkpoint-writer");
+        thread.setDaemon(true);
+        return thread;
+      });
+      this.lastTaken = System.nanoTime();
+      this.writing = null;
+    }
+
+    public boolean isDue () {
+      return this.file != null
+        && System.nanoTime() - this.lastTaken >= this.intervalNanos
+        && (this.writing == null || this.writing.isDone());
+    }
+
+    /**
+     * Writes the snapshot after any snapshot still being written. Failing to
+     * write a snapshot doesn't stop the search.
+     */
+    public void save (byte[] snapshot) {
+      if (this.file == null) {
+        return;
+      }
+
+      this.lastTaken = System.nanoTime();
+      this.writing = this.thread.submit(() -> {
+        try {
+          Checkpoint.save(this.file, snapshot);
+        } catch (IOException ex) {
+          System.err.println("unable to write checkpoint: " + ex.getMessage());
+        }
+      });
+    }
+
+    /**
+     * Waits for the snapshots already taken to be written.
+     */
+    @Override
+    public void close () {
+      if (this.thread == null) {
+        return;
+      }
+
+      this.thread.shutdown();
+
+      try {
+        this.thread.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+      } catch (InterruptedException ex) {
+        Thread.currentThread().interrupt();
+      }
+    }
+  }
+}
@@ -1,14 +1,27 @@
 package edu.wisc.regfixer;
 
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.concurrent.TimeoutException;
 import java.util.HashMap;
 import java.util.TreeSet;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.TreeSet;
 
+import edu.wisc.regfixer.automata.AutomatonCache;
+import edu.wisc.regfixer.automata.Route;
+import edu.wisc.regfixer.automata.RouteCache;
+import edu.wisc.regfixer.diagnostic.DeadlineExceeded;
 import edu.wisc.regfixer.diagnostic.Diagnostic;
 import edu.wisc.regfixer.diagnostic.Timing;
 import edu.wisc.regfixer.enumerate.Enumerant;
@@ -17,10 +30,16 @@ import edu.wisc.regfixer.enumerate.Expansion;
 import edu.wisc.regfixer.enumerate.Job;
 import edu.wisc.regfixer.enumerate.Range;
 import edu.wisc.regfixer.enumerate.UnknownChar;
+import edu.wisc.regfixer.synthesize.Formula;
 import edu.wisc.regfixer.synthesize.Synthesis;
 import edu.wisc.regfixer.synthesize.SynthesisFailure;
 
 public class RegFixer {
+  // When templates are evaluated in parallel, each batch holds at most this
+  // many templates per worker thread so that very large cost tiers don't have
+  // to be held in memory all at once.
+  private static final int TEMPLATES_PER_THREAD = 16;
+
   public static String fix (Job job) throws TimeoutException {
     return RegFixer.fix(job, new Diagnostic());
   }
@@ -34,14 +53,77 @@ public class RegFixer {
   }
 
   public static String fix (Job job, int loopCutoff, Diagnostic diag) throws TimeoutException {
-    diag.timing().startTiming("timeTotal");
-    diag.timing().startTiming("timeToFirstSol");
+    return RegFixer.fix(job, loopCutoff, diag, null);
+  }
+
+  /**
+   * Looks for the job in the given cache (which may be null) before searching
+   * and caches any repair found by a search that ran to completion.
+   */
+  public static String fix (Job job, int loopCutoff, Diagnostic diag, SolutionCache cache) throws TimeoutException {
+    return RegFixer.fix(job, loopCutoff, diag, cache, SearchListener.NONE);
+  }
+
+  /**
+   * Reports each template searched and each solution found to the listener
+   * as the search runs. A cached repair is reported as a single solution.
+   */
+  public static String fix (Job job, int loopCutoff, Diagnostic diag, SolutionCache cache, SearchListener listener) throws TimeoutException {
+    if (cache != null) {
+      String cached = cache.get(job, loopCutoff, diag);
+
+      if (cached != null) {
+        diag.output().printSectionHeader("Found in the solution cache:");
+        diag.output().printIndent(cached);
+        diag.output().printSectionHeader("Originally computed in:");
+        diag.output().printIndent(String.format("%dms", diag.getInt("cachedSearchMillis")));
+        diag.output().printSectionHeader("All done");
+
+        listener.onSolution(diag.getInt("costOfFirstSol"), cached);
+        RegFixer.printResult(job, cached, diag);
+        return cached;
+      }
+    }
+
+    String solution = RegFixer.repair(job, loopCutoff, diag, listener);
+
+    // A search stopped by its deadline (or cancelled) may have missed a
+    // better repair than the one it found so that repair isn't cached.
+    if (cache != null && solution != null && diag.deadline().isExpired() == false) {
+      cache.put(job, loopCutoff, solution, diag.timing().getTiming("timeTotal", Timing.Format.MilliSec), diag);
+    }
+
+    return solution;
+  }
+
+  private static String repair (Job job, int loopCutoff, Diagnostic diag, SearchListener listener) throws TimeoutException {
+    // A search resumed from a checkpoint picks up where the checkpointed
+    // search stopped, including its statistics.
+    Checkpoint resumed = null;
+    if (diag.getStr("resume").isEmpty() == false) {
+      try {
+        resumed = Checkpoint.load(Paths.get(diag.getStr("resume")), job, diag);
+      } catch (IOException ex) {
+        throw new RuntimeException("unable to resume from checkpoint: " + ex.getMessage());
+      }
+    }
 
     // Keep track of all solutions found. Each solution is mapped to its
     // fitness score which is a count of how many single character classes are
     // included in its synthesized character classes.
     String solution = null;
     Map<String, Integer> solutions = new HashMap<>();
+    int costCutoff = Integer.MAX_VALUE;
+
+    if (resumed != null) {
+      solutions.putAll(resumed.getSolutions());
+      costCutoff = resumed.getCostCutoff();
+    }
+
+    diag.timing().startTiming("timeTotal");
+    if (solutions.isEmpty()) {
+      diag.timing().startTiming("timeToFirstSol");
+    }
 
     // Print the report header which describes the initial inputs to the
     // search algorithm including the initial regular expression, any explicit
@@ -65,103 +147,36 @@ public class RegFixer {
     diag.output().printHeader();
 
     diag.registry().setInt("size", job.getTree().descendants());
-    Enumerants enumerants = new Enumerants(job.getTree(), job.getCorpus(), diag);
-    Enumerant enumerant = null;
+    Enumerants enumerants = (resumed == null)
+      ? new Enumerants(job.getTree(), job.getCorpus(), diag)
+      : resumed.getEnumerants();
+
+    // Templates expanded from the same parent share most of their syntax
+    // trees so automata built for those shared subtrees are kept around for
+    // the rest of the search.
+    AutomatonCache automata = new AutomatonCache();
 
     if (job.getCorpus().getMatches(job.getTree()).equals(job.getCorpus().getPositiveRanges())) {
       System.exit(0);
     }
 
-    // Once the first solution is found, the algorithm can be configured to
-    // keep searching in order to find a better solution. In this case, the
-    // alrogithm will only keep searching as long as there are more templates
-    // that have a cost equal-to or less-than the cost of the first solution.
-    // This variable tracks the maximum cost allowed to search. Before a
-    // solution is found, the cutoff is huge to allow any template. After the
-    // first solution is found the cutoff is set to the cost of the first
-    // solution.
-    int costCutoff = Integer.MAX_VALUE;
-
-    int i = 0;
-    while ((enumerant = enumerants.poll()) != null) {
-      // Stop the loop if the cost of the current template is greater than
-      // cutoff or if the number of templates searched is greater than the
-      // loop cutoff.
-      if (enumerant.getCost() > costCutoff) {
-        break;
-      } else if (loopCutoff > -1 && diag.registry().bumpInt("templatesTotal") >= loopCutoff) {
-        diag.registry().setInt("templatesTotal", diag.getInt("templatesTotal") - 1);
-
-        if (solutions.size() == 0) {
-          throw new TimeoutException("enumeration loop limit reached");
-        } else {
-          break;
-        }
-      }
-
-      // Print some information about the current template.
-      diag.output().printPartialRow(enumerant.getCost(), enumerant.toString());
-
-      Synthesis synthesis = null;
-      Expansion expansion = enumerant.getLatestExpansion();
-
-      boolean passesTests = true;
-
-      switch (expansion) {
-      case Concat:
-        if (diag.getBool("test-all") || diag.getBool("test-dot")) {
-          diag.timing().startTiming("timeDotTest");
-          passesTests = job.getCorpus().passesDotTest(enumerant);
-          diag.timing().stopTimingAndAdd("timeDotTest");
-
-          // Increment appropriate counters.
-          diag.registry().bumpInt("totalDotTests");
-          if (passesTests == false) {
-            diag.registry().bumpInt("totalDotTestsRejects");
-          }
-        }
-        break;
-      case Star:
-      case Optional:
-        if (diag.getBool("test-all") || diag.getBool("test-emptyset")) {
-          diag.timing().startTiming("timeEmptySetTest");
-          passesTests = job.getCorpus().passesEmptySetTest(enumerant);
-          diag.timing().stopTimingAndAdd("timeEmptySetTest");
-
-          // Increment appropriate counters.
-          diag.registry().bumpInt("testEmptySetTotal");
-          if (passesTests == false) {
-            diag.registry().bumpInt("testEmptySetRejections");
-          }
-        }
-        break;
-      }
-
-      if (passesTests) {
-        try {
-          synthesis = RegFixer.synthesisLoop(job, enumerant, diag);
-        } catch (SynthesisFailure ex) {
-          diag.output().finishRow(ex.getMessage());
-          continue;
-        }
+    Path checkpoint = diag.getStr("checkpoint").isEmpty() ? null : Paths.get(diag.getStr("checkpoint"));
+    try (Checkpoint.Writer checkpoints = new Checkpoint.Writer(checkpoint)) {
+      if (diag.getInt("threads") > 1) {
+        RegFixer.searchInParallel(job, enumerants, automata, loopCutoff, costCutoff, solutions, checkpoints, listener, diag);
+      } else {
+        RegFixer.search(job, enumerants, automata, loopCutoff, costCutoff, solutions, checkpoints, listener, diag);
       }
+    }
 
-      if (synthesis != null) {
-        if (solutions.size() == 0) {
-          diag.timing().stopTimingAndAdd("timeToFirstSol");
-          diag.registry().setInt("templatesToFirstSol", diag.getInt("templatesTotal"));
-          diag.registry().setInt("costOfFirstSol", enumerant.getCost());
-        }
-
-        String sol = synthesis.toString();
-        int fit = synthesis.getFitness();
-        solutions.put(sol, fit);
-
-        diag.output().finishRow(sol);
-        costCutoff = enumerant.getCost();
-      }
+    // A search stopped by its deadline keeps any solutions found so far.
+    if (solutions.size() == 0 && diag.deadline().isExpired()) {
+      throw new TimeoutException("search deadline reached");
     }
 
+    diag.registry().setInt("automatonCacheHits", automata.getHits());
+    diag.registry().setInt("automatonCacheMisses", automata.getMisses());
+
     diag.timing().stopTimingAndAdd("timeTotal");
 
     if (solutions.size() > 0) {
@@ -187,18 +202,35 @@ public class RegFixer {
         diag.output().printSectionHeader("Statistics:");
         diag.output().printIndent("Templates:");
         diag.output().printIndent(String.format("  Total:      %d", diag.getInt("templatesTotal")));
-        diag.output().printIndent(String.format("  Before sol: %d", diag.getInt("templatesToFirstSolution")));
+        diag.output().printIndent(String.format("  Before sol: %d", diag.getInt("templatesToFirstSol")));
+        if (diag.getBool("debug-history")) {
+          diag.output().printIndent(String.format("  Collisions: %d", diag.getInt("historyCollisions")));
+        }
         diag.output().println();
         diag.output().printIndent("Tests:");
         diag.output().printIndent("  Dot Star:");
-        diag.output().printIndent(String.format("    Total:    %d", diag.getInt("testDotStarTotal")));
-        diag.output().printIndent(String.format("    Rejected: %d", diag.getInt("testDotStarRejections")));
+        diag.output().printIndent(String.format("    Total:    %d", diag.getInt("totalDotStarTests")));
+        diag.output().printIndent(String.format("    Rejected: %d", diag.getInt("totalDotStarTestsRejects")));
         diag.output().printIndent("  Empty Set:");
-        diag.output().printIndent(String.format("    Total:    %d", diag.getInt("testEmptySetTotal")));
-        diag.output().printIndent(String.format("    Rejected: %d", diag.getInt("testEmptySetRejections")));
+        diag.output().printIndent(String.format("    Total:    %d", diag.getInt("totalEmptySetTests")));
+        diag.output().printIndent(String.format("    Rejected: %d", diag.getInt("totalEmptySetTestsRejects")));
         diag.output().printIndent("  Dot:");
-        diag.output().printIndent(String.format("    Total:    %d", diag.getInt("testDotTotal")));
-        diag.output().printIndent(String.format("    Rejected: %d", diag.getInt("testDotRejections")));
+        diag.output().printIndent(String.format("    Total:    %d", diag.getInt("totalDotTests")));
+        diag.output().printIndent(String.format("    Rejected: %d", diag.getInt("totalDotTestsRejects")));
+        diag.output().printIndent("  Length:");
+        diag.output().printIndent(String.format("    Total:    %d", diag.getInt("testLengthTotal")));
+        diag.output().printIndent(String.format("    Rejected: %d", diag.getInt("testLengthRejections")));
+        diag.output().printIndent("  Bounds:");
+        diag.output().printIndent(String.format("    Total:    %d", diag.getInt("testBoundsTotal")));
+        diag.output().printIndent(String.format("    Rejected: %d", diag.getInt("testBoundsRejections")));
+        diag.output().printIndent("  Unsat:");
+        diag.output().printIndent(String.format("    Cores:    %d", diag.getInt("testUnsatCores")));
+        diag.output().printIndent(String.format("    Rejected: %d", diag.getInt("testUnsatRejections")));
+        diag.output().println();
+        diag.output().printIndent("Z3:");
+        diag.output().printIndent(String.format("  Contexts reused:  %d", diag.getInt("contextPoolHits")));
+        diag.output().printIndent(String.format("  Contexts created: %d", diag.getInt("contextPoolMisses")));
+        diag.output().printIndent(String.format("  Peak memory:      %dkb", diag.getInt("maximumNativeMemory")));
         diag.output().println();
         diag.output().printIndent("Timings:");
         diag.output().printIndent(String.format("  Whole: %d", diag.timing().getTiming("timeTotal")));
@@ -207,6 +239,11 @@ public class RegFixer {
       diag.output().printSectionHeader("All done");
     }
 
+    RegFixer.printResult(job, solution, diag);
+    return solution;
+  }
+
+  private static void printResult (Job job, String solution, Diagnostic diag) {
     if (diag.getBool("output-csv")) {
       System.out.printf("\"%s\",", job.getName());
       System.out.printf("%d,",     diag.registry().getInt("size", 0));
@@ -236,111 +273,434 @@ public class RegFixer {
     } else if (solution != null && diag.getBool("output-solution")) {
       System.out.println(solution);
     }
+  }
 
-    return solution;
+  private static void search (Job job, Enumerants enumerants, AutomatonCache automata, int loopCutoff, int costCutoff, Map<String, Integer> solutions, Checkpoint.Writer checkpoints, SearchListener listener, Diagnostic diag) throws TimeoutException {
+    // Once the first solution is found, the algorithm can be configured to
+    // keep searching in order to find a better solution. In this case, the
+    // alrogithm will only keep searching as long as there are more templates
+    // that have a cost equal-to or less-than the cost of the first solution.
+    // The 'costCutoff' tracks the maximum cost allowed to search. Before a
+    // solution is found, the cutoff is huge to allow any template. After the
+    // first solution is found the cutoff is set to the cost of the first
+    // solution.
+    Enumerant enumerant = null;
+
+    while (listener.isCancelled() == false && (enumerant = enumerants.poll(automata)) != null) {
+      // Stop the loop if the cost of the current template is greater than
+      // cutoff.
+      if (enumerant.getCost() > costCutoff) {
+        break;
+      }
+
+      // Periodically snapshot the search. The current template hasn't been
+      // searched yet so a resumed search starts with it.
+      if (checkpoints.isDue()) {
+        RegFixer.checkpoint(checkpoints, job, enumerants, true, costCutoff, solutions, diag);
+      }
+
+      // Stop the loop if the number of templates searched is greater than the
+      // loop cutoff.
+      if (loopCutoff > -1 && diag.registry().bumpInt("templatesTotal") >= loopCutoff) {
+        diag.registry().setInt("templatesTotal", diag.getInt("templatesTotal") - 1);
+
+        // The template that reached the limit hasn't been searched so a
+        // resumed search starts with it.
+        RegFixer.checkpoint(checkpoints, job, enumerants, true, costCutoff, solutions, diag);
+
+        if (solutions.size() == 0) {
+          throw new TimeoutException("enumeration loop limit reached");
+        } else {
+          break;
+        }
+      }
+
+      // Print some information about the current template.
+      diag.output().printPartialRow(enumerant.getCost(), enumerant.toString());
+
+      Synthesis synthesis = null;
+
+      try {
+        synthesis = RegFixer.evaluate(job, enumerant, enumerants, automata, diag);
+      } catch (SynthesisFailure | DeadlineExceeded ex) {
+        // Once the deadline has passed the next poll ends the search.
+        diag.output().finishRow(ex.getMessage());
+        listener.onTemplate(enumerant.getCost(), enumerant.toString(), ex.getMessage());
+        continue;
+      }
+
+      if (synthesis != null) {
+        RegFixer.addSolution(solutions, enumerant, synthesis, diag.getInt("templatesTotal"), listener, diag);
+        costCutoff = enumerant.getCost();
+      } else {
+        listener.onTemplate(enumerant.getCost(), enumerant.toString(), null);
+      }
+    }
+  }
+
+  /**
+   * The parallel search visits templates in the same order as the sequential
+   * search but evaluates batches of templates that share the same cost on a
+   * pool of worker threads. Since the sequential search always finishes the
+   * cost tier where its first solution was found (and then stops), evaluating
+   * a whole tier at once produces the same set of solutions.
+   */
+  private static void searchInParallel (Job job, Enumerants enumerants, AutomatonCache automata, int loopCutoff, int costCutoff, Map<String, Integer> solutions, Checkpoint.Writer checkpoints, SearchListener listener, Diagnostic diag) throws TimeoutException {
+    int threads = diag.getInt("threads");
+    ExecutorService pool = Executors.newFixedThreadPool(threads);
+
+    try {
+      // See RegFixer#search for how the cost cutoff is used.
+      boolean reachedLoopCutoff = false;
+      Enumerant next = enumerants.poll(automata);
+
+      while (next != null && next.getCost() <= costCutoff && reachedLoopCutoff == false && listener.isCancelled() == false) {
+        // Collect a batch of templates that all have the same cost. The number
+        // of templates explored is counted as each template is added to the
+        // batch so that the loop cutoff applies to exactly the same templates
+        // as it would during a sequential search.
+        int tierCost = next.getCost();
+        List<Enumerant> batch = new ArrayList<>();
+        List<Integer> ordinals = new ArrayList<>();
+
+        while (next != null && next.getCost() == tierCost && batch.size() < threads * TEMPLATES_PER_THREAD) {
+          if (loopCutoff > -1 && diag.registry().bumpInt("templatesTotal") >= loopCutoff) {
+            diag.registry().setInt("templatesTotal", diag.getInt("templatesTotal") - 1);
+            reachedLoopCutoff = true;
+            break;
+          }
+
+          batch.add(next);
+          ordinals.add(diag.getInt("templatesTotal"));
+          next = enumerants.poll(automata);
+        }
+
+        // Each template gets its own forked diagnostic so that any debugging
+        // output can be printed next to the template's row once the template
+        // has finished evaluating.
+        List<Diagnostic> forks = new ArrayList<>();
+        List<Future<Synthesis>> futures = new ArrayList<>();
+        for (Enumerant enumerant : batch) {
+          Diagnostic fork = diag.fork();
+          forks.add(fork);
+          futures.add(pool.submit(() -> RegFixer.evaluate(job, enumerant, enumerants, automata, fork)));
+        }
+
+        // Report the results in the same order the templates were polled.
+        for (int i = 0; i < batch.size(); i++) {
+          Enumerant enumerant = batch.get(i);
+          diag.output().printPartialRow(enumerant.getCost(), enumerant.toString());
+
+          Synthesis synthesis = null;
+
+          try {
+            synthesis = futures.get(i).get();
+            diag.join(forks.get(i));
+          } catch (ExecutionException ex) {
+            diag.join(forks.get(i));
+
+            if (ex.getCause() instanceof SynthesisFailure || ex.getCause() instanceof DeadlineExceeded) {
+              diag.output().finishRow(ex.getCause().getMessage());
+              listener.onTemplate(enumerant.getCost(), enumerant.toString(), ex.getCause().getMessage());
+              continue;
+            } else if (ex.getCause() instanceof RuntimeException) {
+              throw (RuntimeException) ex.getCause();
+            } else {
+              throw new RuntimeException(ex.getCause());
+            }
+          } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new TimeoutException("interrupted while evaluating templates");
+          }
+
+          if (synthesis != null) {
+            RegFixer.addSolution(solutions, enumerant, synthesis, ordinals.get(i), listener, diag);
+            costCutoff = tierCost;
+          } else {
+            listener.onTemplate(enumerant.getCost(), enumerant.toString(), null);
+          }
+        }
+
+        // Periodically snapshot the search. The next template (if there is
+        // one) has already been polled but not searched so a resumed search
+        // starts with it.
+        if (reachedLoopCutoff || checkpoints.isDue()) {
+          RegFixer.checkpoint(checkpoints, job, enumerants, next != null, costCutoff, solutions, diag);
+        }
+      }
+
+      if (reachedLoopCutoff && solutions.size() == 0) {
+        throw new TimeoutException("enumeration loop limit reached");
+      }
+    } finally {
+      pool.shutdownNow();
+    }
+  }
+
+  /**
+   * Takes a snapshot of the search for the writer to save to the file given
+   * by the "checkpoint" option, if any. Failing to take a snapshot doesn't
+   * stop the search.
+   */
+  private static void checkpoint (Checkpoint.Writer checkpoints, Job job, Enumerants enumerants, boolean includePolled, int costCutoff, Map<String, Integer> solutions, Diagnostic diag) {
+    if (diag.getStr("checkpoint").isEmpty()) {
+      return;
+    }
+
+    try {
+      checkpoints.save(Checkpoint.snapshot(job, enumerants, includePolled, costCutoff, solutions, diag));
+    } catch (IOException ex) {
+      System.err.println("unable to write checkpoint: " + ex.getMessage());
+    }
   }
 
-  private static Synthesis synthesisLoop (Job job, Enumerant enumerant, Diagnostic diag) throws SynthesisFailure {
+  private static Synthesis evaluate (Job job, Enumerant enumerant, Enumerants enumerants, AutomatonCache automata, Diagnostic diag) throws SynthesisFailure {
+    boolean passesTests = true;
+
+    if (diag.getBool("test-all") || diag.getBool("test-length")) {
+      diag.timing().startTiming("timeLengthTest");
+      passesTests = job.getCorpus().passesLengthTest(enumerant);
+      diag.timing().stopTimingAndAdd("timeLengthTest");
+
+      // Increment appropriate counters.
+      diag.registry().bumpInt("testLengthTotal");
+      if (passesTests == false) {
+        diag.registry().bumpInt("testLengthRejections");
+        return null;
+      }
+    }
+
+    switch (enumerant.getLatestExpansion()) {
+    case Concat:
+      if (diag.getBool("test-all") || diag.getBool("test-dot")) {
+        diag.timing().startTiming("timeDotTest");
+        passesTests = job.getCorpus().passesDotTest(enumerant);
+        diag.timing().stopTimingAndAdd("timeDotTest");
+
+        // Increment appropriate counters.
+        diag.registry().bumpInt("totalDotTests");
+        if (passesTests == false) {
+          diag.registry().bumpInt("totalDotTestsRejects");
+        }
+      }
+      break;
+    case Star:
+    case Optional:
+      if (diag.getBool("test-all") || diag.getBool("test-emptyset")) {
+        diag.timing().startTiming("timeEmptySetTest");
+        passesTests = job.getCorpus().passesEmptySetTest(enumerant);
+        diag.timing().stopTimingAndAdd("timeEmptySetTest");
+
+        // Increment appropriate counters.
+        diag.registry().bumpInt("totalEmptySetTests");
+        if (passesTests == false) {
+          diag.registry().bumpInt("totalEmptySetTestsRejects");
+        }
+      }
+      break;
+    }
+
+    if (passesTests) {
+      return RegFixer.synthesisLoop(job, enumerant, enumerants, automata, diag);
+    }
+
+    return null;
+  }
+
+  private static void addSolution (Map<String, Integer> solutions, Enumerant enumerant, Synthesis synthesis, int templatesSoFar, SearchListener listener, Diagnostic diag) {
+    if (solutions.size() == 0) {
+      diag.timing().stopTimingAndAdd("timeToFirstSol");
+      diag.registry().setInt("templatesToFirstSol", templatesSoFar);
+      diag.registry().setInt("costOfFirstSol", enumerant.getCost());
+    }
+
+    String sol = synthesis.toString();
+    int fit = synthesis.getFitness();
+    solutions.put(sol, fit);
+
+    diag.output().finishRow(sol);
+    listener.onTemplate(enumerant.getCost(), enumerant.toString(), sol);
+    listener.onSolution(enumerant.getCost(), sol);
+  }
+
+  private static Synthesis synthesisLoop (Job job, Enumerant enumerant, Enumerants enumerants, AutomatonCache automata, Diagnostic diag) throws SynthesisFailure {
+    // The template doesn't change between iterations of the synthesis loop so
+    // its automaton only needs to be built once and each example only needs to
+    // be traced through that automaton once.
+    RouteCache routes = new RouteCache(enumerant.toAutomaton(automata), diag.deadline());
+
     if (job.getCorpus().hasAllNegativeExamples()) {
-      return enumerant.synthesize(
-        job.getCorpus().getPositiveExamples(),
-        job.getCorpus().getNegativeExamples(),
-        diag);
+      Formula formula = enumerant.toFormula(job.getCorpus().getPositiveExamples(), routes, diag);
+
+      try {
+        return enumerant.synthesize(formula, job.getCorpus().getNegativeExamples(), routes, diag);
+      } catch (SynthesisFailure ex) {
+        RegFixer.learnConflict(job, enumerant, formula, routes, enumerants, diag);
+        throw ex;
+      } finally {
+        formula.close();
+      }
     }
 
     Set<Range> P = new TreeSet<>(job.getCorpus().getPositiveRanges());
     Set<Range> N = new TreeSet<>(job.getCorpus().getNegativeRanges());
     Synthesis synthesis = null;
 
-    /**
-     * The synthesis loop takes a regular expression template (the enumerant)
-     * which has 1 or more unknown character classes embedded in it. The job of
-     * this loop is--given sets of positive and negative example strings--to
-     * determine if character classes can be derrived for the unknown character
-     * classes that accept all the positive examples and reject all the negative
-     * examples.
-     */
-    while (true) {
-      /**
-       * For each iteration of the loop, given the positive examples P and the
-       * negative examples N, a SAT formula is generated to attempt to
-       * synthesize character class solutions for each unknown character class
-       * in the enumerant.
-       */
-      synthesis = enumerant.synthesize(
-        job.getCorpus().getPositiveExamples(),
-        job.getCorpus().getSubstrings(N),
-        diag);
-
-      /**
-       * It's possible that the solution synthesized by the SAT formula will not
-       * match only P but also may match some unexpected values O. Because 1 or
-       * more values exist in O is NOT sufficient to reject the enumerant as
-       * unsatisfiable yet. By incorporating some members of O into N the SAT
-       * synthesis can be retried and will eventually either reject the
-       * enumerant as unsatisfiable or derrive a perfect solution.
-       */
-      Set<Range> O = job.getCorpus().getMatches(synthesis);
+    // The SAT formula is built once from the positive examples and is then
+    // extended with only the negative examples that are new to each iteration
+    // so that the solver can keep what it learned in earlier iterations. The
+    // formula's Z3 context is given back to the pool once the loop finishes.
+    Formula formula = enumerant.toFormula(job.getCorpus().getPositiveExamples(), routes, diag);
+    Set<String> encodedN = new HashSet<>();
 
+    try {
       /**
-       * Not all members of O should be added to N. A member 'o' of O should NOT
-       * be added to N iff there exists some 'p' of P such that 'o' == 'p' OR
-       * both of the following conditions hold:
-       * 1) the lower bound of 'o' > the lower bound of 'p'
-       * 2) the lower bound of 'o' < the upper bound of 'p'
+       * The synthesis loop takes a regular expression template (the enumerant)
+       * which has 1 or more unknown character classes embedded in it. The job of
+       * this loop is--given sets of positive and negative example strings--to
+       * determine if character classes can be derrived for the unknown character
+       * classes that accept all the positive examples and reject all the negative
+       * examples.
        */
+      while (true) {
+        /**
+         * For each iteration of the loop, given the positive examples P and the
+         * negative examples N, a SAT formula is generated to attempt to
+         * synthesize character class solutions for each unknown character class
+         * in the enumerant.
+         */
+        Set<String> newN = job.getCorpus().getSubstrings(N);
+        newN.removeAll(encodedN);
+        encodedN.addAll(newN);
 
-      boolean matchesAllP = O.containsAll(job.getCorpus().getPositiveRanges());
-
-      // Handle condition 'o' == 'p'.
-      O.removeAll(job.getCorpus().getPositiveRanges());
+        try {
+          synthesis = enumerant.synthesize(formula, newN, routes, diag);
+        } catch (SynthesisFailure ex) {
+          // Later rounds include negatives found by this template's own
+          // solutions which other templates aren't checked against.
+          if (N.size() == job.getCorpus().getNegativeRanges().size()) {
+            RegFixer.learnConflict(job, enumerant, formula, routes, enumerants, diag);
+          }
 
-      // Handle condition len('o') == 0.
-      for (Iterator<Range> iter = O.iterator(); iter.hasNext();) {
-        if (iter.next().length() == 0) {
-          iter.remove();
+          throw ex;
         }
-      }
 
-      if (O.size() == 0 && matchesAllP) {
-        return synthesis;
-      }
+        /**
+         * It's possible that the solution synthesized by the SAT formula will not
+         * match only P but also may match some unexpected values O. Because 1 or
+         * more values exist in O is NOT sufficient to reject the enumerant as
+         * unsatisfiable yet. By incorporating some members of O into N the SAT
+         * synthesis can be retried and will eventually either reject the
+         * enumerant as unsatisfiable or derrive a perfect solution.
+         */
+        Set<Range> O = job.getCorpus().getMatches(synthesis, diag.deadline());
+
+        /**
+         * Not all members of O should be added to N. A member 'o' of O should NOT
+         * be added to N iff there exists some 'p' of P such that 'o' == 'p' OR
+         * both of the following conditions hold:
+         * 1) the lower bound of 'o' > the lower bound of 'p'
+         * 2) the lower bound of 'o' < the upper bound of 'p'
+         */
+
+        boolean matchesAllP = O.containsAll(job.getCorpus().getPositiveRanges());
+
+        // Handle condition 'o' == 'p'.
+        O.removeAll(job.getCorpus().getPositiveRanges());
+
+        // Handle condition len('o') == 0.
+        for (Iterator<Range> iter = O.iterator(); iter.hasNext();) {
+          if (iter.next().length() == 0) {
+            iter.remove();
+          }
+        }
 
-      // Handle conditions 1 and 2.
-      Set<Range> pendingN = new TreeSet<>();
-      outerLoop:
-      for (Range o : O) {
-        if (o.length() == 0) {
-          continue;
+        if (O.size() == 0 && matchesAllP) {
+          return synthesis;
         }
 
-        for (Range p : P) {
-          // If starts in middle of p exit
-          boolean cond1 = o.getLeftIndex() > p.getLeftIndex();
-          boolean cond2 = o.getLeftIndex() < p.getRightIndex();
-          if (cond1 && cond2) {
-            continue outerLoop;
+        // Handle conditions 1 and 2.
+        Set<Range> pendingN = new TreeSet<>();
+        outerLoop:
+        for (Range o : O) {
+          if (o.length() == 0) {
+            continue;
+          }
+
+          for (Range p : P) {
+            // If starts in middle of p exit
+            boolean cond1 = o.getLeftIndex() > p.getLeftIndex();
+            boolean cond2 = o.getLeftIndex() < p.getRightIndex();
+            if (cond1 && cond2) {
+              continue outerLoop;
+            }
+
+            // if same start as p but shorter exit
+            boolean cond3 = o.getLeftIndex() == p.getLeftIndex();
+            if(cond3 && o.length()<p.length())
+              continue outerLoop;
           }
 
-          // if same start as p but shorter exit
-          boolean cond3 = o.getLeftIndex() == p.getLeftIndex();
-          if(cond3 && o.length()<p.length())
-            continue outerLoop;
+          pendingN.add(o);
         }
 
-        pendingN.add(o);
+        /**
+         * If all 'o' that are eligible to be added to N are already contained in
+         * N then the synthesis loop fails because no new information can be
+         * learned that will improve the synthesized solutions.
+         */
+        if (pendingN.size() == 0 || N.containsAll(pendingN)) {
+          throw new SynthesisFailure("failed to find novel incorrect matches");
+        } else {
+          N.addAll(pendingN);
+        }
       }
+    } finally {
+      formula.close();
+    }
+  }
 
-      /**
-       * If all 'o' that are eligible to be added to N are already contained in
-       * N then the synthesis loop fails because no new information can be
-       * learned that will improve the synthesized solutions.
-       */
-      if (pendingN.size() == 0 || N.containsAll(pendingN)) {
-        throw new SynthesisFailure("failed to find novel incorrect matches");
-      } else {
-        N.addAll(pendingN);
+  /**
+   * Records which of the job's examples made a template's formula
+   * unsatisfiable so that the enumerator can skip other templates that would
+   * fail for the same reason. Nothing is recorded if the formula failed for
+   * another reason or if no core could be found.
+   */
+  private static void learnConflict (Job job, Enumerant enumerant, Formula formula, RouteCache routes, Enumerants enumerants, Diagnostic diag) {
+    if (!(diag.getBool("test-all") || diag.getBool("test-unsat")) || formula.isUnsatisfiable() == false) {
+      return;
+    }
+
+    List<Set<Route>> core = formula.getUnsatCore();
+    if (core == null) {
+      return;
+    }
+
+    Set<String> examples = new HashSet<>(job.getCorpus().getPositiveExamples());
+    examples.addAll(job.getCorpus().getNegativeExamples());
+
+    // The formula only knows each example by its routes so find the examples
+    // again. Every example in the core has to be found or the conflict would
+    // be missing some of its constraints.
+    Map<String, Set<Route>> conflict = new HashMap<>();
+    Set<Set<Route>> found = new HashSet<>();
+
+    try {
+      for (String example : examples) {
+        Set<Route> traced = routes.trace(example);
+
+        if (core.contains(traced)) {
+          conflict.put(example, traced);
+          found.add(traced);
+        }
       }
+    } catch (org.sat4j.specs.TimeoutException ex) {
+      return;
+    }
+
+    if (found.size() == new HashSet<>(core).size()) {
+      enumerants.addConflict(enumerant, conflict);
+      diag.registry().bumpInt("testUnsatCores");
     }
   }
 }
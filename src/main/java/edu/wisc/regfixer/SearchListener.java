@@ -0,0 +1,33 @@
+package edu.wisc.regfixer;
+
+/**
+ * A SearchListener is told about the progress of a search as it happens
+ * instead of waiting for RegFixer#fix to return. Templates and solutions are
+ * reported in the same order the search report prints them, always on the
+ * thread that called RegFixer#fix (even when templates are evaluated in
+ * parallel).
+ *
+ * The listener can also stop the search early. Once #isCancelled returns true
+ * no more templates are searched and RegFixer#fix returns the best solution
+ * found so far (or null if there isn't one).
+ */
+public interface SearchListener {
+  public static final SearchListener NONE = new SearchListener() {};
+
+  /**
+   * Called for each template searched with the solution synthesized for the
+   * template, the reason synthesis failed, or null if the template was
+   * rejected by one of the tests without attempting synthesis.
+   */
+  public default void onTemplate (int cost, String template, String result) {}
+
+  /**
+   * Called for each solution as soon as it's found. The cost is the cost of
+   * the template the solution was synthesized from.
+   */
+  public default void onSolution (int cost, String solution) {}
+
+  public default boolean isCancelled () {
+    return false;
+  }
+}
@@ -9,7 +9,10 @@ import java.util.concurrent.TimeoutException;
 
 import com.google.gson.Gson;
 import com.google.gson.JsonSyntaxException;
+import edu.wisc.regfixer.diagnostic.Deadline;
+import edu.wisc.regfixer.diagnostic.Diagnostic;
 import edu.wisc.regfixer.enumerate.Job;
+import edu.wisc.regfixer.server.EventStream;
 import edu.wisc.regfixer.server.RequestError;
 import edu.wisc.regfixer.server.RequestPayload;
 import edu.wisc.regfixer.server.ResponseError;
@@ -23,6 +26,18 @@ import static spark.Spark.staticFileLocation;
 
 public class Server {
   public static void start (int portNum, int loopLimit, boolean debug) {
+    Server.start(portNum, loopLimit, debug, null);
+  }
+
+  public static void start (int portNum, int loopLimit, boolean debug, SolutionCache cache) {
+    Server.start(portNum, loopLimit, debug, cache, -1);
+  }
+
+  /**
+   * Each request's search is given a deadline of 'deadlineMillis' unless it
+   * is negative.
+   */
+  public static void start (int portNum, int loopLimit, boolean debug, SolutionCache cache, long deadlineMillis) {
     Gson gson = new Gson();
 
     port(portNum);
@@ -50,8 +65,7 @@ public class Server {
       Job job = request.toJob();
 
       try {
-        RegFixer.Result output = RegFixer.fix(job, loopLimit);
-        result = (output.hasSolution) ? output.solution : null;
+        result = RegFixer.fix(job, loopLimit, Server.createDiagnostic(deadlineMillis), cache);
       } catch (TimeoutException ex) {
         res.status(408);
         return gson.toJson(new ResponseError("synthesis timeout"));
@@ -66,5 +80,56 @@ public class Server {
         return gson.toJson(new ResponsePayload(result));
       }
     });
+
+    // Streams each solution (and each template searched if the 'templates'
+    // query parameter is 'true') as a Server-Sent Event while the search
+    // runs. The stream ends with a 'done' event holding the best solution or
+    // an 'error' event. Closing the connection cancels the search, which is
+    // noticed by the next event or heartbeat written.
+    post("/api/fix/stream", (req, res) -> {
+      RequestPayload request = null;
+
+      try {
+        request = gson.fromJson(req.body(), RequestPayload.class);
+      } catch (Exception ex) {
+        res.status(400);
+        return gson.toJson(new RequestError("malformed JSON"));
+      }
+
+      Job job = request.toJob();
+
+      res.status(200);
+      res.type("text/event-stream; charset=utf-8");
+      res.header("Cache-Control", "no-cache");
+
+      Diagnostic diag = Server.createDiagnostic(deadlineMillis);
+      EventStream events = new EventStream(res.raw().getOutputStream(), "true".equals(req.queryParams("templates")), diag.deadline());
+
+      try {
+        String result = RegFixer.fix(job, loopLimit, diag, cache, events);
+
+        if (result == null) {
+          events.send("error", new ResponseError("synthesis failed"));
+        } else {
+          events.send("done", new ResponsePayload(result));
+        }
+      } catch (TimeoutException ex) {
+        events.send("error", new ResponseError("synthesis timeout"));
+      } finally {
+        events.close();
+      }
+
+      return "";
+    });
+  }
+
+  private static Diagnostic createDiagnostic (long deadlineMillis) {
+    Diagnostic diag = new Diagnostic();
+
+    if (deadlineMillis >= 0) {
+      diag.setDeadline(new Deadline(deadlineMillis));
+    }
+
+    return diag;
   }
 }
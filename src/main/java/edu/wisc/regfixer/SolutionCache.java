@@ -0,0 +1,208 @@
+package edu.wisc.regfixer;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
+import edu.wisc.regfixer.diagnostic.Diagnostic;
+import edu.wisc.regfixer.enumerate.Job;
+import org.apache.commons.codec.digest.DigestUtils;
+
+/**
+ * SolutionCache remembers the repairs found for earlier jobs (and the search
+ * statistics of those jobs) in a directory on disk so that resubmitting an
+ * identical job returns immediately instead of searching again. Entries are
+ * keyed by Job#toDigest() along with the options that change which repair
+ * the search finds (see #getKey) and stored as one small JSON file per job.
+ *
+ * The files in the directory are kept below a total size by deleting the
+ * least recently used entries. Reading an entry counts as using it. Only
+ * repairs found by searches that ran to completion (that weren't stopped by
+ * their deadline or cancelled) are cached so a job that timed out can be
+ * retried (for example with a higher loop limit).
+ */
+public class SolutionCache {
+  public static final long DEFAULT_MAX_BYTES = 64L << 20;
+
+  private static final String SUFFIX = ".json";
+
+  // Counts copied from the diagnostic registry of the search that found the
+  // cached repair so that reports of a cached job show the original search.
+  private static final String[] STATS = {
+    "size",
+    "templatesTotal",
+    "templatesToFirstSol",
+    "costOfFirstSol",
+    "maximumRoutes",
+  };
+
+  // Search options that change which repair is found for a job.
+  private static final String[] OPTIONS = {
+    "test-all",
+    "test-bounds",
+    "test-dot",
+    "test-emptyset",
+    "test-length",
+    "test-unsat",
+  };
+
+  private final Path directory;
+  private final long maxBytes;
+  private final Gson gson;
+
+  private static class Entry {
+    private String solution;
+    private Map<String, Integer> stats;
+    private long searchMillis;
+  }
+
+  public SolutionCache (Path directory) throws IOException {
+    this(directory, DEFAULT_MAX_BYTES);
+  }
+
+  public SolutionCache (Path directory, long maxBytes) throws IOException {
+    this.directory = Files.createDirectories(directory);
+    this.maxBytes = maxBytes;
+    this.gson = new Gson();
+  }
+
+  /**
+   * Returns the cached repair for the job or null if there isn't one. The
+   * statistics of the search that found the repair are copied into the given
+   * diagnostic.
+   */
+  public String get (Job job, int loopCutoff, Diagnostic diag) {
+    Path file = this.getPath(job, loopCutoff, diag);
+    Entry entry = null;
+
+    try (Reader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+      entry = this.gson.fromJson(reader, Entry.class);
+    } catch (IOException | JsonParseException ex) {
+      // Missing, partially deleted or unreadable entries are all misses.
+      return null;
+    }
+
+    if (entry == null || entry.solution == null) {
+      return null;
+    }
+
+    try {
+      Files.setLastModifiedTime(file, FileTime.fromMillis(System.currentTimeMillis()));
+    } catch (IOException ex) {
+      // The entry may have just been evicted which only affects its recency.
+    }
+
+    if (entry.stats != null) {
+      for (Map.Entry<String, Integer> stat : entry.stats.entrySet()) {
+        diag.registry().setInt(stat.getKey(), stat.getValue());
+      }
+    }
+
+    diag.registry().setInt("cachedSearchMillis", (int) Math.min(Integer.MAX_VALUE, entry.searchMillis));
+    return entry.solution;
+  }
+
+  /**
+   * Stores the repair found for the job along with the statistics of the
+   * search that found it. Failing to write the entry only means the job will
+   * be searched again next time so errors are ignored.
+   */
+  public void put (Job job, int loopCutoff, String solution, long searchMillis, Diagnostic diag) {
+    Entry entry = new Entry();
+    entry.solution = solution;
+    entry.stats = new HashMap<>();
+    entry.searchMillis = searchMillis;
+
+    for (String stat : STATS) {
+      entry.stats.put(stat, diag.registry().getInt(stat));
+    }
+
+    Path file = this.getPath(job, loopCutoff, diag);
+
+    try {
+      // Write to a temporary file first so that concurrent readers never see
+      // a partially written entry.
+      Path temp = Files.createTempFile(this.directory, "entry", ".tmp");
+      try (Writer writer = Files.newBufferedWriter(temp, StandardCharsets.UTF_8)) {
+        this.gson.toJson(entry, writer);
+      }
+
+      Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+      this.evict();
+    } catch (IOException ex) {
+      return;
+    }
+  }
+
+  private Path getPath (Job job, int loopCutoff, Diagnostic diag) {
+    return this.directory.resolve(SolutionCache.getKey(job, loopCutoff, diag) + SUFFIX);
+  }
+
+  /**
+   * Hashes the job's digest together with the loop limit, the pruning tests
+   * enabled in the diagnostic and the search's time limit, since a search
+   * with a different limit or different tests may find a different repair
+   * (or none).
+   */
+  static String getKey (Job job, int loopCutoff, Diagnostic diag) {
+    StringBuilder key = new StringBuilder(job.toDigest());
+    key.append(String.format("\nlimit=%d", loopCutoff));
+
+    for (String option : OPTIONS) {
+      key.append(String.format("\n%s=%b", option, diag.getBool(option)));
+    }
+
+    key.append(String.format("\ndeadline=%d", diag.deadline().getMillis()));
+
+    return DigestUtils.sha1Hex(key.toString());
+  }
+
+  private synchronized void evict () throws IOException {
+    List<Path> files = new ArrayList<>();
+    Map<Path, Long> sizes = new HashMap<>();
+    Map<Path, Long> times = new HashMap<>();
+    long total = 0;
+
+    try (DirectoryStream<Path> stream = Files.newDirectoryStream(this.directory, "*" + SUFFIX)) {
+      for (Path file : stream) {
+        try {
+          sizes.put(file, Files.size(file));
+          times.put(file, Files.getLastModifiedTime(file).toMillis());
+        } catch (IOException ex) {
+          continue;
+        }
+
+        files.add(file);
+        total += sizes.get(file);
+      }
+    }
+
+    if (total <= this.maxBytes) {
+      return;
+    }
+
+    files.sort(Comparator.comparingLong(times::get));
+
+    for (Path file : files) {
+      if (total <= this.maxBytes) {
+        break;
+      }
+
+      Files.deleteIfExists(file);
+      total -= sizes.get(file);
+    }
+  }
+}
@@ -1,5 +1,6 @@
 package edu.wisc.regfixer.automata;
 
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
@@ -9,22 +10,25 @@ import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
-import java.util.Stack;
-import java.util.stream.Collectors;
 
 import automata.Move;
 import automata.sfa.SFA;
+import automata.sfa.SFAEpsilon;
 import automata.sfa.SFAInputMove;
 import automata.sfa.SFAMove;
+import edu.wisc.regfixer.diagnostic.Deadline;
 import edu.wisc.regfixer.enumerate.UnknownBounds;
 import edu.wisc.regfixer.enumerate.UnknownChar;
 import edu.wisc.regfixer.enumerate.UnknownId;
+import edu.wisc.regfixer.parser.Bounds;
+import edu.wisc.regfixer.parser.CharClass;
 import edu.wisc.regfixer.parser.CharClassSetNode;
 import edu.wisc.regfixer.parser.CharDotNode;
 import edu.wisc.regfixer.parser.CharEscapedNode;
 import edu.wisc.regfixer.parser.CharLiteralNode;
 import edu.wisc.regfixer.parser.CharRangeNode;
 import edu.wisc.regfixer.parser.ConcatNode;
+import edu.wisc.regfixer.parser.ConcreteCharClass;
 import edu.wisc.regfixer.parser.OptionalNode;
 import edu.wisc.regfixer.parser.PlusNode;
 import edu.wisc.regfixer.parser.RegexNode;
@@ -39,18 +43,23 @@ import theory.intervals.UnaryCharIntervalSolver;
 public class Automaton extends automata.Automaton {
   private static UnaryCharIntervalSolver solver = new UnaryCharIntervalSolver();
   public static final CharPred Num = StdCharPred.NUM;
-  public static final CharPred NotNum = StdCharPred.SPACES;
-  public static final CharPred Spaces = StdCharPred.WORD;
-  public static final CharPred NotSpaces = solver.MkNot(StdCharPred.NUM);
-  public static final CharPred Word = solver.MkNot(StdCharPred.SPACES);
+  public static final CharPred NotNum = solver.MkNot(StdCharPred.NUM);
+  public static final CharPred Spaces = StdCharPred.SPACES;
+  public static final CharPred NotSpaces = solver.MkNot(StdCharPred.SPACES);
+  public static final CharPred Word = StdCharPred.WORD;
   public static final CharPred NotWord = solver.MkNot(StdCharPred.WORD);
 
   private final SFA<CharPred, Character> sfa;
   public Map<UnknownId, Set<Integer>> unknownToExitStates = new HashMap<>();
   public Map<UnknownId, Integer> unknownToEntryState = new HashMap<>();
+  private volatile CompiledAutomaton compiled = null;
 
   public Automaton (RegexNode tree) throws TimeoutException {
-    Automaton aut = nodeToAutomaton(tree);
+    this(tree, null);
+  }
+
+  public Automaton (RegexNode tree, AutomatonCache cache) throws TimeoutException {
+    Automaton aut = nodeToAutomaton(tree, cache);
     this.sfa = aut.sfa;
     this.unknownToExitStates = aut.unknownToExitStates;
     this.unknownToEntryState = aut.unknownToEntryState;
@@ -68,276 +77,80 @@ public class Automaton extends automata.Automaton {
    * METHODS FOR EVALUATING THE AUTOMATON
    */
 
-  private List<State> getEpsClosure (State frontier) {
-    return getEpsClosure(Arrays.asList(frontier));
-  }
-
-  private List<State> getEpsClosure (List<State> frontier) {
-    List<State> reached = new LinkedList<>(frontier);
-    Set<Integer> seenStateIds = frontier.stream()
-      .map(s -> s.getStateId())
-      .collect(Collectors.toSet());
-    LinkedList<State> toVisit = new LinkedList<>(frontier);
-
-    while (toVisit.size() > 0) {
-      State currState = toVisit.removeFirst();
-      for (Move<CharPred, Character> move : getMovesFrom(currState.getStateId())) {
-        if (move.isEpsilonTransition()) {
-          State newState = new State(move.to, currState);
-          reached.add(newState);
-
-          if (false == seenStateIds.contains(newState.getStateId())) {
-            toVisit.add(newState);
-            seenStateIds.add(newState.getStateId());
-          }
-        }
-      }
-    }
-
-    return reached;
-  }
-
-  public List<State> getNextState (List<State> frontier, Character ch) throws TimeoutException {
-    return getNextState(null, frontier, ch);
-  }
-
-  public List<State> getNextState (Set<Integer> filter, List<State> frontier, Character ch) throws TimeoutException {
-    List<State> nextStates = new LinkedList<>();
+  /**
+   * Returns the flattened form of the automaton used to simulate it, which is
+   * built the first time the automaton is simulated. Unknowns must not be
+   * added to the automaton after that.
+   */
+  private CompiledAutomaton compiled () {
+    CompiledAutomaton compiled = this.compiled;
 
-    for (State state : frontier) {
-      nextStates.addAll(getNextState(filter, state, ch));
+    // Two threads may both build the compiled form but either copy is fine.
+    if (compiled == null) {
+      compiled = new CompiledAutomaton(this);
+      this.compiled = compiled;
     }
 
-    return nextStates;
+    return compiled;
   }
 
-  public List<State> getNextState (Set<Integer> filter, State parent, Character ch) throws TimeoutException {
-    List<State> nextStates = new LinkedList<>();
-
-    for (Move<CharPred, Character> move : getMovesFrom(parent.getStateId())) {
-      if (move.isEpsilonTransition() == false) {
-        if (move.hasModel(ch, Automaton.solver) && (filter == null || filter.contains(move.to))) {
-          State newState = new State(move.to, parent, ch);
-
-          // Check if the predicate relating to the automaton transition is
-          // associated with a unknown ID and if so, associate the newly created
-          // state with that unknown ID too.
-          if (move instanceof SFAInputMove) {
-            SFAInputMove moveCast = (SFAInputMove) move;
-
-            if (moveCast.guard instanceof UnknownPred) {
-              UnknownPred predCast = (UnknownPred) moveCast.guard;
-              UnknownId holdId = predCast.getId();
-              newState = new State(move.to, parent, ch, holdId);
-            }
-          }
-
-          nextStates.add(newState);
-        }
-      }
-    }
-
-    return nextStates;
+  public boolean accepts (String str) throws TimeoutException {
+    return compiled().accepts(str);
   }
 
-  private boolean isFinalConfiguration (List<State> states) {
-    for (State state : states) {
-      if (isFinalState(state.getStateId())) {
-        return true;
-      }
-    }
-
-    return false;
+  Set<Integer> getEpsClosure (Set<Integer> frontier) {
+    return compiled().getClosure(frontier, false);
   }
 
-  private Route traceFromState (State endState) {
-    Map<UnknownId, Set<Character>> crosses = new HashMap<>();
-    Map<UnknownId, Stack<Integer>> quantTally = new HashMap<>();
-
-    for (UnknownId id : this.unknownToEntryState.keySet()) {
-      quantTally.put(id, new Stack<>());
-      quantTally.get(id).push(null);
-    }
-
-    State currState = endState;
-    State prevState = null;
-    while (currState != null) {
-      // Compute which characters cross unknown character classes.
-      if (currState.getValue() != null && currState.getId() != null) {
-        char value = currState.getValue();
-        UnknownId id = currState.getId();
-
-        if (crosses.containsKey(id) == false) {
-          crosses.put(id, new HashSet<>());
-        }
-
-        crosses.get(id).add(value);
-      }
-
-      for (UnknownId id : this.unknownToEntryState.keySet()) {
-        Integer entryStateId = this.unknownToEntryState.get(id);
-        if (entryStateId == currState.getStateId()) {
-          Integer old = quantTally.get(id).pop();
-
-          if (old == null) {
-            old = 0;
-          }
-
-          quantTally.get(id).push(old + 1);
-        }
-      }
-
-      for (UnknownId id : this.unknownToExitStates.keySet()) {
-        Set<Integer> exitStateIds = this.unknownToExitStates.get(id);
-        if (exitStateIds.contains(currState.getStateId())) {
-          if (prevState != null && this.unknownToEntryState.get(id) != null) {
-             if (this.unknownToEntryState.get(id) != prevState.getStateId()) {
-               // This exit does NOT loop back to the start of this quantifier
-               // so push a new counter onto the tally stack.
-               quantTally.get(id).push(null);
-             }
-          }
-        }
-      }
-
-      prevState = currState;
-      currState = currState.getParent();
-    }
-
-    Map<UnknownId, Set<Integer>> exits = new HashMap<>();
-    for (Map.Entry<UnknownId, Stack<Integer>> entry : quantTally.entrySet()) {
-      // Convert from Stack<Integer> to Set<Integer> and remove any null values.
-      exits.put(entry.getKey(), entry.getValue().stream()
-        .filter(i -> i != null)
-        .collect(Collectors.toSet()));
-    }
-
-    return new Route(crosses, exits);
+  /**
+   * Returns the class of the character in the partition of the alphabet
+   * into characters that no move of the automaton tells apart. Characters of
+   * the same class lead from any set of states to the same set of states.
+   */
+  int getCharClass (char ch) {
+    return compiled().getCharClass(ch);
   }
 
-  public boolean accepts (String str) throws TimeoutException {
-    List<Character> charList = new LinkedList<>();
-
-    for (int i = 0; i < str.length(); i++) {
-      charList.add(str.charAt(i));
-    }
-
-    return accepts(charList);
+  int getCharClasses () {
+    return compiled().getCharClasses();
   }
 
-  public boolean accepts (List<Character> chars) throws TimeoutException {
-    List<State> frontier = getEpsClosure(new State(getInitialState()));
-
-    for (Character ch : chars) {
-      frontier = getNextState(frontier, ch);
-      frontier = getEpsClosure(frontier);
-
-      if (frontier.isEmpty()) {
-        return false;
-      }
-    }
-
-    return isFinalConfiguration(frontier);
+  Set<Integer> getNextStateIds (Set<Integer> frontier, char ch) {
+    CompiledAutomaton compiled = compiled();
+    return compiled.getNextStates(frontier, compiled.getCharClass(ch), false);
   }
 
-  private Set<Integer> getReverseEpsClosure (Stack<Set<Integer>> layers, Integer frontier) {
-    return getReverseEpsClosure(layers, new HashSet<>(frontier));
+  public boolean acceptsAll (Collection<String> strs) throws TimeoutException {
+    return allHaveAcceptance(strs, true);
   }
 
-  private Set<Integer> getReverseEpsClosure (Stack<Set<Integer>> layers, Set<Integer> frontier) {
-    Set<Integer> reached = new HashSet<>(frontier);
-    Set<Integer> seen    = new HashSet<>(frontier);
-    Set<Integer> toVisit = new HashSet<>(frontier);
-
-    while (toVisit.size() > 0) {
-      Integer curr = toVisit.iterator().next();
-      toVisit.remove(curr);
-      // layers.peek().add(curr);
-
-      for (Move<CharPred, Character> move : getMovesTo(curr)) {
-        if (move.isEpsilonTransition()) {
-          Integer prev = move.from;
-          reached.add(prev);
-
-          if (false == seen.contains(prev)) {
-            toVisit.add(prev);
-            seen.add(prev);
-          }
-        }
-      }
-    }
-
-    return reached;
+  public boolean acceptsNone (Collection<String> strs) throws TimeoutException {
+    return allHaveAcceptance(strs, false);
   }
 
-  public Set<Integer> getPrevState (Stack<Set<Integer>> layers, Set<Integer> frontier, Character ch) throws TimeoutException {
-    Set<Integer> prevStates = new HashSet<>();
-
-    for (Integer stateId : frontier) {
-      prevStates.addAll(getPrevState(layers, stateId, ch));
-    }
-
-    return prevStates;
+  private boolean allHaveAcceptance (Collection<String> strs, boolean expected) throws TimeoutException {
+    return compiled().allHaveAcceptance(strs, expected);
   }
 
-  public Set<Integer> getPrevState (Stack<Set<Integer>> layers, Integer child, Character ch) throws TimeoutException {
-    Set<Integer> prevStates = new HashSet<>();
-
-    for (Move<CharPred, Character> move : getMovesTo(child)) {
-      if (move.isEpsilonTransition() == false) {
-        if (move.hasModel(ch, Automaton.solver)) {
-          prevStates.add(move.from);
-          layers.peek().add(move.to);
-        }
-      }
-    }
-
-    return prevStates;
+  Set<Integer> getReverseEpsClosure (Set<Integer> frontier) {
+    return compiled().getClosure(frontier, true);
   }
 
-  private List<Set<Integer>> getStateFilter (String source) throws TimeoutException {
-    Stack<Set<Integer>> layers = new Stack<>();
-    // layers.push(new HashSet<>());
-    Set<Integer> frontier = getReverseEpsClosure(layers, new HashSet<>(getFinalStates()));
-
-    for (int i = source.length()-1; i >= 0; i--) {
-      layers.push(new HashSet<>());
-      frontier = getPrevState(layers, frontier, source.charAt(i));
-      // layers.push(new HashSet<>());
-      frontier = getReverseEpsClosure(layers, frontier);
-
-      if (frontier.isEmpty()) {
-        return new Stack<>();
-      }
-    }
-
-    List<Set<Integer>> layerList = new LinkedList<>(layers);
-    Collections.reverse(layerList);
-    return layerList;
+  Set<Integer> getPrevStateIds (Set<Integer> frontier, char ch) {
+    CompiledAutomaton compiled = compiled();
+    return compiled.getNextStates(frontier, compiled.getCharClass(ch), true);
   }
 
   public Set<Route> trace (String source) throws TimeoutException {
-    List<Set<Integer>> layers = getStateFilter(source);
-    List<State> frontier = getEpsClosure(new State(getInitialState()));
-
-    for (int i = 0; i < source.length(); i++) {
-      if (layers.size() <= i) {
-        return new HashSet<>();
-      }
-
-      Set<Integer> filter = layers.get(i);
-      frontier = getNextState(filter, frontier, source.charAt(i));
-      frontier = getEpsClosure(frontier);
-
-      if (frontier.isEmpty()) {
-        return new HashSet<>();
-      }
-    }
+    return this.trace(source, new Deadline());
+  }
 
-    return frontier.stream()
-      .filter(s -> isFinalState(s.getStateId()))
-      .map(s -> traceFromState(s))
-      .collect(Collectors.toSet());
+  /**
+   * Traces the source like #trace(String) but checks the deadline as each
+   * character is read.
+   */
+  public Set<Route> trace (String source, Deadline deadline) throws TimeoutException {
+    return compiled().trace(source, deadline);
   }
 
   public List<Map<UnknownId, Set<Character>>> computeRuns (String source) throws TimeoutException {
@@ -363,6 +176,19 @@ public class Automaton extends automata.Automaton {
     return SFA.MkSFA(moves, fromState, Arrays.asList(toState), Automaton.solver);
   }
 
+  /**
+   * The underlying SFA lazily allocates the transition sets of a state the
+   * first time that state is queried, so even read-only simulation mutates
+   * the SFA. Querying every state once up front means later reads never
+   * modify the SFA and the automaton can be shared between threads.
+   */
+  void seal () {
+    for (Integer state : this.sfa.getStates()) {
+      this.sfa.getMovesFrom(state);
+      this.sfa.getMovesTo(state);
+    }
+  }
+
   public Collection<Integer> getStates () {
     return this.sfa.getStates();
   }
@@ -384,64 +210,133 @@ public class Automaton extends automata.Automaton {
   }
 
   public static Automaton concatenate (Automaton first, Automaton second) throws TimeoutException {
-    Automaton aut = new Automaton(SFA.concatenate(first.sfa, second.sfa, Automaton.solver));
-
-    // Offset will be added to all watched states of the second Automaton
-    // to ensure that the states of the first and second are disjointed.
-    int offset = first.sfa.getMaxStateId() + 1;
-    aut.unknownToExitStates.putAll(first.unknownToExitStates);
-    for (Map.Entry<UnknownId, Set<Integer>> entry : second.unknownToExitStates.entrySet()) {
-      aut.unknownToExitStates.put(entry.getKey(), new HashSet<>());
-      for (Integer state : entry.getValue()) {
-        aut.unknownToExitStates.get(entry.getKey()).add(state + offset);
-      }
-    }
-
-    aut.unknownToEntryState.putAll(first.unknownToEntryState);
-    for (Map.Entry<UnknownId, Integer> entry : second.unknownToEntryState.entrySet()) {
-      aut.unknownToEntryState.put(entry.getKey(), entry.getValue() + offset);
-    }
-
-    return aut;
+    return concatenate(Arrays.asList(first, second));
   }
 
+  /**
+   * Concatenates the automata in a single pass. The states of each automaton
+   * are shifted past the states of the automata before it and its initial
+   * state is linked by epsilon moves from their final states.
+   */
   public static Automaton concatenate (List<Automaton> automata) throws TimeoutException {
     if (automata.size() == 0) {
       return getEmptyStringSFA();
+    } else if (automata.size() == 1) {
+      return automata.get(0);
     }
 
-    Automaton unknown = null;
+    List<SFAMove<CharPred, Character>> moves = new ArrayList<>();
+    Collection<Integer> finalStates = new ArrayList<>();
+    Map<UnknownId, Set<Integer>> exitStates = new HashMap<>();
+    Map<UnknownId, Integer> entryStates = new HashMap<>();
+    int offset = 0;
 
     for (Automaton next : automata) {
-      if (unknown == null) {
-        unknown = next;
-      } else {
-        unknown = concatenate(unknown, next);
+      if (next.sfa.isEmpty) {
+        return empty();
+      }
+
+      addShiftedMoves(moves, next, offset);
+      addShiftedExitStates(next, offset, exitStates);
+      addShiftedEntryStates(next, offset, entryStates);
+
+      for (Integer state : finalStates) {
+        moves.add(new SFAEpsilon<>(state, next.sfa.getInitialState() + offset));
       }
+
+      finalStates = shift(next.sfa.getFinalStates(), offset);
+      offset += next.sfa.getMaxStateId() + 1;
     }
 
-    return unknown;
+    Integer initialState = automata.get(0).sfa.getInitialState();
+    return withWatchedStates(SFA.MkSFA(moves, initialState, finalStates, Automaton.solver, false), exitStates, entryStates);
   }
 
   public static Automaton union (Automaton first, Automaton second) throws TimeoutException {
-    Automaton aut = new Automaton(SFA.union(first.sfa, second.sfa, Automaton.solver));
-
-    // Offset will be added to all watched states of the second Automaton
-    // to ensure that the states of the first and second are disjointed.
-    int offset = first.sfa.getMaxStateId() + 2;
-    aut.unknownToExitStates.putAll(first.unknownToExitStates);
-    for (Map.Entry<UnknownId, Set<Integer>> entry : second.unknownToExitStates.entrySet()) {
-      aut.unknownToExitStates.put(entry.getKey(), new HashSet<>());
-      for (Integer state : entry.getValue()) {
-        aut.unknownToExitStates.get(entry.getKey()).add(state + offset);
-      }
+    return union(Arrays.asList(first, second));
+  }
+
+  /**
+   * Unions the automata in a single pass. The states of each automaton are
+   * shifted past the states of the automata before it and a new initial
+   * state is linked by epsilon moves to each of their initial states.
+   */
+  public static Automaton union (List<Automaton> automata) throws TimeoutException {
+    if (automata.size() == 0) {
+      return empty();
+    } else if (automata.size() == 1) {
+      return automata.get(0);
+    }
+
+    List<SFAMove<CharPred, Character>> moves = new ArrayList<>();
+    List<Integer> initialStates = new ArrayList<>();
+    Collection<Integer> finalStates = new ArrayList<>();
+    Map<UnknownId, Set<Integer>> exitStates = new HashMap<>();
+    Map<UnknownId, Integer> entryStates = new HashMap<>();
+    boolean isEmpty = true;
+    int offset = 0;
+
+    for (Automaton next : automata) {
+      addShiftedMoves(moves, next, offset);
+      addShiftedExitStates(next, offset, exitStates);
+      addShiftedEntryStates(next, offset, entryStates);
+      initialStates.add(next.sfa.getInitialState() + offset);
+      finalStates.addAll(shift(next.sfa.getFinalStates(), offset));
+      isEmpty = isEmpty && next.sfa.isEmpty;
+      offset += next.sfa.getMaxStateId() + 1;
+    }
+
+    if (isEmpty) {
+      return empty();
+    }
+
+    // The new initial state is the first id after every shifted state.
+    Integer initialState = offset;
+    for (Integer state : initialStates) {
+      moves.add(new SFAEpsilon<>(initialState, state));
+    }
+
+    return withWatchedStates(SFA.MkSFA(moves, initialState, finalStates, Automaton.solver, false), exitStates, entryStates);
+  }
+
+  @SuppressWarnings("unchecked")
+  private static void addShiftedMoves (List<SFAMove<CharPred, Character>> moves, Automaton aut, int offset) {
+    for (SFAMove<CharPred, Character> move : aut.sfa.getTransitions()) {
+      SFAMove<CharPred, Character> shifted = (SFAMove<CharPred, Character>) move.clone();
+      shifted.from += offset;
+      shifted.to += offset;
+      moves.add(shifted);
     }
+  }
 
-    // Update entry state ID.
-    for (Map.Entry<UnknownId, Integer> entry : second.unknownToEntryState.entrySet()) {
-      aut.unknownToEntryState.put(entry.getKey(), first.sfa.getMaxStateId() + offset + 1);
+  private static Collection<Integer> shift (Collection<Integer> states, int offset) {
+    Collection<Integer> shifted = new ArrayList<>();
+    for (Integer state : states) {
+      shifted.add(state + offset);
     }
+    return shifted;
+  }
 
+  /**
+   * Adds the watched states of an automaton's unknowns after its states were
+   * shifted by the offset.
+   */
+  private static void addShiftedExitStates (Automaton aut, int offset, Map<UnknownId, Set<Integer>> exitStates) {
+    for (Map.Entry<UnknownId, Set<Integer>> entry : aut.unknownToExitStates.entrySet()) {
+      exitStates.put(entry.getKey(), new HashSet<>(shift(entry.getValue(), offset)));
+    }
+  }
+
+  private static void addShiftedEntryStates (Automaton aut, int offset, Map<UnknownId, Integer> entryStates) {
+    for (Map.Entry<UnknownId, Integer> entry : aut.unknownToEntryState.entrySet()) {
+      entryStates.put(entry.getKey(), entry.getValue() + offset);
+    }
+  }
+
+  private static Automaton withWatchedStates (SFA<CharPred, Character> sfa, Map<UnknownId, Set<Integer>> exitStates, Map<UnknownId, Integer> entryStates) {
+    Automaton aut = new Automaton(sfa);
+    aut.unknownToExitStates = exitStates;
+    aut.unknownToEntryState = entryStates;
     return aut;
   }
 
@@ -502,46 +397,114 @@ public class Automaton extends automata.Automaton {
    * METHODS FOR CONVERTING FROM REGEX -> AUTOMATON
    */
 
-  private static Automaton nodeToAutomaton (RegexNode node) throws TimeoutException {
-         if (node instanceof ConcatNode)       return concatToAutomaton((ConcatNode) node);
-    else if (node instanceof UnionNode)        return unionToAutomaton((UnionNode) node);
-    else if (node instanceof RepetitionNode)   return repetitionToAutomaton((RepetitionNode) node);
-    else if (node instanceof OptionalNode)     return optionalToAutomaton((OptionalNode) node);
-    else if (node instanceof StarNode)         return starToAutomaton((StarNode) node);
-    else if (node instanceof PlusNode)         return plusToAutomaton((PlusNode) node);
-    else if (node instanceof UnknownChar)         return unknownToAutomaton((UnknownChar) node);
+  private static Automaton nodeToAutomaton (RegexNode node, AutomatonCache cache) throws TimeoutException {
+    if (cache == null) {
+      return buildAutomaton(node, cache);
+    }
+
+    Automaton aut = cache.get(node);
+
+    if (aut == null) {
+      aut = buildAutomaton(node, cache);
+      cache.put(node, aut);
+    }
+
+    return aut;
+  }
+
+  private static Automaton buildAutomaton (RegexNode node, AutomatonCache cache) throws TimeoutException {
+         if (node instanceof ConcatNode)       return concatToAutomaton((ConcatNode) node, cache);
+    else if (node instanceof UnionNode)        return unionToAutomaton((UnionNode) node, cache);
+    else if (node instanceof RepetitionNode)   return repetitionToAutomaton((RepetitionNode) node, cache);
+    else if (node instanceof OptionalNode)     return optionalToAutomaton((OptionalNode) node, cache);
+    else if (node instanceof StarNode)         return starToAutomaton((StarNode) node, cache);
+    else if (node instanceof PlusNode)         return plusToAutomaton((PlusNode) node, cache);
+    else if (node instanceof UnknownChar)      return unknownToAutomaton((UnknownChar) node, cache);
     else if (node instanceof CharClassSetNode) return charClassSetToAutomaton((CharClassSetNode) node);
     else if (node instanceof CharDotNode)      return charDotToAutomaton((CharDotNode) node);
     else if (node instanceof CharEscapedNode)  return charEscapedToAutomaton((CharEscapedNode) node);
     else if (node instanceof CharLiteralNode)  return charLiteralToAutomaton((CharLiteralNode) node);
     else {
-      System.err.printf("Unknown AST class: %s\n", node.getClass().getName());
-      System.exit(-1);
-      return null;
+      throw new UnsupportedOperationException("Unknown AST class: " + node.getClass().getName());
+    }
+  }
+
+  /**
+   * Returns true if an automaton can be built for the tree. Anchors and the
+   * \b, \B and \v escapes have no equivalent in the automaton so any tree
+   * containing them has to be matched with java.util.regex instead.
+   */
+  public static boolean supports (RegexNode node) {
+         if (node instanceof ConcatNode)       { return ((ConcatNode) node).getChildren().stream().allMatch(c -> supports(c)); }
+    else if (node instanceof UnionNode)        { return supports(((UnionNode) node).getLeftChild()) && supports(((UnionNode) node).getRightChild()); }
+    else if (node instanceof RepetitionNode)   { return supports(((RepetitionNode) node).getChild()); }
+    else if (node instanceof OptionalNode)     { return supports(((OptionalNode) node).getChild()); }
+    else if (node instanceof StarNode)         { return supports(((StarNode) node).getChild()); }
+    else if (node instanceof PlusNode)         { return supports(((PlusNode) node).getChild()); }
+    else if (node instanceof UnknownChar)      { return true; }
+    else if (node instanceof CharClassSetNode) { return ((CharClassSetNode) node).getSubClasses().stream().allMatch(c -> !c.isSingle() || supportsEscape(c.getLeftChild())); }
+    else if (node instanceof CharDotNode)      { return true; }
+    else if (node instanceof CharEscapedNode)  { return supportsEscape((CharEscapedNode) node); }
+    else if (node instanceof CharLiteralNode)  { return true; }
+    else                                       { return false; }
+  }
+
+  private static boolean supportsEscape (ConcreteCharClass node) {
+    if (node instanceof CharEscapedNode) {
+      switch (node.getChar()) {
+        case 'v':
+        case 'b':
+        case 'B':
+          return false;
+      }
     }
+
+    return true;
   }
 
-  private static Automaton concatToAutomaton (ConcatNode node) throws TimeoutException {
+  private static Automaton concatToAutomaton (ConcatNode node, AutomatonCache cache) throws TimeoutException {
     List<Automaton> automata = new LinkedList<>();
 
     for (RegexNode child : node.getChildren()) {
-      automata.add(nodeToAutomaton(child));
+      automata.add(nodeToAutomaton(child, cache));
     }
 
     return concatenate(automata);
   }
 
-  private static Automaton unionToAutomaton (UnionNode node) throws TimeoutException {
-    Automaton left  = nodeToAutomaton(node.getLeftChild());
-    Automaton right = nodeToAutomaton(node.getRightChild());
-    return union(left, right);
+  private static Automaton unionToAutomaton (UnionNode node, AutomatonCache cache) throws TimeoutException {
+    // An alternation like a|b|c is parsed as nested binary unions but built
+    // as a single union of all of its alternatives.
+    List<Automaton> automata = new ArrayList<>();
+    addAlternatives(node, automata, cache);
+    return union(automata);
+  }
+
+  private static void addAlternatives (RegexNode node, List<Automaton> automata, AutomatonCache cache) throws TimeoutException {
+    if (node instanceof UnionNode) {
+      addAlternatives(((UnionNode) node).getLeftChild(), automata, cache);
+      addAlternatives(((UnionNode) node).getRightChild(), automata, cache);
+    } else {
+      automata.add(nodeToAutomaton(node, cache));
+    }
+  }
+
+  private static UnknownChar.FillType fillOf (AutomatonCache cache) {
+    return (cache == null) ? UnknownChar.FillType.Default : cache.getFill();
   }
 
-  private static Automaton repetitionToAutomaton (RepetitionNode node) throws TimeoutException {
+  private static Automaton repetitionToAutomaton (RepetitionNode node, AutomatonCache cache) throws TimeoutException {
     if (node.getBounds() instanceof UnknownBounds) {
-      return repetitionWithUnknownBoundsToAutomaton(node);
+      switch (fillOf(cache)) {
+        case Default:
+          return repetitionWithUnknownBoundsToAutomaton(node, cache);
+        case EmptySet:
+          return repetitionWithKnownBoundsToAutomaton(node, Bounds.exactly(0), cache);
+        default:
+          return repetitionWithKnownBoundsToAutomaton(node, Bounds.atLeast(0), cache);
+      }
     } else {
-      return repetitionWithKnownBoundsToAutomaton(node);
+      return repetitionWithKnownBoundsToAutomaton(node, node.getBounds(), cache);
     }
   }
 
@@ -560,8 +523,8 @@ public class Automaton extends automata.Automaton {
     return new Automaton(aut);
   }
 
-  private static Automaton repetitionWithUnknownBoundsToAutomaton (RepetitionNode node) throws TimeoutException {
-    Automaton sub = nodeToAutomaton(node.getChild());
+  private static Automaton repetitionWithUnknownBoundsToAutomaton (RepetitionNode node, AutomatonCache cache) throws TimeoutException {
+    Automaton sub = nodeToAutomaton(node.getChild(), cache);
     UnknownId unknown = ((UnknownBounds)node.getBounds()).getId();
     Integer entryState = sub.sfa.getInitialState();
 
@@ -574,61 +537,73 @@ public class Automaton extends automata.Automaton {
     return aut;
   }
 
-  private static Automaton repetitionWithKnownBoundsToAutomaton (RepetitionNode node) throws TimeoutException {
-    if (node.getBounds().hasMax() && node.getBounds().getMax() == 0) {
+  private static Automaton repetitionWithKnownBoundsToAutomaton (RepetitionNode node, Bounds bounds, AutomatonCache cache) throws TimeoutException {
+    if (bounds.hasMax() && bounds.getMax() == 0) {
       return getEmptyStringSFA();
     }
 
-    Automaton sub = nodeToAutomaton(node.getChild());
-    Automaton min = getEmptyStringSFA();
-
-    for (int i = 0; i < node.getBounds().getMin(); i++) {
-      if (i == 0) {
-        min = sub;
-      } else {
-        min = concatenate(min, sub);
-      }
-    }
+    Automaton sub = nodeToAutomaton(node.getChild(), cache);
+    Automaton min = concatenate(Collections.nCopies(bounds.getMin(), sub));
 
-    if (node.getBounds().hasMax() == false) {
+    if (bounds.hasMax() == false) {
       // min to infinite
       Automaton star = star(sub);
       return concatenate(min, star);
-    } else if (node.getBounds().getMin() < node.getBounds().getMax()) {
+    } else if (bounds.getMin() < bounds.getMax()) {
       // min to max
       Automaton ithsfa = min;
-      Automaton uptoith = min;
+      List<Automaton> uptoith = new ArrayList<>();
+      uptoith.add(min);
 
-      for (int i = node.getBounds().getMin() + 1; i <= node.getBounds().getMax(); i++) {
+      for (int i = bounds.getMin() + 1; i <= bounds.getMax(); i++) {
         ithsfa = concatenate(ithsfa, sub);
-        uptoith = union(uptoith, ithsfa);
+        uptoith.add(ithsfa);
       }
 
-      return uptoith;
+      return union(uptoith);
     } else {
       // just min becaue min = max
       return min;
     }
   }
 
-  private static Automaton optionalToAutomaton (OptionalNode node) throws TimeoutException {
-    return union(nodeToAutomaton(node.getChild()), getEmptyStringSFA());
+  private static Automaton optionalToAutomaton (OptionalNode node, AutomatonCache cache) throws TimeoutException {
+    return union(nodeToAutomaton(node.getChild(), cache), getEmptyStringSFA());
   }
 
-  private static Automaton starToAutomaton (StarNode node) throws TimeoutException {
-    return star(nodeToAutomaton(node.getChild()));
+  private static Automaton starToAutomaton (StarNode node, AutomatonCache cache) throws TimeoutException {
+    return star(nodeToAutomaton(node.getChild(), cache));
   }
 
-  private static Automaton plusToAutomaton (PlusNode node) throws TimeoutException {
-    Automaton sub = nodeToAutomaton(node.getChild());
+  private static Automaton plusToAutomaton (PlusNode node, AutomatonCache cache) throws TimeoutException {
+    Automaton sub = nodeToAutomaton(node.getChild(), cache);
     return concatenate(sub, star(sub));
   }
 
-  private static Automaton unknownToAutomaton (UnknownChar node) throws TimeoutException {
-    return fromUnknownPredicate(node.getId());
+  private static Automaton unknownToAutomaton (UnknownChar node, AutomatonCache cache) throws TimeoutException {
+    switch (fillOf(cache)) {
+      case Dot:
+        return fromTruePredicate();
+      case DotStar:
+        return star(fromTruePredicate());
+      case EmptySet:
+        return fromPredicate(StdCharPred.FALSE);
+      default:
+        return fromUnknownPredicate(node.getId());
+    }
   }
 
   private static Automaton charClassSetToAutomaton (CharClassSetNode node) throws TimeoutException {
+    List<CharPred> predicates = predicatesFromCharClassSet(node);
+
+    if (node.isInverted()) {
+      return fromInversePredicates(predicates);
+    } else {
+      return fromPredicates(predicates);
+    }
+  }
+
+  private static List<CharPred> predicatesFromCharClassSet (CharClassSetNode node) {
     List<CharPred> predicates = new LinkedList<>();
 
     for (CharRangeNode charClass : node.getSubClasses()) {
@@ -646,10 +621,25 @@ public class Automaton extends automata.Automaton {
       }
     }
 
-    if (node.isInverted()) {
-      return fromInversePredicates(predicates);
+    return predicates;
+  }
+
+  /**
+   * Returns the predicate satisfied by every character the (concrete)
+   * character class matches.
+   */
+  static CharPred predicateOf (CharClass node) {
+    if (node instanceof CharClassSetNode) {
+      CharPred pred = Automaton.solver.MkOr(predicatesFromCharClassSet((CharClassSetNode) node));
+      return ((CharClassSetNode) node).isInverted() ? Automaton.solver.MkNot(pred) : pred;
+    } else if (node instanceof CharDotNode) {
+      return StdCharPred.TRUE;
+    } else if (node instanceof CharEscapedNode) {
+      return predicateFromMetaChar(((CharEscapedNode) node).getChar());
+    } else if (node instanceof CharLiteralNode) {
+      return new CharPred(((CharLiteralNode) node).getChar());
     } else {
-      return fromPredicates(predicates);
+      throw new UnsupportedOperationException("Unknown char class: " + node.getClass().getName());
     }
   }
 
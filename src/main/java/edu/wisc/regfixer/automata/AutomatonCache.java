@@ -0,0 +1,85 @@
+package edu.wisc.regfixer.automata;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import edu.wisc.regfixer.enumerate.UnknownChar;
+import edu.wisc.regfixer.parser.RegexNode;
+
+/**
+ * AutomatonCache remembers the automaton built for each syntax tree node seen
+ * during a single repair job. When the Grafter expands an unknown it only
+ * rebuilds the nodes on the path from that unknown to the root and shares
+ * every other subtree with the original template, so looking those shared
+ * subtrees up here means only the grafted path has to be converted again.
+ *
+ * Each cache builds automata with a single fill type. With the Default fill
+ * unknowns are kept as symbolic predicates (and quantifiers with unknown
+ * bounds are tracked) for synthesis. With the Dot, DotStar or EmptySet fills
+ * unknowns are replaced the same way a Renderer replaces them so that the
+ * automaton accepts exactly the strings matched by the rendered template.
+ *
+ * The cache holds at most a fixed number of automata and evicts the least
+ * recently used ones first. Automata stored in the cache are sealed so they
+ * can be read (and combined into larger automata) by many threads at once.
+ */
+public class AutomatonCache {
+  public static final int DEFAULT_CAPACITY = 4096;
+
+  private final UnknownChar.FillType fill;
+  private final Map<RegexNode, Automaton> automata;
+  private int hits = 0;
+  private int misses = 0;
+
+  public AutomatonCache () {
+    this(UnknownChar.FillType.Default);
+  }
+
+  public AutomatonCache (UnknownChar.FillType fill) {
+    this(fill, DEFAULT_CAPACITY);
+  }
+
+  public AutomatonCache (UnknownChar.FillType fill, int capacity) {
+    this.fill = fill;
+    this.automata = new LinkedHashMap<RegexNode, Automaton>(16, 0.75f, true) {
+      @Override
+      protected boolean removeEldestEntry (Map.Entry<RegexNode, Automaton> eldest) {
+        return this.size() > capacity;
+      }
+    };
+  }
+
+  public UnknownChar.FillType getFill () {
+    return this.fill;
+  }
+
+  synchronized Automaton get (RegexNode node) {
+    Automaton automaton = this.automata.get(node);
+
+    if (automaton == null) {
+      this.misses++;
+    } else {
+      this.hits++;
+    }
+
+    return automaton;
+  }
+
+  void put (RegexNode node, Automaton automaton) {
+    // Sealing touches every state of the automaton so it must happen before
+    // the automaton is visible to other threads.
+    automaton.seal();
+
+    synchronized (this) {
+      this.automata.put(node, automaton);
+    }
+  }
+
+  public synchronized int getHits () {
+    return this.hits;
+  }
+
+  public synchronized int getMisses () {
+    return this.misses;
+  }
+}
@@ -0,0 +1,889 @@
+package edu.wisc.regfixer.automata;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+import automata.Move;
+import automata.sfa.SFAInputMove;
+import edu.wisc.regfixer.diagnostic.Deadline;
+import edu.wisc.regfixer.enumerate.UnknownId;
+import org.apache.commons.lang3.tuple.ImmutablePair;
+import theory.characters.CharPred;
+
+/**
+ * CompiledAutomaton is a flattened copy of an Automaton used to simulate it.
+ * Each state's moves are stored as arrays of ints (in the same order the SFA
+ * returns them) and each unknown as a small index, so simulating the
+ * automaton never has to go through the SFA's collections or the solver.
+ *
+ * Characters are read by their class in a partition of the alphabet into the
+ * ranges that no guard tells apart. A template's guards rarely distinguish
+ * more than a handful of classes, so each guard is stored as a bitset of
+ * classes and checking a move is a single bit test, and callers can cache
+ * whatever they compute for a character under its class.
+ *
+ * Sets of states are bitsets. A trace merges the paths that reach the same
+ * state at the same position with the same partial route, so its cost grows
+ * with the length of the source times the number of states and distinct
+ * partial routes, not with the number of paths (see #trace). The scratch
+ * space used while simulating belongs to the calling thread and is reused
+ * between calls.
+ */
+class CompiledAutomaton {
+  private static final int NONE = -1;
+  private static final int ASCII = 128;
+
+  private static final ThreadLocal<Scratch> scratch = ThreadLocal.withInitial(Scratch::new);
+
+  private final int states;
+  private final int words;
+  private final int initial;
+  private final long[] finalSet;
+
+  // Moves leaving (and entering) each state. Epsilon moves are stored as the
+  // state on their other end and input moves as an index into the move
+  // arrays below.
+  private final int[][] epsFrom;
+  private final int[][] epsTo;
+  private final int[][] inputFrom;
+  private final int[][] inputTo;
+
+  // The states reachable from each state by epsilon moves alone (and the
+  // states that reach it that way), each including the state itself.
+  private final int[][] closure;
+  private final int[][] reverseClosure;
+
+  private final int[] moveFrom;
+  private final int[] moveTo;
+  private final int[] moveUnknown;
+
+  // The alphabet is split into classes of characters that every guard either
+  // holds all of or none of. Class c starts at classStart[c] and ends where
+  // the next class starts, and the classes of the ASCII characters are also
+  // kept in a table so they don't have to be searched for.
+  private final char[] classStart;
+  private final int[] asciiClass;
+
+  // For each move, the classes its guard holds (a bitset of 'classWords'
+  // words starting at move * classWords).
+  private final int classWords;
+  private final long[] moveClasses;
+
+  // Unknown character classes (indexed by moveUnknown) and unknown quantifiers
+  // (indexed by entriesAt and exitsAt).
+  private final UnknownId[] chars;
+  private final UnknownId[] quants;
+  private final int[] quantEntry;
+  private final int[][] entriesAt;
+  private final int[][] exitsAt;
+
+  CompiledAutomaton (Automaton automaton) {
+    int max = 0;
+    for (Integer state : automaton.getStates()) {
+      max = Math.max(max, state);
+    }
+
+    this.states = max + 1;
+    this.words = (this.states + 63) >>> 6;
+    this.initial = automaton.getInitialState();
+    this.finalSet = new long[this.words];
+    for (Integer state : automaton.getFinalStates()) {
+      add(this.finalSet, 0, state);
+    }
+
+    List<SFAInputMove<CharPred, Character>> moves = new ArrayList<>();
+    Map<UnknownId, Integer> charIndex = new HashMap<>();
+    List<UnknownId> chars = new ArrayList<>();
+
+    this.epsFrom = new int[this.states][];
+    this.inputFrom = new int[this.states][];
+    List<List<Integer>> epsTo = new ArrayList<>();
+    List<List<Integer>> inputTo = new ArrayList<>();
+    for (int state = 0; state < this.states; state++) {
+      epsTo.add(new ArrayList<>());
+      inputTo.add(new ArrayList<>());
+    }
+
+    for (int state = 0; state < this.states; state++) {
+      List<Integer> eps = new ArrayList<>();
+      List<Integer> input = new ArrayList<>();
+
+      if (automaton.getStates().contains(state)) {
+        for (Move<CharPred, Character> move : automaton.getMovesFrom(state)) {
+          if (move.isEpsilonTransition()) {
+            eps.add(move.to);
+            epsTo.get(move.to).add(state);
+          } else {
+            input.add(moves.size());
+            inputTo.get(move.to).add(moves.size());
+            moves.add((SFAInputMove<CharPred, Character>) move);
+          }
+        }
+      }
+
+      this.epsFrom[state] = toArray(eps);
+      this.inputFrom[state] = toArray(input);
+    }
+
+    this.epsTo = new int[this.states][];
+    this.inputTo = new int[this.states][];
+    for (int state = 0; state < this.states; state++) {
+      this.epsTo[state] = toArray(epsTo.get(state));
+      this.inputTo[state] = toArray(inputTo.get(state));
+    }
+
+    this.closure = new int[this.states][];
+    this.reverseClosure = new int[this.states][];
+    int[] marks = new int[this.states];
+    int[] reverseMarks = new int[this.states];
+    for (int state = 0; state < this.states; state++) {
+      this.closure[state] = computeClosure(state, this.epsFrom, marks);
+      this.reverseClosure[state] = computeClosure(state, this.epsTo, reverseMarks);
+    }
+
+    this.moveFrom = new int[moves.size()];
+    this.moveTo = new int[moves.size()];
+    this.moveUnknown = new int[moves.size()];
+
+    this.classStart = computeClassStarts(moves);
+    this.asciiClass = new int[ASCII];
+    for (char ch = 0; ch < ASCII; ch++) {
+      this.asciiClass[ch] = this.searchClass(ch);
+    }
+
+    this.classWords = (this.classStart.length + 63) >>> 6;
+    this.moveClasses = new long[moves.size() * this.classWords];
+
+    for (int i = 0; i < moves.size(); i++) {
+      SFAInputMove<CharPred, Character> move = moves.get(i);
+      this.moveFrom[i] = move.from;
+      this.moveTo[i] = move.to;
+
+      // Every range of the guard covers whole classes.
+      for (ImmutablePair<Character, Character> interval : move.guard.intervals) {
+        int last = this.searchClass(interval.right);
+        for (int c = this.searchClass(interval.left); c <= last; c++) {
+          add(this.moveClasses, i * this.classWords, c);
+        }
+      }
+
+      if (move.guard instanceof UnknownPred) {
+        UnknownId id = ((UnknownPred) move.guard).getId();
+        if (charIndex.containsKey(id) == false) {
+          charIndex.put(id, chars.size());
+          chars.add(id);
+        }
+
+        this.moveUnknown[i] = charIndex.get(id);
+      } else {
+        this.moveUnknown[i] = NONE;
+      }
+    }
+
+    this.chars = chars.toArray(new UnknownId[chars.size()]);
+
+    // Only quantifiers with an entry state are tallied.
+    this.quants = automaton.unknownToEntryState.keySet().toArray(new UnknownId[0]);
+    this.quantEntry = new int[this.quants.length];
+    List<List<Integer>> entriesAt = new ArrayList<>();
+    List<List<Integer>> exitsAt = new ArrayList<>();
+    for (int state = 0; state < this.states; state++) {
+      entriesAt.add(new ArrayList<>());
+      exitsAt.add(new ArrayList<>());
+    }
+
+    for (int q = 0; q < this.quants.length; q++) {
+      this.quantEntry[q] = automaton.unknownToEntryState.get(this.quants[q]);
+      if (this.quantEntry[q] < this.states) {
+        entriesAt.get(this.quantEntry[q]).add(q);
+      }
+
+      Set<Integer> exits = automaton.unknownToExitStates.get(this.quants[q]);
+      if (exits != null) {
+        for (Integer state : exits) {
+          if (state < this.states) {
+            exitsAt.get(state).add(q);
+          }
+        }
+      }
+    }
+
+    this.entriesAt = new int[this.states][];
+    this.exitsAt = new int[this.states][];
+    for (int state = 0; state < this.states; state++) {
+      this.entriesAt[state] = toArray(entriesAt.get(state));
+      this.exitsAt[state] = toArray(exitsAt.get(state));
+    }
+  }
+
+  private static int[] toArray (List<Integer> list) {
+    int[] array = new int[list.size()];
+    for (int i = 0; i < array.length; i++) {
+      array[i] = list.get(i);
+    }
+    return array;
+  }
+
+  /**
+   * Returns the states reachable from the state by the given epsilon moves.
+   * States are marked as reached in 'marks' with the state's own id plus one
+   * so the same marks can be reused for every state.
+   */
+  private static int[] computeClosure (int state, int[][] eps, int[] marks) {
+    int[] reached = new int[8];
+    int count = 0;
+    reached[count++] = state;
+    marks[state] = state + 1;
+
+    for (int i = 0; i < count; i++) {
+      for (int next : eps[reached[i]]) {
+        if (marks[next] != state + 1) {
+          marks[next] = state + 1;
+
+          if (count == reached.length) {
+            reached = Arrays.copyOf(reached, count * 2);
+          }
+
+          reached[count++] = next;
+        }
+      }
+    }
+
+    return Arrays.copyOf(reached, count);
+  }
+
+  /**
+   * Returns the characters at which a class starts: the first character and
+   * every character at which some guard's range starts or just ended.
+   */
+  private static char[] computeClassStarts (List<SFAInputMove<CharPred, Character>> moves) {
+    Set<Character> starts = new TreeSet<>();
+    starts.add(Character.MIN_VALUE);
+
+    for (SFAInputMove<CharPred, Character> move : moves) {
+      for (ImmutablePair<Character, Character> interval : move.guard.intervals) {
+        starts.add(interval.left);
+        if (interval.right < Character.MAX_VALUE) {
+          starts.add((char) (interval.right + 1));
+        }
+      }
+    }
+
+    char[] array = new char[starts.size()];
+    int i = 0;
+    for (Character start : starts) {
+      array[i++] = start;
+    }
+    return array;
+  }
+
+  private int searchClass (char ch) {
+    int index = Arrays.binarySearch(this.classStart, ch);
+    return (index >= 0) ? index : -index - 2;
+  }
+
+  int getCharClass (char ch) {
+    return (ch < ASCII) ? this.asciiClass[ch] : this.searchClass(ch);
+  }
+
+  int getCharClasses () {
+    return this.classStart.length;
+  }
+
+  private boolean hasModel (int move, int cls) {
+    return has(this.moveClasses, move * this.classWords, cls);
+  }
+
+  /**
+   * METHODS FOR SIMULATING SETS OF STATES
+   */
+
+  private static boolean has (long[] set, int offset, int state) {
+    return (set[offset + (state >>> 6)] & (1L << state)) != 0;
+  }
+
+  private static void add (long[] set, int offset, int state) {
+    set[offset + (state >>> 6)] |= 1L << state;
+  }
+
+  private boolean isEmpty (long[] set, int offset) {
+    for (int i = 0; i < this.words; i++) {
+      if (set[offset + i] != 0) {
+        return false;
+      }
+    }
+
+    return true;
+  }
+
+  private boolean hasFinal (long[] set, int offset) {
+    for (int i = 0; i < this.words; i++) {
+      if ((set[offset + i] & this.finalSet[i]) != 0) {
+        return true;
+      }
+    }
+
+    return false;
+  }
+
+  /**
+   * Adds the closure of every state in the set at offset 'from' to the set at
+   * offset 'to'.
+   */
+  private void addClosures (long[] set, int from, int to, int[][] closures) {
+    for (int i = 0; i < this.words; i++) {
+      long bits = set[from + i];
+
+      while (bits != 0) {
+        int state = (i << 6) | Long.numberOfTrailingZeros(bits);
+        bits &= bits - 1;
+
+        for (int reached : closures[state]) {
+          add(set, to, reached);
+        }
+      }
+    }
+  }
+
+  /**
+   * Returns the states reachable from the given states by epsilon moves alone
+   * (or, if 'reverse' is true, the states that reach them that way).
+   */
+  Set<Integer> getClosure (Collection<Integer> from, boolean reverse) {
+    int[][] closures = reverse ? this.reverseClosure : this.closure;
+    Set<Integer> reached = new HashSet<>();
+
+    for (Integer state : from) {
+      for (int other : closures[state]) {
+        reached.add(other);
+      }
+    }
+
+    return reached;
+  }
+
+  /**
+   * Returns the states reached from the given states by reading a character
+   * of the class followed by any epsilon moves (or, if 'reverse' is true, the
+   * states that reach them that way).
+   */
+  Set<Integer> getNextStates (Collection<Integer> from, int cls, boolean reverse) {
+    int[][] moves = reverse ? this.inputTo : this.inputFrom;
+    int[] ends = reverse ? this.moveFrom : this.moveTo;
+    Set<Integer> reached = new HashSet<>();
+
+    for (Integer state : from) {
+      for (int move : moves[state]) {
+        if (this.hasModel(move, cls)) {
+          reached.add(ends[move]);
+        }
+      }
+    }
+
+    return this.getClosure(reached, reverse);
+  }
+
+  /**
+   * Writes the states reached from the states in 'from' by reading a
+   * character of the class (followed by any epsilon moves) to 'to'.
+   */
+  private void step (long[] set, int from, int to, int cls) {
+    Arrays.fill(set, to, to + this.words, 0);
+
+    for (int i = 0; i < this.words; i++) {
+      long bits = set[from + i];
+
+      while (bits != 0) {
+        int state = (i << 6) | Long.numberOfTrailingZeros(bits);
+        bits &= bits - 1;
+
+        for (int move : this.inputFrom[state]) {
+          if (this.hasModel(move, cls)) {
+            for (int reached : this.closure[this.moveTo[move]]) {
+              add(set, to, reached);
+            }
+          }
+        }
+      }
+    }
+  }
+
+  boolean accepts (CharSequence str) {
+    Scratch scratch = CompiledAutomaton.scratch.get();
+    long[] sets = scratch.sets(2 * this.words);
+    int curr = 0;
+    int next = this.words;
+
+    Arrays.fill(sets, 0, this.words, 0);
+    for (int state : this.closure[this.initial]) {
+      add(sets, curr, state);
+    }
+
+    for (int i = 0; i < str.length(); i++) {
+      this.step(sets, curr, next, this.getCharClass(str.charAt(i)));
+
+      if (this.isEmpty(sets, next)) {
+        return false;
+      }
+
+      int swap = curr;
+      curr = next;
+      next = swap;
+    }
+
+    return this.hasFinal(sets, curr);
+  }
+
+  /**
+   * Checks whether every one of the given strings is accepted (or rejected)
+   * by the automaton, stopping at the first string that isn't. Strings are
+   * simulated in sorted order so that the states reached after reading a
+   * prefix shared with the previous string are reused instead of being
+   * recomputed.
+   */
+  boolean allHaveAcceptance (Collection<String> strs, boolean expected) {
+    Scratch scratch = CompiledAutomaton.scratch.get();
+    long[] sets = scratch.sets(this.words);
+    Arrays.fill(sets, 0, this.words, 0);
+    for (int state : this.closure[this.initial]) {
+      add(sets, 0, state);
+    }
+
+    // The number of states computed so far for the previous string (one
+    // more than the number of characters read).
+    int depth = 1;
+    String prev = "";
+
+    for (String str : new TreeSet<>(strs)) {
+      // Discard the sets computed for the part of the previous string that
+      // isn't shared with this string.
+      int shared = 0;
+      while (shared < prev.length() && shared < str.length() && prev.charAt(shared) == str.charAt(shared)) {
+        shared++;
+      }
+
+      depth = Math.min(depth, shared + 1);
+      sets = scratch.sets((str.length() + 1) * this.words);
+
+      // Once a set is empty no later states can be reached either.
+      int last = (depth - 1) * this.words;
+      for (int i = depth - 1; i < str.length() && this.isEmpty(sets, last) == false; i++) {
+        this.step(sets, last, last + this.words, this.getCharClass(str.charAt(i)));
+        last += this.words;
+        depth++;
+      }
+
+      if (this.hasFinal(sets, last) != expected) {
+        return false;
+      }
+
+      prev = str;
+    }
+
+    return true;
+  }
+
+  /**
+   * METHODS FOR TRACING PATHS
+   */
+
+  /**
+   * Follows every path through the automaton that reads the source and
+   * returns the distinct routes taken by the paths that end in a final state.
+   *
+   * The paths are never listed one by one. After each character, paths that
+   * reached the same state with the same partial route (see Signature) have
+   * the same routes ahead of them, so only one node is kept for all of them.
+   * A layer of nodes is kept for each position in the source, and each
+   * node's signature already sums up every path merged into it. The routes
+   * are read off the nodes in the last layer that sit on a final state.
+   *
+   * A path may take any number of epsilon moves between two characters but
+   * never visits the same state twice in a row of epsilon moves. Going round
+   * an epsilon cycle reads nothing and only adds empty repetitions. Which
+   * paths are kept doesn't depend on the order of the SFA's moves.
+   *
+   * Templates that nest unknown quantifiers can split a source between their
+   * unknowns in exponentially many ways, each its own route, so the deadline
+   * is checked for every node and not just every character.
+   */
+  Set<Route> trace (String source, Deadline deadline) {
+    Scratch scratch = CompiledAutomaton.scratch.get();
+    Set<Route> routes = new HashSet<>();
+    long[] filter = this.getStateFilter(source, deadline, scratch);
+
+    if (filter == null) {
+      return routes;
+    }
+
+    int length = source.length();
+    boolean[] onPath = scratch.onPath(this.states);
+    Map<Signature, long[]> layer = new HashMap<>();
+    this.closeEpsilons(this.initial, Signature.empty(this.quants.length), filter, 0, (length + 1) * this.words, layer, onPath);
+
+    for (int i = 0; i < length; i++) {
+      char ch = source.charAt(i);
+      int cls = this.getCharClass(ch);
+      int reaches = (i + 1) * this.words;
+      int useful = (length + 2 + i) * this.words;
+
+      // Read the character from every node then follow the epsilon moves
+      // from each node reached. Nodes reached the same way by more than one
+      // node are only closed once.
+      Map<Signature, long[]> read = new HashMap<>();
+      for (Map.Entry<Signature, long[]> node : layer.entrySet()) {
+        deadline.check();
+        long[] states = node.getValue();
+
+        for (int w = 0; w < this.words; w++) {
+          long bits = states[w];
+
+          while (bits != 0) {
+            int state = (w << 6) | Long.numberOfTrailingZeros(bits);
+            bits &= bits - 1;
+
+            for (int move : this.inputFrom[state]) {
+              int to = this.moveTo[move];
+
+              if (this.hasModel(move, cls) && has(filter, reaches, to)) {
+                Signature next = this.follow(node.getKey(), state, to).cross(this.moveUnknown[move], ch);
+                add(this.statesOf(read, next), 0, to);
+              }
+            }
+          }
+        }
+      }
+
+      layer = new HashMap<>();
+      for (Map.Entry<Signature, long[]> node : read.entrySet()) {
+        deadline.check();
+        long[] states = node.getValue();
+
+        for (int w = 0; w < this.words; w++) {
+          long bits = states[w];
+
+          while (bits != 0) {
+            int state = (w << 6) | Long.numberOfTrailingZeros(bits);
+            bits &= bits - 1;
+            this.closeEpsilons(state, node.getKey(), filter, reaches, useful, layer, onPath);
+          }
+        }
+      }
+
+      if (layer.isEmpty()) {
+        return routes;
+      }
+    }
+
+    for (Map.Entry<Signature, long[]> node : layer.entrySet()) {
+      long[] states = node.getValue();
+
+      for (int w = 0; w < this.words; w++) {
+        long bits = states[w] & this.finalSet[w];
+
+        while (bits != 0) {
+          int state = (w << 6) | Long.numberOfTrailingZeros(bits);
+          bits &= bits - 1;
+          routes.add(this.getRoute(node.getKey(), state));
+        }
+      }
+    }
+
+    return routes;
+  }
+
+  private long[] statesOf (Map<Signature, long[]> layer, Signature signature) {
+    long[] states = layer.get(signature);
+
+    if (states == null) {
+      states = new long[this.words];
+      layer.put(signature, states);
+    }
+
+    return states;
+  }
+
+  /**
+   * Adds a node to the layer for the state and every state reached from it
+   * by a row of epsilon moves that doesn't repeat a state, as long as the
+   * state is in 'useful' (the set at that offset of the filter). States that
+   * can't reach a state in 'reaches' are never entered since no path through
+   * them reads the rest of the source.
+   */
+  private void closeEpsilons (int state, Signature signature, long[] filter, int reaches, int useful, Map<Signature, long[]> layer, boolean[] onPath) {
+    if (has(filter, useful, state)) {
+      add(this.statesOf(layer, signature), 0, state);
+    }
+
+    onPath[state] = true;
+
+    for (int next : this.epsFrom[state]) {
+      if (onPath[next] == false && has(filter, reaches, next)) {
+        this.closeEpsilons(next, this.follow(signature, state, next), filter, reaches, useful, layer, onPath);
+      }
+    }
+
+    onPath[state] = false;
+  }
+
+  /**
+   * Returns the signature of a path that moves from the state 'from' (the
+   * last state of a path with the given signature) to the state 'to'.
+   *
+   * Each unknown quantifier's repetitions are counted by the entries to its
+   * entry state. A path that leaves through one of the quantifier's exit
+   * states, other than by looping back to its entry, ends the count so far
+   * and starts a new one. The entry to the last state of a path is only
+   * counted once the path moves on, and then it's counted with the
+   * repetitions after any count it ends.
+   */
+  private Signature follow (Signature signature, int from, int to) {
+    int[] tallies = signature.tallies;
+
+    for (int q : this.exitsAt[from]) {
+      if (this.quantEntry[q] != to && tallies[3 * q] > 0) {
+        if (tallies == signature.tallies) {
+          tallies = tallies.clone();
+        }
+
+        Signature.end(tallies, q);
+      }
+    }
+
+    for (int q : this.entriesAt[from]) {
+      if (tallies == signature.tallies) {
+        tallies = tallies.clone();
+      }
+
+      tallies[3 * q]++;
+    }
+
+    return (tallies == signature.tallies) ? signature : new Signature(signature.spans, tallies);
+  }
+
+  /**
+   * Turns the signature of a path ending in the state into its route, which
+   * holds the characters that crossed each unknown character class and the
+   * fewest and most times each unknown quantifier was repeated. The counts in
+   * between never change the formula built from the route so they aren't
+   * kept.
+   */
+  private Route getRoute (Signature signature, int state) {
+    int[] tallies = signature.tallies.clone();
+    for (int q : this.entriesAt[state]) {
+      tallies[3 * q]++;
+    }
+
+    Map<UnknownId, Set<Integer>> exits = new HashMap<>();
+    for (int q = 0; q < this.quants.length; q++) {
+      Signature.end(tallies, q);
+
+      Set<Integer> counts = new HashSet<>();
+      if (tallies[3 * q + 2] > 0) {
+        counts.add(tallies[3 * q + 1]);
+        counts.add(tallies[3 * q + 2]);
+      }
+
+      exits.put(this.quants[q], counts);
+    }
+
+    Map<UnknownId, Set<Character>> crosses = new HashMap<>();
+    for (int span : signature.spans) {
+      UnknownId id = this.chars[span >>> 16];
+      if (crosses.containsKey(id) == false) {
+        crosses.put(id, new HashSet<>());
+      }
+
+      crosses.get(id).add((char) span);
+    }
+
+    return new Route(crosses, exits);
+  }
+
+  /**
+   * Computes, for each position i in the source, the states from which the
+   * rest of the source can be read by some path ending in a final state (at
+   * offset i * words of the returned array) and the subset of those states
+   * that can read the i-th character without an epsilon move first (at offset
+   * (length + 1 + i) * words, which holds the final states for i = length).
+   * Returns null if the source can't be read from the initial state.
+   */
+  private long[] getStateFilter (String source, Deadline deadline, Scratch scratch) {
+    int length = source.length();
+    int size = (2 * length + 2) * this.words;
+    long[] sets = scratch.filter(size);
+    Arrays.fill(sets, 0, size, 0);
+
+    int useful = (2 * length + 1) * this.words;
+    System.arraycopy(this.finalSet, 0, sets, useful, this.words);
+    this.addClosures(sets, useful, length * this.words, this.reverseClosure);
+
+    for (int i = length - 1; i >= 0; i--) {
+      deadline.check();
+      int cls = this.getCharClass(source.charAt(i));
+      int reaches = (i + 1) * this.words;
+      useful = (length + 1 + i) * this.words;
+
+      for (int j = 0; j < this.words; j++) {
+        long bits = sets[reaches + j];
+
+        while (bits != 0) {
+          int state = (j << 6) | Long.numberOfTrailingZeros(bits);
+          bits &= bits - 1;
+
+          for (int move : this.inputTo[state]) {
+            if (this.hasModel(move, cls)) {
+              add(sets, useful, this.moveFrom[move]);
+            }
+          }
+        }
+      }
+
+      this.addClosures(sets, useful, i * this.words, this.reverseClosure);
+
+      if (this.isEmpty(sets, i * this.words)) {
+        return null;
+      }
+    }
+
+    if (has(sets, 0, this.initial) == false) {
+      return null;
+    }
+
+    return sets;
+  }
+
+  /**
+   * The part of a route a path has taken so far. Two paths that reach the
+   * same state with the same signature are followed by the same paths, and
+   * every route that starts with one of them can start with the other, so a
+   * trace only keeps one.
+   *
+   * The spans are the pairs of an unknown character class (by its index in
+   * 'chars') and a character that crossed it, stored as the index shifted
+   * left 16 bits plus the character and kept sorted. The tallies hold three
+   * ints for each unknown quantifier: the repetitions counted since its
+   * count last ended, and the fewest and most repetitions of the counts
+   * that have ended (MAX_VALUE and 0 if none have).
+   */
+  private static class Signature {
+    private static final int[] NO_SPANS = new int[0];
+
+    private final int[] spans;
+    private final int[] tallies;
+    private final int hash;
+
+    private Signature (int[] spans, int[] tallies) {
+      this.spans = spans;
+      this.tallies = tallies;
+      this.hash = 31 * Arrays.hashCode(spans) + Arrays.hashCode(tallies);
+    }
+
+    private static Signature empty (int quants) {
+      int[] tallies = new int[3 * quants];
+      for (int q = 0; q < quants; q++) {
+        tallies[3 * q + 1] = Integer.MAX_VALUE;
+      }
+
+      return new Signature(NO_SPANS, tallies);
+    }
+
+    /**
+     * Ends the quantifier's current count (if anything was counted).
+     */
+    private static void end (int[] tallies, int q) {
+      int count = tallies[3 * q];
+
+      if (count > 0) {
+        tallies[3 * q + 1] = Math.min(tallies[3 * q + 1], count);
+        tallies[3 * q + 2] = Math.max(tallies[3 * q + 2], count);
+        tallies[3 * q] = 0;
+      }
+    }
+
+    /**
+     * Returns the signature with the character crossing the unknown
+     * character class (if 'unknown' isn't NONE).
+     */
+    private Signature cross (int unknown, char ch) {
+      if (unknown == NONE) {
+        return this;
+      }
+
+      int span = (unknown << 16) | ch;
+      int index = Arrays.binarySearch(this.spans, span);
+
+      if (index >= 0) {
+        return this;
+      }
+
+      int at = -index - 1;
+      int[] spans = new int[this.spans.length + 1];
+      System.arraycopy(this.spans, 0, spans, 0, at);
+      spans[at] = span;
+      System.arraycopy(this.spans, at, spans, at + 1, this.spans.length - at);
+      return new Signature(spans, this.tallies);
+    }
+
+    @Override
+    public boolean equals (Object other) {
+      if (other instanceof Signature) {
+        Signature that = (Signature) other;
+        return this.hash == that.hash
+          && Arrays.equals(this.spans, that.spans)
+          && Arrays.equals(this.tallies, that.tallies);
+      }
+
+      return false;
+    }
+
+    @Override
+    public int hashCode () {
+      return this.hash;
+    }
+  }
+
+  /**
+   * Space reused by every simulation run on the same thread.
+   */
+  private static class Scratch {
+    private boolean[] onPath = new boolean[0];
+    private long[] sets = new long[0];
+    private long[] filter = new long[0];
+
+    private boolean[] onPath (int states) {
+      if (this.onPath.length < states) {
+        this.onPath = new boolean[states];
+      }
+
+      return this.onPath;
+    }
+
+    /**
+     * Returns at least the given number of words for sets of states, keeping
+     * the sets already stored.
+     */
+    private long[] sets (int words) {
+      if (this.sets.length < words) {
+        this.sets = Arrays.copyOf(this.sets, Math.max(words, this.sets.length * 2));
+      }
+
+      return this.sets;
+    }
+
+    private long[] filter (int words) {
+      if (this.filter.length < words) {
+        this.filter = new long[Math.max(words, this.filter.length * 2)];
+      }
+
+      return this.filter;
+    }
+  }
+}
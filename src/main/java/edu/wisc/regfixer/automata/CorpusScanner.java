@@ -0,0 +1,438 @@
+package edu.wisc.regfixer.automata;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+
+import edu.wisc.regfixer.enumerate.Range;
+import edu.wisc.regfixer.enumerate.UnknownBounds;
+import edu.wisc.regfixer.enumerate.UnknownChar;
+import edu.wisc.regfixer.parser.AnchorNode;
+import edu.wisc.regfixer.parser.Bounds;
+import edu.wisc.regfixer.parser.CharClass;
+import edu.wisc.regfixer.parser.CharDotNode;
+import edu.wisc.regfixer.parser.ConcatNode;
+import edu.wisc.regfixer.parser.OptionalNode;
+import edu.wisc.regfixer.parser.PlusNode;
+import edu.wisc.regfixer.parser.RegexNode;
+import edu.wisc.regfixer.parser.RepetitionNode;
+import edu.wisc.regfixer.parser.StarNode;
+import edu.wisc.regfixer.parser.UnionNode;
+import theory.characters.CharPred;
+
+/**
+ * CorpusScanner finds every match of a (fully concrete) syntax tree in a
+ * corpus the same way repeated calls to Matcher#find would, but without the
+ * backtracking regex engine. The templates produced by the enumerator are
+ * full of nested quantifiers (for example (■(■)+)+) which can take
+ * exponential time to scan with java.util.regex.
+ *
+ * The tree is compiled into a small program of character tests, jumps and
+ * prioritized splits (a union prefers its left alternative, a greedy
+ * quantifier prefers another iteration) which is run as a Pike VM: every
+ * thread of the program advances over the corpus in lockstep, ordered by
+ * priority, and a thread that reaches an instruction some higher priority
+ * thread already reached at the same index is dropped since it can only
+ * repeat what that thread does. The first thread to match in priority order
+ * is the match the backtracking engine would have found, so unions and
+ * quantifiers are resolved leftmost-first exactly like java.util.regex, while
+ * each search reads every character at most once per instruction.
+ *
+ * Like Matcher#find the search resumes where the previous match ended, or one
+ * character later if that match was empty.
+ */
+public class CorpusScanner {
+  // Bounded repetitions are unrolled so a tree like (ab){1,1000} compiles to
+  // thousands of instructions. Larger programs are left to the regex engine.
+  public static final int MAX_PROGRAM_SIZE = 100000;
+
+  private static final int CHAR  = 0;
+  private static final int SPLIT = 1;
+  private static final int JUMP  = 2;
+  private static final int BEGIN = 3;
+  private static final int END   = 4;
+  private static final int MATCH = 5;
+
+  private final Program program;
+
+  public CorpusScanner (RegexNode tree) {
+    this.program = new Program();
+    this.program.compile(tree);
+    this.program.emit(MATCH, 0, 0);
+  }
+
+  /**
+   * Returns true if the scanner finds exactly the matches the regex engine
+   * would find in a corpus with the given property. Trees that still contain
+   * unknowns or character classes that Automaton#supports rejects aren't
+   * supported. Neither are quantifiers whose body can match the empty string
+   * since the regex engine stops repeating a body after an empty iteration
+   * and goes on with whatever follows, which a prioritized split can't
+   * express. An anchor around a union is printed without parentheses so the
+   * regex engine reads ^a|b$ as (^a)|(b$) rather than ^(a|b)$ and such trees
+   * are left to it too. Characters outside the basic plane are matched as a
+   * single code point by the regex engine but as two chars by the scanner
+   * so any corpus that contains them isn't supported.
+   */
+  public static boolean supports (RegexNode tree, boolean hasSurrogates) {
+    return hasSurrogates == false && isSupported(tree);
+  }
+
+  public static boolean containsSurrogates (CharSequence corpus) {
+    for (int i = 0; i < corpus.length(); i++) {
+      if (Character.isSurrogate(corpus.charAt(i))) {
+        return true;
+      }
+    }
+
+    return false;
+  }
+
+  private static boolean isLineTerminator (char ch) {
+    switch (ch) {
+      case '\n':
+      case '\r':
+      case '\u0085':
+      case '\u2028':
+      case '\u2029':
+        return true;
+      default:
+        return false;
+    }
+  }
+
+  private static boolean isSupported (RegexNode node) {
+         if (node instanceof UnknownChar)    { return false; }
+    else if (node instanceof AnchorNode)     { return !(((AnchorNode) node).getChild() instanceof UnionNode) && isSupported(((AnchorNode) node).getChild()); }
+    else if (node instanceof ConcatNode)     { return ((ConcatNode) node).getChildren().stream().allMatch(c -> isSupported(c)); }
+    else if (node instanceof UnionNode)      { return isSupported(((UnionNode) node).getLeftChild()) && isSupported(((UnionNode) node).getRightChild()); }
+    else if (node instanceof RepetitionNode) { return !(((RepetitionNode) node).getBounds() instanceof UnknownBounds) && isSupportedBody(((RepetitionNode) node).getChild()); }
+    else if (node instanceof OptionalNode)   { return isSupportedBody(((OptionalNode) node).getChild()); }
+    else if (node instanceof StarNode)       { return isSupportedBody(((StarNode) node).getChild()); }
+    else if (node instanceof PlusNode)       { return isSupportedBody(((PlusNode) node).getChild()); }
+    else if (node instanceof CharClass)      { return Automaton.supports(node); }
+    else                                     { return false; }
+  }
+
+  private static boolean isSupportedBody (RegexNode body) {
+    return isNullable(body) == false && isSupported(body);
+  }
+
+  private static boolean isNullable (RegexNode node) {
+         if (node instanceof AnchorNode)     { return isNullable(((AnchorNode) node).getChild()); }
+    else if (node instanceof ConcatNode)     { return ((ConcatNode) node).getChildren().stream().allMatch(c -> isNullable(c)); }
+    else if (node instanceof UnionNode)      { return isNullable(((UnionNode) node).getLeftChild()) || isNullable(((UnionNode) node).getRightChild()); }
+    else if (node instanceof RepetitionNode) { return ((RepetitionNode) node).getBounds().getMin() == 0 || isNullable(((RepetitionNode) node).getChild()); }
+    else if (node instanceof OptionalNode)   { return true; }
+    else if (node instanceof StarNode)       { return true; }
+    else if (node instanceof PlusNode)       { return isNullable(((PlusNode) node).getChild()); }
+    else                                     { return false; }
+  }
+
+  public Set<Range> scan (CharSequence corpus) {
+    Set<Range> ranges = new TreeSet<>();
+    Threads current = new Threads(this.program.size());
+    Threads next = new Threads(this.program.size());
+    int index = 0;
+
+    while (index <= corpus.length()) {
+      Range range = this.find(corpus, index, current, next);
+
+      if (range == null) {
+        break;
+      }
+
+      ranges.add(range);
+      index = (range.getRightIndex() == range.getLeftIndex())
+        ? range.getRightIndex() + 1
+        : range.getRightIndex();
+    }
+
+    return ranges;
+  }
+
+  /**
+   * Returns the first match (in the order the regex engine would try them)
+   * that begins at or after the given index, or null if there isn't one.
+   */
+  private Range find (CharSequence corpus, int from, Threads current, Threads next) {
+    int matchStart = -1;
+    int matchEnd = -1;
+    current.clear();
+
+    for (int i = from; ; i++) {
+      // A thread starting at this index has lower priority than every thread
+      // that started earlier and is only needed while no match was found.
+      if (matchStart < 0) {
+        this.addThread(current, 0, i, i, corpus);
+      } else if (current.size == 0) {
+        break;
+      }
+
+      next.clear();
+      boolean more = (i < corpus.length());
+      char ch = more ? corpus.charAt(i) : 0;
+
+      for (int t = 0; t < current.size; t++) {
+        int pc = current.pcs[t];
+
+        if (this.program.ops[pc] == MATCH) {
+          // Threads after this one have lower priority than the match.
+          matchStart = current.starts[pc];
+          matchEnd = i;
+          break;
+        } else if (more && this.program.accepts(pc, ch)) {
+          this.addThread(next, pc + 1, i + 1, current.starts[pc], corpus);
+        }
+      }
+
+      if (more == false) {
+        break;
+      }
+
+      Threads swap = current;
+      current = next;
+      next = swap;
+    }
+
+    return (matchStart < 0) ? null : new Range(matchStart, matchEnd);
+  }
+
+  /**
+   * Adds the thread at the given instruction to the list along with every
+   * instruction reachable from it without reading a character, in priority
+   * order. Each instruction remembers the index at which its thread's match
+   * began.
+   */
+  private void addThread (Threads threads, int pc, int index, int start, CharSequence corpus) {
+    int[] stack = threads.stack;
+    int top = 0;
+    stack[top++] = pc;
+
+    while (top > 0) {
+      pc = stack[--top];
+
+      if (threads.isVisited(pc)) {
+        continue;
+      }
+
+      threads.visit(pc);
+      threads.starts[pc] = start;
+
+      switch (this.program.ops[pc]) {
+        case SPLIT:
+          // The preferred branch is pushed last so it is explored first.
+          stack[top++] = this.program.args2[pc];
+          stack[top++] = this.program.args1[pc];
+          break;
+        case JUMP:
+          stack[top++] = this.program.args1[pc];
+          break;
+        case BEGIN:
+          if (index == 0) {
+            stack[top++] = pc + 1;
+          }
+          break;
+        case END:
+          if (isEnd(corpus, index)) {
+            stack[top++] = pc + 1;
+          }
+          break;
+        default:
+          threads.pcs[threads.size++] = pc;
+          break;
+      }
+    }
+  }
+
+  /**
+   * Mirrors the regex engine's $ (without the MULTILINE flag) which matches
+   * at the end of the input or before a line terminator that ends it.
+   */
+  private static boolean isEnd (CharSequence corpus, int index) {
+    int length = corpus.length();
+
+    if (index == length) {
+      return true;
+    } else if (index == length - 2) {
+      return corpus.charAt(index) == '\r' && corpus.charAt(index + 1) == '\n';
+    } else if (index == length - 1) {
+      char ch = corpus.charAt(index);
+      return isLineTerminator(ch) && !(ch == '\n' && index > 0 && corpus.charAt(index - 1) == '\r');
+    } else {
+      return false;
+    }
+  }
+
+  /**
+   * The instructions compiled from a tree. A CHAR instruction tests the
+   * character at the current index against a predicate and moves on to the
+   * next instruction, a SPLIT continues at both of its targets with the
+   * first preferred, BEGIN and END are the ^ and $ anchors and MATCH ends a
+   * match.
+   */
+  private static class Program {
+    private int[] ops = new int[16];
+    private int[] args1 = new int[16];
+    private int[] args2 = new int[16];
+    private final List<CharPred> predicates = new ArrayList<>();
+    private final List<boolean[]> asciiTables = new ArrayList<>();
+    private int size = 0;
+
+    private int size () {
+      return this.size;
+    }
+
+    private int emit (int op, int arg1, int arg2) {
+      if (this.size == MAX_PROGRAM_SIZE) {
+        throw new UnsupportedOperationException("Program too large");
+      }
+
+      if (this.size == this.ops.length) {
+        int capacity = Math.min(this.size * 2, MAX_PROGRAM_SIZE);
+        this.ops = Arrays.copyOf(this.ops, capacity);
+        this.args1 = Arrays.copyOf(this.args1, capacity);
+        this.args2 = Arrays.copyOf(this.args2, capacity);
+      }
+
+      this.ops[this.size] = op;
+      this.args1[this.size] = arg1;
+      this.args2[this.size] = arg2;
+      return this.size++;
+    }
+
+    private boolean accepts (int pc, char ch) {
+      if (this.ops[pc] != CHAR) {
+        return false;
+      } else if (ch < 128) {
+        return this.asciiTables.get(this.args1[pc])[ch];
+      } else {
+        CharPred pred = this.predicates.get(this.args1[pc]);
+        return (pred == null) ? !isLineTerminator(ch) : pred.isSatisfiedBy(ch);
+      }
+    }
+
+    private void compile (RegexNode node) {
+      if (node instanceof AnchorNode) {
+        AnchorNode anchor = (AnchorNode) node;
+        if (anchor.hasStart()) { this.emit(BEGIN, 0, 0); }
+        this.compile(anchor.getChild());
+        if (anchor.hasEnd()) { this.emit(END, 0, 0); }
+      } else if (node instanceof ConcatNode) {
+        for (RegexNode child : ((ConcatNode) node).getChildren()) {
+          this.compile(child);
+        }
+      } else if (node instanceof UnionNode) {
+        int split = this.emit(SPLIT, 0, 0);
+        this.args1[split] = this.size;
+        this.compile(((UnionNode) node).getLeftChild());
+        int jump = this.emit(JUMP, 0, 0);
+        this.args2[split] = this.size;
+        this.compile(((UnionNode) node).getRightChild());
+        this.args1[jump] = this.size;
+      } else if (node instanceof RepetitionNode) {
+        Bounds bounds = ((RepetitionNode) node).getBounds();
+        RegexNode body = ((RepetitionNode) node).getChild();
+        this.compileRepetition(body, bounds.getMin(), bounds.hasMax() ? bounds.getMax() : -1);
+      } else if (node instanceof OptionalNode) {
+        this.compileRepetition(((OptionalNode) node).getChild(), 0, 1);
+      } else if (node instanceof StarNode) {
+        this.compileRepetition(((StarNode) node).getChild(), 0, -1);
+      } else if (node instanceof PlusNode) {
+        this.compileRepetition(((PlusNode) node).getChild(), 1, -1);
+      } else if (node instanceof CharClass) {
+        this.emit(CHAR, this.predicate((CharClass) node), 0);
+      } else {
+        throw new UnsupportedOperationException("Unknown node: " + node.getClass().getName());
+      }
+    }
+
+    /**
+     * Compiles a greedy repetition of the body between min and max times
+     * (without an upper bound if max is negative). The required iterations
+     * are unrolled and each optional iteration is nested inside the previous
+     * one, as in aa(a(a)?)? for a{2,4}.
+     */
+    private void compileRepetition (RegexNode body, int min, int max) {
+      for (int i = 0; i < min; i++) {
+        this.compile(body);
+      }
+
+      if (max < 0) {
+        int split = this.emit(SPLIT, 0, 0);
+        this.args1[split] = this.size;
+        this.compile(body);
+        this.emit(JUMP, split, 0);
+        this.args2[split] = this.size;
+        return;
+      }
+
+      List<Integer> splits = new ArrayList<>();
+      for (int i = min; i < max; i++) {
+        int split = this.emit(SPLIT, 0, 0);
+        this.args1[split] = this.size;
+        splits.add(split);
+        this.compile(body);
+      }
+
+      for (int split : splits) {
+        this.args2[split] = this.size;
+      }
+    }
+
+    /**
+     * Returns the index of the node's predicate. The regex engine's dot
+     * matches any character but a line terminator, unlike the automaton's
+     * dot, so it's stored as a null predicate.
+     */
+    private int predicate (CharClass node) {
+      CharPred pred = (node instanceof CharDotNode) ? null : Automaton.predicateOf(node);
+      boolean[] table = new boolean[128];
+
+      for (char ch = 0; ch < 128; ch++) {
+        table[ch] = (pred == null) ? !isLineTerminator(ch) : pred.isSatisfiedBy(ch);
+      }
+
+      this.predicates.add(pred);
+      this.asciiTables.add(table);
+      return this.predicates.size() - 1;
+    }
+  }
+
+  /**
+   * The threads alive at one index, in priority order. An instruction is
+   * visited at most once per index so every array is as long as the program.
+   */
+  private static class Threads {
+    private final int[] pcs;
+    private final int[] starts;
+    private final int[] stack;
+    private final int[] visited;
+    private int generation;
+    private int size;
+
+    private Threads (int capacity) {
+      this.pcs = new int[capacity];
+      this.starts = new int[capacity];
+      this.stack = new int[2 * capacity + 2];
+      this.visited = new int[capacity];
+      this.generation = 1;
+      this.size = 0;
+    }
+
+    private void clear () {
+      this.size = 0;
+      this.generation++;
+    }
+
+    private boolean isVisited (int pc) {
+      return this.visited[pc] == this.generation;
+    }
+
+    private void visit (int pc) {
+      this.visited[pc] = this.generation;
+    }
+  }
+}
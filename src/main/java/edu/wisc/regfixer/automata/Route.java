@@ -18,6 +18,10 @@ public class Route {
     return this.spans;
   }
 
+  /**
+   * Returns the fewest and most times the route repeated each quantifier
+   * (an empty set if the route never entered the quantifier).
+   */
   public Map<UnknownId, Set<Integer>> getExits () {
     return this.exits;
   }
@@ -43,7 +47,7 @@ public class Route {
 
   @Override
   public int hashCode () {
-    return this.spans.hashCode() * this.exits.hashCode();
+    return this.spans.hashCode() * 31 + this.exits.hashCode();
   }
 
   /**
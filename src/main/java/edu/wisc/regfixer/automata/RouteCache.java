@@ -0,0 +1,78 @@
+package edu.wisc.regfixer.automata;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+import edu.wisc.regfixer.diagnostic.Deadline;
+import org.sat4j.specs.TimeoutException;
+
+/**
+ * RouteCache remembers the routes traced through a single template's
+ * automaton for each example string. Each round of the synthesis loop traces
+ * the same positive examples and all of the negative examples from earlier
+ * rounds again, so only strings that are new to the current round need to be
+ * traced through the automaton.
+ *
+ * The cache holds at most a fixed number of routes (summed over all cached
+ * examples) and evicts the least recently used examples first.
+ */
+public class RouteCache {
+  public static final int DEFAULT_CAPACITY = 1 << 16;
+
+  private final Automaton automaton;
+  private final Deadline deadline;
+  private final int capacity;
+  private final Map<String, Set<Route>> routes;
+  private int totalRoutes = 0;
+
+  public RouteCache (Automaton automaton) {
+    this(automaton, new Deadline());
+  }
+
+  public RouteCache (Automaton automaton, Deadline deadline) {
+    this(automaton, deadline, DEFAULT_CAPACITY);
+  }
+
+  public RouteCache (Automaton automaton, Deadline deadline, int capacity) {
+    this.automaton = automaton;
+    this.deadline = deadline;
+    this.capacity = capacity;
+    this.routes = new LinkedHashMap<>(16, 0.75f, true);
+  }
+
+  public Automaton getAutomaton () {
+    return this.automaton;
+  }
+
+  public Set<Route> trace (String source) throws TimeoutException {
+    Set<Route> cached = this.routes.get(source);
+
+    if (cached != null) {
+      return cached;
+    }
+
+    Set<Route> traced = this.automaton.trace(source, this.deadline);
+    this.routes.put(source, traced);
+    this.totalRoutes += weigh(traced);
+    this.evict();
+    return traced;
+  }
+
+  private void evict () {
+    Iterator<Set<Route>> iter = this.routes.values().iterator();
+
+    // Always keep the most recently traced example even if it alone exceeds
+    // the capacity.
+    while (this.totalRoutes > this.capacity && this.routes.size() > 1) {
+      this.totalRoutes -= weigh(iter.next());
+      iter.remove();
+    }
+  }
+
+  private static int weigh (Set<Route> routes) {
+    // Examples without any routes still occupy an entry in the cache.
+    return Math.max(1, routes.size());
+  }
+}
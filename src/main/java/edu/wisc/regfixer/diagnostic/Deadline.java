@@ -0,0 +1,117 @@
+package edu.wisc.regfixer.diagnostic;
+
+/**
+ * A Deadline bounds the wall-clock time a job's search may take and lets the
+ * search be cancelled from another thread. Slow steps of the search (polling
+ * templates, tracing examples, scanning the corpus and solving formulae)
+ * check the deadline as they go and throw DeadlineExceeded once it has
+ * passed, after which the search stops with the solutions found so far.
+ */
+public class Deadline {
+  // The corpus is only checked against the deadline once per this many
+  // characters read (a power of two so the count is cheap to test).
+  private static final int CHARS_PER_CHECK = 1 << 12;
+
+  private final long expiresAt;
+  private final long millis;
+  private final boolean limited;
+  private volatile boolean cancelled;
+
+  /**
+   * A deadline that never expires unless it's cancelled.
+   */
+  public Deadline () {
+    this.expiresAt = 0;
+    this.millis = -1;
+    this.limited = false;
+    this.cancelled = false;
+  }
+
+  public Deadline (long millis) {
+    this.expiresAt = System.nanoTime() + millis * 1000000;
+    this.millis = millis;
+    this.limited = true;
+    this.cancelled = false;
+  }
+
+  public void cancel () {
+    this.cancelled = true;
+  }
+
+  public boolean isExpired () {
+    return this.cancelled || (this.limited && System.nanoTime() - this.expiresAt >= 0);
+  }
+
+  public void check () throws DeadlineExceeded {
+    if (this.cancelled) {
+      throw new DeadlineExceeded("search cancelled");
+    } else if (this.isExpired()) {
+      throw new DeadlineExceeded("search deadline reached");
+    }
+  }
+
+  /**
+   * Returns the time limit the deadline was created with or -1 if it has
+   * none.
+   */
+  public long getMillis () {
+    return this.millis;
+  }
+
+  /**
+   * Returns the number of milliseconds left before the deadline (at least 1
+   * since solvers treat 0 as no limit) or Long.MAX_VALUE if there is no time
+   * limit.
+   */
+  public long getRemainingMillis () {
+    if (this.limited == false) {
+      return Long.MAX_VALUE;
+    }
+
+    return Math.max(1, (this.expiresAt - System.nanoTime()) / 1000000);
+  }
+
+  /**
+   * Wraps the characters so that reading them (for example with a regex
+   * Matcher, which can't otherwise be interrupted) checks the deadline.
+   */
+  public CharSequence watch (CharSequence chars) {
+    return new Watched(chars, this);
+  }
+
+  private static class Watched implements CharSequence {
+    private final CharSequence chars;
+    private final Deadline deadline;
+    private int reads;
+
+    private Watched (CharSequence chars, Deadline deadline) {
+      this.chars = chars;
+      this.deadline = deadline;
+      this.reads = 0;
+    }
+
+    @Override
+    public char charAt (int index) {
+      if ((++this.reads & (CHARS_PER_CHECK - 1)) == 0) {
+        this.deadline.check();
+      }
+
+      return this.chars.charAt(index);
+    }
+
+    @Override
+    public int length () {
+      return this.chars.length();
+    }
+
+    @Override
+    public CharSequence subSequence (int start, int end) {
+      return new Watched(this.chars.subSequence(start, end), this.deadline);
+    }
+
+    @Override
+    public String toString () {
+      return this.chars.toString();
+    }
+  }
+}
@@ -0,0 +1,12 @@
+package edu.wisc.regfixer.diagnostic;
+
+/**
+ * Thrown from anywhere in the search once its Deadline has expired or was
+ * cancelled. It's unchecked so that it can unwind through code (like the
+ * automaton library) that knows nothing about deadlines.
+ */
+public class DeadlineExceeded extends RuntimeException {
+  public DeadlineExceeded (String message) {
+    super(message);
+  }
+}
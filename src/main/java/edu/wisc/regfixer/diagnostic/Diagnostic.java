@@ -1,20 +1,57 @@
 package edu.wisc.regfixer.diagnostic;
 
+import java.io.ByteArrayOutputStream;
+
 public class Diagnostic {
   private ReportStream out;
   private Registry reg;
   private Timing tim;
+  private Deadline deadline;
+
+  // Only set for diagnostics created by Diagnostic#fork() which collect their
+  // output in memory until it can be written to the parent's output stream.
+  private ByteArrayOutputStream buffer = null;
 
   public Diagnostic () {
     this.out = new ReportStream(System.out);
     this.reg = new Registry();
     this.tim = new Timing();
+    this.deadline = new Deadline();
   }
 
   public Diagnostic (ReportStream out, Registry reg, Timing tim) {
     this.out = out;
     this.reg = reg;
     this.tim = tim;
+    this.deadline = new Deadline();
+  }
+
+  /**
+   * Create a child diagnostic that shares this diagnostic's registry, timings
+   * and deadline but buffers its report output. This lets a template be evaluated
+   * on a worker thread without interleaving its debugging output with the
+   * output of other templates.
+   */
+  public Diagnostic fork () {
+    ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+    Diagnostic child = new Diagnostic(new ReportStream(buffer), this.reg, this.tim);
+    child.buffer = buffer;
+    child.deadline = this.deadline;
+    return child;
+  }
+
+  /**
+   * Write any output buffered by a child diagnostic (see Diagnostic#fork())
+   * to this diagnostic's output stream.
+   */
+  public void join (Diagnostic child) {
+    if (child.buffer == null || child.buffer.size() == 0) {
+      return;
+    }
+
+    child.out.flush();
+    this.out.println();
+    this.out.print(child.buffer.toString());
   }
 
   public ReportStream output () {
@@ -40,4 +77,12 @@ public class Diagnostic {
   public Timing timing () {
     return this.tim;
   }
+
+  public Deadline deadline () {
+    return this.deadline;
+  }
+
+  public void setDeadline (Deadline deadline) {
+    this.deadline = deadline;
+  }
 }
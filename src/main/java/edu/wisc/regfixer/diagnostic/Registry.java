@@ -14,16 +14,16 @@ public class Registry {
     this.strs  = new HashMap<String, String>();
   }
 
-  public void setBool (String name, boolean val) {
+  public synchronized void setBool (String name, boolean val) {
     this.bools.put(name, val);
   }
 
-  public int setInt (String name, int val) {
+  public synchronized int setInt (String name, int val) {
     this.ints.put(name, val);
     return val;
   }
 
-  public void setStr (String name, String val) {
+  public synchronized void setStr (String name, String val) {
     this.strs.put(name, val);
   }
 
@@ -31,7 +31,7 @@ public class Registry {
     return this.getBool(name, false);
   }
 
-  public boolean getBool (String name, boolean fallback) {
+  public synchronized boolean getBool (String name, boolean fallback) {
     Boolean got = this.bools.get(name);
 
     if (got == null) {
@@ -45,7 +45,7 @@ public class Registry {
     return this.getInt(name, 0);
   }
 
-  public int getInt (String name, int fallback) {
+  public synchronized int getInt (String name, int fallback) {
     Integer got = this.ints.get(name);
 
     if (got == null) {
@@ -55,15 +55,30 @@ public class Registry {
     }
   }
 
-  public int bumpInt (String name) {
+  public synchronized int bumpInt (String name) {
     return this.setInt(name, this.getInt(name) + 1);
   }
 
+  public synchronized int maxInt (String name, int val) {
+    if (this.getInt(name) < val) {
+      return this.setInt(name, val);
+    } else {
+      return this.getInt(name);
+    }
+  }
+
+  /**
+   * Returns a copy of every int in the registry.
+   */
+  public synchronized Map<String, Integer> getInts () {
+    return new HashMap<String, Integer>(this.ints);
+  }
+
   public String getStr (String name) {
     return this.getStr(name, "");
   }
 
-  public String getStr (String name, String fallback) {
+  public synchronized String getStr (String name, String fallback) {
     String got = this.strs.get(name);
 
     if (got == null) {
@@ -5,27 +5,43 @@ import java.util.Map;
 
 public class Timing {
   private final Map<String, Long> timings;
-  private final Map<String, Long> pending;
+
+  // Pending timings are tracked per-thread so that templates evaluated in
+  // parallel can each time their own work without clobbering each other's
+  // start times. Completed durations are all summed into the shared map.
+  private final ThreadLocal<Map<String, Long>> pending;
 
   public Timing () {
     this.timings = new HashMap<>();
-    this.pending = new HashMap<>();
+    this.pending = ThreadLocal.withInitial(HashMap::new);
   }
 
   public void startTiming (String name) {
-    this.pending.put(name, System.nanoTime());
+    this.pending.get().put(name, System.nanoTime());
   }
 
+  /**
+   * Stops a timing started on the calling thread and adds its duration. A
+   * timing started on another thread (for example before the work was handed
+   * to a worker) or never started at all is ignored.
+   */
   public void stopTimingAndAdd (String name) {
+    Long start = this.pending.get().remove(name);
+
+    if (start != null) {
+      this.addTiming(name, System.nanoTime() - start);
+    }
+  }
+
+  public synchronized void addTiming (String name, long duration) {
     if (this.timings.containsKey(name) == false) {
       this.timings.put(name, (long)0);
     }
 
-    long duration = System.nanoTime() - this.pending.get(name);
     this.timings.put(name, this.timings.get(name) + duration);
   }
 
-  public long getTiming (String name) {
+  public synchronized long getTiming (String name) {
     if (this.timings.containsKey(name)) {
       return this.timings.get(name);
     }
@@ -33,6 +49,21 @@ public class Timing {
     return 0;
   }
 
+  /**
+   * Returns a copy of every timing. Timings started on the calling thread
+   * that haven't been stopped yet include the time elapsed so far.
+   */
+  public synchronized Map<String, Long> getTimings () {
+    Map<String, Long> timings = new HashMap<>(this.timings);
+    long now = System.nanoTime();
+
+    for (Map.Entry<String, Long> entry : this.pending.get().entrySet()) {
+      timings.merge(entry.getKey(), now - entry.getValue(), Long::sum);
+    }
+
+    return timings;
+  }
+
   public static enum Format { Sec, MilliSec, NanoSec }
 
   public long getTiming (String name, Format format) {
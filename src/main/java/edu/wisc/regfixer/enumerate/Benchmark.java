@@ -1,10 +1,14 @@
 package edu.wisc.regfixer.enumerate;
 
-import java.io.File;
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FileInputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
 import java.util.HashSet;
-import java.util.Scanner;
 import java.util.Set;
 
 public class Benchmark {
@@ -13,56 +17,101 @@ public class Benchmark {
   public static Job readFromFile (String filename) throws IOException {
     String regex = "";
     Set<Range> selectedRanges = new HashSet<Range>();
-    Set<Range> negativeRanges = new HashSet<Range>();
-    String corpus = "";
+    CharSequence corpus = "";
 
-    Scanner sc = new Scanner(new File(filename));
-    int lineNum = 1;
+    // Only the header (the regex and the ranges) is read line by line. The
+    // corpus can be very large so it is mapped into memory in one go.
+    try (HeaderReader reader = new HeaderReader(filename)) {
+      String line = reader.readLine();
+      int lineNum = 1;
 
-    if (sc.hasNextLine()) {
-      String line = sc.nextLine();
-      lineNum++;
+      if (line != null) {
+        lineNum++;
+
+        regex = line;
 
-      regex = line;
+        // Digest boundary.
+        line = reader.readLine();
+        lineNum++;
+        if (line == null || !line.equals(boundary)) {
+          String fmt = "Expected boundary on line %d of '%s'";
+          throw new IOException(String.format(fmt, lineNum, filename));
+        }
+      }
 
-      // Digest boundary.
-      if (!sc.hasNextLine()) {
+      boolean hasCorpus = false;
+      while ((line = reader.readLine()) != null) {
         lineNum++;
-        String fmt = "Expected boundary on line %d of '%s'";
-        throw new IOException(String.format(fmt, lineNum, filename));
+
+        if (line.equals(boundary)) {
+          // Break loop since boundary was encountered.
+          hasCorpus = true;
+          break;
+        } else {
+          try {
+            selectedRanges.add(new Range(line));
+          } catch (BadRangeException ex) {
+            String fmt = "Expected index pair or boundary on line %d of '%s'";
+            throw new IOException(String.format(fmt, lineNum, filename));
+          }
+        }
       }
 
-      line = sc.nextLine();
-      lineNum++;
-      if (!line.equals(boundary)) {
-        String fmt = "Expected boundary on line %d of '%s'";
-        throw new IOException(String.format(fmt, lineNum, filename));
+      if (hasCorpus) {
+        corpus = MappedText.map(Paths.get(filename), reader.getOffset());
       }
     }
 
-    while (sc.hasNextLine()) {
-      String line = sc.nextLine();
-      lineNum++;
-
-      if (line.equals(boundary)) {
-        // Break loop since boundary was encountered.
-        break;
-      } else {
-        try {
-          selectedRanges.add(new Range(line));
-        } catch (BadRangeException ex) {
-          String fmt = "Expected index pair or boundary on line %d of '%s'";
-          throw new IOException(String.format(fmt, lineNum, filename));
+    return new Job(filename, regex, corpus, selectedRanges);
+  }
+
+  /**
+   * Reads UTF-8 lines from the start of a file while keeping track of how
+   * many bytes have been consumed so the rest of the file can be mapped.
+   */
+  private static class HeaderReader implements AutoCloseable {
+    private final InputStream in;
+    private long offset;
+
+    private HeaderReader (String filename) throws IOException {
+      this.in = new BufferedInputStream(new FileInputStream(filename));
+      this.offset = 0;
+    }
+
+    private String readLine () throws IOException {
+      ByteArrayOutputStream line = new ByteArrayOutputStream();
+      int b = -1;
+
+      while ((b = this.in.read()) != -1) {
+        this.offset++;
+
+        if (b == '\n') {
+          break;
         }
+
+        line.write(b);
       }
+
+      if (b == -1 && line.size() == 0) {
+        return null;
+      }
+
+      String str = new String(line.toByteArray(), StandardCharsets.UTF_8);
+      if (str.endsWith("\r")) {
+        str = str.substring(0, str.length() - 1);
+      }
+
+      return str;
     }
 
-    while (sc.hasNextLine()) {
-      corpus += sc.nextLine() + (sc.hasNextLine() ? "\n" : "");
-      lineNum++;
+    private long getOffset () {
+      return this.offset;
     }
 
-    return new JobImplicit(filename, regex, corpus, selectedRanges);
+    @Override
+    public void close () throws IOException {
+      this.in.close();
+    }
   }
 
   public static void saveToFile (Job job, String filename) throws IOException {
@@ -0,0 +1,283 @@
+package edu.wisc.regfixer.enumerate;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import edu.wisc.regfixer.automata.Automaton;
+import edu.wisc.regfixer.automata.AutomatonCache;
+import edu.wisc.regfixer.automata.Route;
+import edu.wisc.regfixer.diagnostic.Deadline;
+import edu.wisc.regfixer.diagnostic.DeadlineExceeded;
+import edu.wisc.regfixer.parser.AnchorNode;
+import edu.wisc.regfixer.parser.ConcatNode;
+import edu.wisc.regfixer.parser.OptionalNode;
+import edu.wisc.regfixer.parser.PlusNode;
+import edu.wisc.regfixer.parser.RegexNode;
+import edu.wisc.regfixer.parser.RepetitionNode;
+import edu.wisc.regfixer.parser.StarNode;
+import edu.wisc.regfixer.parser.UnionNode;
+import edu.wisc.regfixer.synthesize.SynthesisFailure;
+import org.sat4j.specs.TimeoutException;
+
+/**
+ * Conflicts remembers why earlier templates failed synthesis so that later
+ * templates doomed for the same reason can be skipped without calling the
+ * SAT solver.
+ *
+ * A conflict is an unsat core: a few of the job's examples whose constraints
+ * contradict each other given the routes those examples took through the
+ * failed template. Those constraints only mention the unknowns on the routes
+ * and don't depend on anything else about those unknowns (other than whether
+ * they are characters or bounds), so any template whose routes for every
+ * example in the core are the same up to renaming the unknowns asserts the
+ * same contradictory constraints. Expansions that change the routes
+ * (expanding an unknown in the core, or adding a concatenation or repetition
+ * that lets an example be split between unknowns differently) relax the
+ * conflict and the template is evaluated as usual.
+ *
+ * Templates of the same shape reached by different expansions have
+ * different unknowns so routes aren't compared by UnknownId. Instead each
+ * unknown is named by its place in the tree: whether it's a character or
+ * bounds unknown and the path of child indices leading to it from the root.
+ * Two unknowns in the same place are interchangeable as far as a conflict is
+ * concerned.
+ */
+public class Conflicts {
+  // Conflicts are indexed by the place of one of their unknowns and at most
+  // this many places are indexed, the least recently recorded ones being
+  // forgotten.
+  private static final int CAPACITY = 4096;
+
+  private final Map<String, List<Conflict>> conflicts;
+
+  private static class Conflict {
+    private final Set<String> places;
+    private final Map<String, Set<PlacedRoute>> examples;
+
+    private Conflict (Set<String> places, Map<String, Set<PlacedRoute>> examples) {
+      this.places = places;
+      this.examples = examples;
+    }
+  }
+
+  /**
+   * A route whose unknowns are named by their place in the template.
+   */
+  private static class PlacedRoute {
+    private final Map<String, Set<Character>> spans;
+    private final Map<String, Set<Integer>> exits;
+
+    private PlacedRoute (Map<String, Set<Character>> spans, Map<String, Set<Integer>> exits) {
+      this.spans = spans;
+      this.exits = exits;
+    }
+
+    @Override
+    public boolean equals (Object other) {
+      if (other instanceof PlacedRoute) {
+        boolean sameSpans = this.spans.equals(((PlacedRoute) other).spans);
+        boolean sameExits = this.exits.equals(((PlacedRoute) other).exits);
+        return sameSpans && sameExits;
+      }
+
+      return false;
+    }
+
+    @Override
+    public int hashCode () {
+      return this.spans.hashCode() * 31 + this.exits.hashCode();
+    }
+  }
+
+  public Conflicts () {
+    this.conflicts = new LinkedHashMap<String, List<Conflict>>() {
+      @Override
+      protected boolean removeEldestEntry (Map.Entry<String, List<Conflict>> eldest) {
+        return this.size() > CAPACITY;
+      }
+    };
+  }
+
+  /**
+   * Records an unsat core given as the examples in the core and the routes
+   * each of those examples took through the given failed template.
+   */
+  public void add (Enumerant enumerant, Map<String, Set<Route>> core) {
+    Map<UnknownId, String> places = Conflicts.locate(enumerant.getTree());
+    Map<String, Set<PlacedRoute>> examples = new HashMap<>();
+
+    for (Map.Entry<String, Set<Route>> example : core.entrySet()) {
+      Set<PlacedRoute> routes = Conflicts.place(example.getValue(), places);
+
+      if (routes == null) {
+        return;
+      }
+
+      examples.put(example.getKey(), routes);
+    }
+
+    Set<String> used = new HashSet<>();
+    for (Set<PlacedRoute> routes : examples.values()) {
+      for (PlacedRoute route : routes) {
+        used.addAll(route.spans.keySet());
+        used.addAll(route.exits.keySet());
+      }
+    }
+
+    if (used.isEmpty()) {
+      return;
+    }
+
+    String key = used.iterator().next();
+    Conflict conflict = new Conflict(used, examples);
+
+    synchronized (this) {
+      this.conflicts.computeIfAbsent(key, k -> new ArrayList<>()).add(conflict);
+    }
+  }
+
+  /**
+   * Returns true if synthesis is guaranteed to fail for the template because
+   * of a recorded conflict. The template's automaton is built with (and kept
+   * in) the given cache, which may be null.
+   */
+  public boolean rulesOut (Enumerant enumerant, AutomatonCache automata, Deadline deadline) {
+    Map<UnknownId, String> places = Conflicts.locate(enumerant.getTree());
+    List<Conflict> candidates = this.getCandidates(new HashSet<>(places.values()));
+
+    if (candidates.isEmpty()) {
+      return false;
+    }
+
+    try {
+      Automaton automaton = enumerant.toAutomaton(automata);
+
+      for (Conflict conflict : candidates) {
+        if (reproduces(conflict, automaton, places, deadline)) {
+          return true;
+        }
+      }
+    } catch (SynthesisFailure | TimeoutException | DeadlineExceeded ex) {
+      // If the routes can't be traced the template is evaluated as usual.
+    }
+
+    return false;
+  }
+
+  private synchronized List<Conflict> getCandidates (Set<String> places) {
+    List<Conflict> candidates = new ArrayList<>();
+
+    for (String place : places) {
+      List<Conflict> indexed = this.conflicts.get(place);
+
+      if (indexed == null) {
+        continue;
+      }
+
+      for (Conflict conflict : indexed) {
+        if (places.containsAll(conflict.places)) {
+          candidates.add(conflict);
+        }
+      }
+    }
+
+    return candidates;
+  }
+
+  private static boolean reproduces (Conflict conflict, Automaton automaton, Map<UnknownId, String> places, Deadline deadline) throws TimeoutException {
+    for (Map.Entry<String, Set<PlacedRoute>> example : conflict.examples.entrySet()) {
+      Set<PlacedRoute> traced = Conflicts.place(automaton.trace(example.getKey(), deadline), places);
+
+      if (example.getValue().equals(traced) == false) {
+        return false;
+      }
+    }
+
+    return true;
+  }
+
+  /**
+   * Renames the unknowns on the routes by their places. Returns null if some
+   * unknown isn't in the template.
+   */
+  private static Set<PlacedRoute> place (Set<Route> routes, Map<UnknownId, String> places) {
+    Set<PlacedRoute> placed = new HashSet<>();
+
+    for (Route route : routes) {
+      Map<String, Set<Character>> spans = new HashMap<>();
+      for (Map.Entry<UnknownId, Set<Character>> span : route.getSpans().entrySet()) {
+        String place = places.get(span.getKey());
+        if (place == null) {
+          return null;
+        }
+
+        spans.put(place, span.getValue());
+      }
+
+      Map<String, Set<Integer>> exits = new HashMap<>();
+      for (Map.Entry<UnknownId, Set<Integer>> exit : route.getExits().entrySet()) {
+        String place = places.get(exit.getKey());
+        if (place == null) {
+          return null;
+        }
+
+        exits.put(place, exit.getValue());
+      }
+
+      placed.add(new PlacedRoute(spans, exits));
+    }
+
+    return placed;
+  }
+
+  /**
+   * Finds the place of every unknown in the tree. A place is "c" for a
+   * character unknown or "b" for a bounds unknown followed by the child
+   * indices leading to the unknown's node from the root.
+   */
+  static Map<UnknownId, String> locate (RegexNode tree) {
+    Map<UnknownId, String> places = new HashMap<>();
+    Conflicts.locate(tree, new StringBuilder(), places);
+    return places;
+  }
+
+  private static void locate (RegexNode node, StringBuilder path, Map<UnknownId, String> places) {
+    if (node instanceof UnknownChar) {
+      places.put(((UnknownChar) node).getId(), "c" + path);
+    } else if (node instanceof ConcatNode) {
+      List<RegexNode> children = ((ConcatNode) node).getChildren();
+      for (int i = 0; i < children.size(); i++) {
+        locateChild(children.get(i), i, path, places);
+      }
+    } else if (node instanceof UnionNode) {
+      locateChild(((UnionNode) node).getLeftChild(), 0, path, places);
+      locateChild(((UnionNode) node).getRightChild(), 1, path, places);
+    } else if (node instanceof RepetitionNode) {
+      if (((RepetitionNode) node).getBounds() instanceof UnknownBounds) {
+        places.put(((UnknownBounds) ((RepetitionNode) node).getBounds()).getId(), "b" + path);
+      }
+
+      locateChild(((RepetitionNode) node).getChild(), 0, path, places);
+    } else if (node instanceof OptionalNode) {
+      locateChild(((OptionalNode) node).getChild(), 0, path, places);
+    } else if (node instanceof StarNode) {
+      locateChild(((StarNode) node).getChild(), 0, path, places);
+    } else if (node instanceof PlusNode) {
+      locateChild(((PlusNode) node).getChild(), 0, path, places);
+    } else if (node instanceof AnchorNode) {
+      locateChild(((AnchorNode) node).getChild(), 0, path, places);
+    }
+  }
+
+  private static void locateChild (RegexNode child, int index, StringBuilder path, Map<UnknownId, String> places) {
+    int length = path.length();
+    path.append('.').append(index);
+    Conflicts.locate(child, path, places);
+    path.setLength(length);
+  }
+}
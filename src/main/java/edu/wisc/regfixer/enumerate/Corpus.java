@@ -1,35 +1,71 @@
 package edu.wisc.regfixer.enumerate;
 
+import java.util.BitSet;
 import java.util.Collections;
 import java.util.LinkedList;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
-import java.util.regex.Pattern;
 import java.util.Set;
 import java.util.stream.Collectors;
 import java.util.TreeSet;
 
+import edu.wisc.regfixer.automata.Automaton;
+import edu.wisc.regfixer.automata.AutomatonCache;
+import edu.wisc.regfixer.automata.CorpusScanner;
+import edu.wisc.regfixer.diagnostic.Deadline;
 import edu.wisc.regfixer.parser.RegexNode;
 import edu.wisc.regfixer.synthesize.Synthesis;
+import org.sat4j.specs.TimeoutException;
 
 public class Corpus {
-  private final String corpus;
+  private final CharSequence corpus;
   private final Set<Range> positiveRanges;
   private final Set<Range> negativeRanges;
   private final Set<String> positiveExamples;
   private final Set<String> negativeExamples;
   private final boolean hasAllNegative;
 
-  public Corpus (String corpus, Set<Range> positives, Set<Range> negatives) {
+  // Every distinct length of a positive example, used by the length test.
+  private final BitSet positiveLengths;
+
+  // The pruning tests are run against automata instead of rendered patterns.
+  // Templates share most of their subtrees with the templates they were
+  // expanded from so the automata for those subtrees are cached per test.
+  private final AutomatonCache dotAutomata;
+  private final AutomatonCache dotStarAutomata;
+  private final AutomatonCache emptySetAutomata;
+
+  // Whether the corpus can be scanned with a CorpusScanner depends on this
+  // property of the corpus which is found once rather than on every scan.
+  private final boolean hasSurrogates;
+
+  // Scanning the whole corpus is expensive and the same pattern is often
+  // scanned many times (e.g. the same solution reached from different
+  // templates) so recent scan results are remembered by pattern.
+  private static final int MATCHES_CAPACITY = 256;
+  private final Map<String, Set<Range>> matches;
+
+  public Corpus (CharSequence corpus, Set<Range> positives, Set<Range> negatives) {
     this(corpus, positives, negatives, false);
   }
 
-  public Corpus (String corpus, Set<Range> positives, Set<Range> negatives, boolean hasAllNegative) {
+  public Corpus (CharSequence corpus, Set<Range> positives, Set<Range> negatives, boolean hasAllNegative) {
     this.corpus = corpus;
     this.positiveRanges = new TreeSet<Range>(positives);
     this.negativeRanges = new TreeSet<Range>(negatives);
     this.hasAllNegative = hasAllNegative;
+    this.dotAutomata = new AutomatonCache(UnknownChar.FillType.Dot);
+    this.dotStarAutomata = new AutomatonCache(UnknownChar.FillType.DotStar);
+    this.emptySetAutomata = new AutomatonCache(UnknownChar.FillType.EmptySet);
+    this.matches = new LinkedHashMap<String, Set<Range>>(16, 0.75f, true) {
+      @Override
+      protected boolean removeEldestEntry (Map.Entry<String, Set<Range>> eldest) {
+        return this.size() > MATCHES_CAPACITY;
+      }
+    };
 
     this.positiveExamples = this.positiveRanges.stream()
       .map(r -> this.getSubstring(r))
@@ -38,9 +74,16 @@ public class Corpus {
     this.negativeExamples = this.negativeRanges.stream()
       .map(r -> this.getSubstring(r))
       .collect(Collectors.toCollection(TreeSet::new));
+
+    this.positiveLengths = new BitSet();
+    for (Range range : this.positiveRanges) {
+      this.positiveLengths.set(range.length());
+    }
+
+    this.hasSurrogates = CorpusScanner.containsSurrogates(corpus);
   }
 
-  public String getCorpus () {
+  public CharSequence getCorpus () {
     return this.corpus;
   }
 
@@ -56,8 +99,18 @@ public class Corpus {
     return total;
   }
 
+  /**
+   * Returns a view of the given range of the corpus without copying it.
+   */
+  public CharSequence getSlice (Range range) {
+    return this.corpus.subSequence(range.getLeftIndex(), range.getRightIndex());
+  }
+
+  /**
+   * Copies only the characters within the given range out of the corpus.
+   */
   public String getSubstring (Range range) {
-    return this.corpus.substring(range.getLeftIndex(), range.getRightIndex());
+    return this.getSlice(range).toString();
   }
 
   public Set<String> getSubstrings (Set<Range> ranges) {
@@ -86,17 +139,60 @@ public class Corpus {
     return this.hasAllNegative;
   }
 
+  /**
+   * Checks, without building an automaton or a pattern, that the template
+   * can match strings of every length found among the positive examples.
+   */
+  public boolean passesLengthTest (Enumerant enumerant) {
+    int longest = Math.max(0, this.positiveLengths.length() - 1);
+    BitSet missing = (BitSet) this.positiveLengths.clone();
+    missing.andNot(LengthSet.of(enumerant.getTree(), longest));
+    return missing.isEmpty();
+  }
+
+  /**
+   * The dot, dot-star and empty-set tests use the template's automaton when
+   * one can be built (see Automaton#supports) and otherwise fall back on
+   * matching the examples with the rendered pattern.
+   */
   public boolean passesDotTest (Enumerant enumerant) {
+    if (Automaton.supports(enumerant.getTree())) {
+      try {
+        Automaton automaton = new Automaton(enumerant.getTree(), this.dotAutomata);
+        return automaton.acceptsAll(this.positiveExamples);
+      } catch (TimeoutException | UnsupportedOperationException ex) {
+        // Fall back on the regex engine below.
+      }
+    }
+
     Pattern pattern = enumerant.toPattern(UnknownChar.FillType.Dot);
     return matchesStrings(pattern, this.positiveExamples);
   }
 
   public boolean passesDotStarTest (Enumerant enumerant) {
+    if (Automaton.supports(enumerant.getTree())) {
+      try {
+        Automaton automaton = new Automaton(enumerant.getTree(), this.dotStarAutomata);
+        return automaton.acceptsAll(this.positiveExamples);
+      } catch (TimeoutException | UnsupportedOperationException ex) {
+        // Fall back on the regex engine below.
+      }
+    }
+
     Pattern pattern = enumerant.toPattern(UnknownChar.FillType.DotStar);
     return matchesStrings(pattern, this.positiveExamples);
   }
 
   public boolean passesEmptySetTest (Enumerant enumerant) {
+    if (Automaton.supports(enumerant.getTree())) {
+      try {
+        Automaton automaton = new Automaton(enumerant.getTree(), this.emptySetAutomata);
+        return automaton.acceptsNone(this.negativeExamples);
+      } catch (TimeoutException | UnsupportedOperationException ex) {
+        // Fall back on the regex engine below.
+      }
+    }
+
     Pattern pattern = enumerant.toPattern(UnknownChar.FillType.EmptySet);
     return doesNotMatchStrings(pattern, this.negativeExamples);
   }
@@ -106,32 +202,44 @@ public class Corpus {
   }
 
   public boolean noUnexpectedMatches (Synthesis synthesis) {
-    Set<Range> ranges = getMatchingRanges(synthesis.toPattern(), this.corpus);
+    Set<Range> ranges = this.getMatchingRanges(synthesis.getTree(), synthesis.toPattern(), new Deadline());
     return this.positiveRanges.containsAll(ranges);
   }
 
   public boolean isPerfectMatch (Synthesis synthesis) {
-    Set<Range> ranges = getMatchingRanges(synthesis.toPattern(), this.corpus);
+    Set<Range> ranges = this.getMatchingRanges(synthesis.getTree(), synthesis.toPattern(), new Deadline());
     return ranges.equals(this.positiveRanges);
   }
 
   public Set<Range> getMatches (Synthesis synthesis) {
-    return getMatchingRanges(synthesis.toPattern(), this.corpus);
+    return this.getMatches(synthesis, new Deadline());
+  }
+
+  /**
+   * Finds the synthesized expression's matches in the corpus, checking the
+   * deadline while the corpus is scanned.
+   */
+  public Set<Range> getMatches (Synthesis synthesis, Deadline deadline) {
+    return this.getMatchingRanges(synthesis.getTree(), synthesis.toPattern(), deadline);
   }
 
   public Set<Range> getMatches (RegexNode tree) {
-    Pattern p = Pattern.compile(tree.toString());
-    return getMatchingRanges(p, this.corpus);
+    return this.getMatches(tree, new Deadline());
+  }
+
+  public Set<Range> getMatches (RegexNode tree, Deadline deadline) {
+    Pattern p = PatternCache.compile(tree.toString());
+    return this.getMatchingRanges(tree, p, deadline);
   }
 
   public Set<Range> getBadMatches (Synthesis synthesis) {
-    Set<Range> ranges = getMatchingRanges(synthesis.toPattern(), this.corpus);
+    Set<Range> ranges = this.getMatchingRanges(synthesis.getTree(), synthesis.toPattern(), new Deadline());
     ranges.removeAll(this.positiveRanges);
     return ranges;
   }
 
   public Set<Range> findUnexpectedMatches (Synthesis synthesis) {
-    Set<Range> found = getMatchingRanges(synthesis.toPattern(), this.corpus);
+    Set<Range> found = this.getMatchingRanges(synthesis.getTree(), synthesis.toPattern(), new Deadline());
     return Corpus.inferNegativeRanges(found, this.positiveRanges);
   }
 
@@ -155,7 +263,7 @@ public class Corpus {
     return true;
   }
 
-  public static Set<Range> inferNegativeRanges (Pattern pattern, String corpus, Set<Range> positives) {
+  public static Set<Range> inferNegativeRanges (Pattern pattern, CharSequence corpus, Set<Range> positives) {
     Set<Range> found = getMatchingRanges(pattern, corpus);
     return inferNegativeRanges(found, positives);
   }
@@ -213,7 +321,47 @@ public class Corpus {
     return false;
   }
 
-  private static Set<Range> getMatchingRanges (Pattern pattern, String corpus) {
+  private Set<Range> getMatchingRanges (RegexNode tree, Pattern pattern, Deadline deadline) {
+    Set<Range> ranges = null;
+
+    synchronized (this.matches) {
+      ranges = this.matches.get(pattern.pattern());
+    }
+
+    if (ranges == null) {
+      ranges = Collections.unmodifiableSet(this.scan(tree, pattern, deadline));
+
+      synchronized (this.matches) {
+        this.matches.put(pattern.pattern(), ranges);
+      }
+    }
+
+    // Callers are free to modify the returned set.
+    return new TreeSet<>(ranges);
+  }
+
+  /**
+   * Scans the corpus with a CorpusScanner when possible since the regex
+   * engine can backtrack exponentially on the nested quantifiers common in
+   * templates. Anything the scanner can't handle falls back on the regex
+   * engine. Both read the corpus through the deadline so that a slow scan
+   * (even a single backtracking match) stops once the deadline passes.
+   */
+  private Set<Range> scan (RegexNode tree, Pattern pattern, Deadline deadline) {
+    CharSequence corpus = deadline.watch(this.corpus);
+
+    if (CorpusScanner.supports(tree, this.hasSurrogates)) {
+      try {
+        return new CorpusScanner(tree).scan(corpus);
+      } catch (UnsupportedOperationException ex) {
+        // Fall back on the regex engine.
+      }
+    }
+
+    return getMatchingRanges(pattern, corpus);
+  }
+
+  private static Set<Range> getMatchingRanges (Pattern pattern, CharSequence corpus) {
     Set<Range> ranges = new TreeSet<>();
     Matcher matcher = pattern.matcher(corpus);
 
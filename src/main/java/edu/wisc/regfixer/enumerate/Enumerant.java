@@ -13,7 +13,9 @@ import java.util.stream.Collectors;
 import java.util.TreeSet;
 
 import edu.wisc.regfixer.automata.Automaton;
+import edu.wisc.regfixer.automata.AutomatonCache;
 import edu.wisc.regfixer.automata.Route;
+import edu.wisc.regfixer.automata.RouteCache;
 import edu.wisc.regfixer.diagnostic.Diagnostic;
 import edu.wisc.regfixer.parser.Bounds;
 import edu.wisc.regfixer.parser.ConcatNode;
@@ -23,6 +25,7 @@ import edu.wisc.regfixer.parser.RegexNode;
 import edu.wisc.regfixer.parser.RepetitionNode;
 import edu.wisc.regfixer.parser.StarNode;
 import edu.wisc.regfixer.parser.UnionNode;
+import edu.wisc.regfixer.synthesize.Formula;
 import edu.wisc.regfixer.synthesize.Synthesis;
 import edu.wisc.regfixer.synthesize.SynthesisFailure;
 import org.sat4j.specs.TimeoutException;
@@ -41,14 +44,19 @@ public class Enumerant implements Comparable<Enumerant> {
   private final int cost;
   private final Expansion latest;
 
+  // The counter's next ID and age just before this template was expanded
+  // from its parent, or -1 for templates that weren't.
+  private int firstId = -1;
+  private int firstAge = -1;
+
   @FunctionalInterface
   public static interface ExpansionFunction {
-    Enumerant apply(UnknownChar unknown) throws ForbiddenExpansionException;
+    Enumerant apply(UnknownChar unknown, UnknownCounter counter) throws ForbiddenExpansionException;
   }
 
   @FunctionalInterface
   public static interface MultExpansionFunction {
-    Enumerant apply(Collection<UnknownChar> unknowns) throws ForbiddenExpansionException;
+    Enumerant apply(Collection<UnknownChar> unknowns, UnknownCounter counter) throws ForbiddenExpansionException;
   }
 
   public Enumerant (RegexNode tree, UnknownId id, int cost, Expansion latest) {
@@ -82,29 +90,79 @@ public class Enumerant implements Comparable<Enumerant> {
     return this.latest;
   }
 
-  public Pattern toPattern (UnknownChar.FillType type) {
-    // Set temporary values for unknowns.
-    UnknownChar.setFill(type);
+  int getFirstId () {
+    return this.firstId;
+  }
 
-    if (type == UnknownChar.FillType.EmptySet) {
-      UnknownBounds.setFill(Bounds.exactly(0));
-    } else {
-      UnknownBounds.setFill();
-    }
+  int getFirstAge () {
+    return this.firstAge;
+  }
 
+  public Pattern toPattern (UnknownChar.FillType type) {
     // Build the pattern with temporary values replacing unknowns.
-    Pattern pattern = Pattern.compile(String.format("^%s$", this.tree));
+    String regex = Renderer.forFill(type).render(this.tree);
+    return PatternCache.compile(String.format("^%s$", regex));
+  }
+
+  public List<Enumerant> expand (UnknownCounter counter) {
+    List<Enumerant> expansions = new LinkedList<>();
+
+    // 1. Identify oldest unfrozen unknown
+    // 2. Apply all valid expansions to that unknown and push those templates to the stack
+    // 3. Freeze that unknown and push that template to the stack
+    UnknownChar oldest = this.getOldestUnknown();
 
-    // Clear the temporary values.
-    UnknownChar.clearFill();
-    UnknownBounds.clearFill();
+    if (oldest != null) {
+      // Perform expansion converting unknown char -> union, quantifier, and concat.
+      this.addExpansion(expansions, oldest, counter, this::expandWithUnion);
+      if (oldest.canInsertQuantifierNodes()) {
+        this.addExpansion(expansions, oldest, counter, this::expandWithUnknownQuantifier);
+      }
+      this.addExpansion(expansions, oldest, counter, this::expandWithConcat);
+      this.addExpansion(expansions, oldest, counter, this::expandWithFrozen);
+    }
 
-    return pattern;
+    return expansions;
   }
 
-  public List<Enumerant> expand () {
+  /**
+   * Repeats only the expansion of kind 'latest' from the expansions produced
+   * by #expand(UnknownCounter). The result prints the same as the expansion
+   * returned by that method and, given a counter created with that
+   * expansion's first ID and age, has the same unknown IDs and ages too.
+   * Returns null if that kind of expansion isn't possible for this template.
+   */
+  public Enumerant expand (Expansion latest, UnknownCounter counter) {
     List<Enumerant> expansions = new LinkedList<>();
+    UnknownChar oldest = this.getOldestUnknown();
 
+    if (oldest == null) {
+      return null;
+    }
+
+    switch (latest) {
+      case SyntheticUnion:
+        this.addExpansion(expansions, oldest, counter, this::expandWithUnion);
+        break;
+      case Repeat:
+        if (oldest.canInsertQuantifierNodes()) {
+          this.addExpansion(expansions, oldest, counter, this::expandWithUnknownQuantifier);
+        }
+        break;
+      case Concat:
+        this.addExpansion(expansions, oldest, counter, this::expandWithConcat);
+        break;
+      case Freeze:
+        this.addExpansion(expansions, oldest, counter, this::expandWithFrozen);
+        break;
+      default:
+        break;
+    }
+
+    return expansions.isEmpty() ? null : expansions.get(0);
+  }
+
+  private UnknownChar getOldestUnknown () {
     // Create a sorted list of UnknownChar's from youngest -> oldest.
     TreeSet<UnknownChar> unknowns = new TreeSet<UnknownChar>(this.ids
       .stream()
@@ -112,9 +170,6 @@ public class Enumerant implements Comparable<Enumerant> {
       .map(id -> (UnknownChar)id.getUnknown())
       .collect(Collectors.toSet()));
 
-    // 1. Identify oldest unfrozen unknown
-    // 2. Apply all valid expansions to that unknown and push those templates to the stack
-    // 3. Freeze that unknown and push that template to the stack
     UnknownChar oldest = null;
     for (UnknownChar unknown : unknowns) {
       if (oldest == null) {
@@ -124,49 +179,47 @@ public class Enumerant implements Comparable<Enumerant> {
       }
     }
 
-    if (oldest != null) {
-      // Perform expansion converting unknown char -> union, quantifier, and concat.
-      this.addExpansion(expansions, oldest, this::expandWithUnion);
-      if (oldest.canInsertQuantifierNodes()) {
-        this.addExpansion(expansions, oldest, this::expandWithUnknownQuantifier);
-      }
-      this.addExpansion(expansions, oldest, this::expandWithConcat);
-      this.addExpansion(expansions, oldest, this::expandWithFrozen);
-    }
-
-    return expansions;
+    return oldest;
   }
 
-  private void addExpansion (List<Enumerant> expansions, UnknownChar unknown, ExpansionFunction expander) {
+  private void addExpansion (List<Enumerant> expansions, UnknownChar unknown, UnknownCounter counter, ExpansionFunction expander) {
+    int firstId = counter.peekId();
+    int firstAge = counter.peekAge();
     Enumerant expansion = null;
     try {
-      expansion = expander.apply(unknown);
+      expansion = expander.apply(unknown, counter);
     } catch (ForbiddenExpansionException ex) {
       return;
     }
 
     if (expansion != null) {
+      expansion.firstId = firstId;
+      expansion.firstAge = firstAge;
       expansions.add(expansion);
     }
   }
 
-  private void addExpansion (List<Enumerant> expansions, Collection<UnknownChar> unknowns, MultExpansionFunction expander) {
+  private void addExpansion (List<Enumerant> expansions, Collection<UnknownChar> unknowns, UnknownCounter counter, MultExpansionFunction expander) {
+    int firstId = counter.peekId();
+    int firstAge = counter.peekAge();
     Enumerant expansion = null;
     try {
-      expansion = expander.apply(unknowns);
+      expansion = expander.apply(unknowns, counter);
     } catch (ForbiddenExpansionException ex) {
       return;
     }
 
     if (expansion != null) {
+      expansion.firstId = firstId;
+      expansion.firstAge = firstAge;
       expansions.add(expansion);
     }
   }
 
-  private Enumerant expandWithUnion (UnknownChar unknown) throws ForbiddenExpansionException {
+  private Enumerant expandWithUnion (UnknownChar unknown, UnknownCounter counter) throws ForbiddenExpansionException {
     // Create both unknown chars to be added to the regex tree.
-    UnknownChar un1 = new UnknownChar(unknown.getHistory(), Expansion.SyntheticUnion);
-    UnknownChar un2 = new UnknownChar(unknown.getHistory(), Expansion.SyntheticUnion);
+    UnknownChar un1 = new UnknownChar(counter, unknown.getHistory(), Expansion.SyntheticUnion);
+    UnknownChar un2 = new UnknownChar(counter, unknown.getHistory(), Expansion.SyntheticUnion);
 
     // Create union node to added in place of the given 'unknown'.
     RegexNode scion = new UnionNode(un1, un2, true);
@@ -188,16 +241,18 @@ public class Enumerant implements Comparable<Enumerant> {
     return new Enumerant(root, ids, cost, Expansion.SyntheticUnion);
   }
 
-  private Enumerant expandWithUnknownQuantifier (UnknownChar unknown) throws ForbiddenExpansionException {
+  private Enumerant expandWithUnknownQuantifier (UnknownChar unknown, UnknownCounter counter) throws ForbiddenExpansionException {
     // Create an unknown char to be added to the regex tree.
-    UnknownChar child = new UnknownChar(unknown.getHistory(), Expansion.Repeat);
-    UnknownBounds bounds = new UnknownBounds();
+    UnknownChar child = new UnknownChar(counter, unknown.getHistory(), Expansion.Repeat);
+    UnknownBounds bounds = new UnknownBounds(counter);
 
     // Create unknown node to add in place of the given 'unknown'.
     RegexNode scion = new RepetitionNode(child, bounds);
 
-    // Graft scion onto the root regex tree.
-    RegexNode root = Grafter.graftWithUnknownAncestors(this.tree, unknown.getId(), scion);
+    // Graft scion onto the root regex tree. Any quantifiers that are
+    // ancestors of the unknown are given unknown bounds too.
+    List<UnknownId> addedBounds = new LinkedList<>();
+    RegexNode root = Grafter.graftWithUnknownAncestors(this.tree, unknown.getId(), scion, counter, addedBounds);
 
     // Build set of IDs custom to the new enumerant.
     Set<UnknownId> ids = new HashSet<>();
@@ -205,7 +260,7 @@ public class Enumerant implements Comparable<Enumerant> {
     ids.remove(unknown.getId());
     ids.add(child.getId());
     ids.add(bounds.getId());
-    ids.addAll(Grafter.addedBounds);
+    ids.addAll(addedBounds);
 
     // Add cost of the expansion.
     int cost = this.getCost() + Enumerant.REPEAT_COST;
@@ -214,10 +269,10 @@ public class Enumerant implements Comparable<Enumerant> {
     return new Enumerant(root, ids, cost, Expansion.Repeat);
   }
 
-  private Enumerant expandWithConcat (UnknownChar unknown) throws ForbiddenExpansionException {
+  private Enumerant expandWithConcat (UnknownChar unknown, UnknownCounter counter) throws ForbiddenExpansionException {
     // Create both unknown chars to be added to the regex tree.
-    UnknownChar un1 = new UnknownChar(unknown.getHistory(), Expansion.Concat);
-    UnknownChar un2 = new UnknownChar(unknown.getHistory(), Expansion.Concat);
+    UnknownChar un1 = new UnknownChar(counter, unknown.getHistory(), Expansion.Concat);
+    UnknownChar un2 = new UnknownChar(counter, unknown.getHistory(), Expansion.Concat);
 
     // Create concatenation node to added in place of the given 'unknown'.
     RegexNode scion = new ConcatNode(un1, un2);
@@ -239,9 +294,9 @@ public class Enumerant implements Comparable<Enumerant> {
     return new Enumerant(root, ids, cost, Expansion.Concat);
   }
 
-  private Enumerant expandWithFrozen (UnknownChar unknown) throws ForbiddenExpansionException {
+  private Enumerant expandWithFrozen (UnknownChar unknown, UnknownCounter counter) throws ForbiddenExpansionException {
     // Create frozen unknown to added in place of the given 'unknown'.
-    UnknownChar frozen = new UnknownChar(unknown.getHistory(), Expansion.Freeze);
+    UnknownChar frozen = new UnknownChar(counter, unknown.getHistory(), Expansion.Freeze);
     frozen.freeze();
 
     // Graft scion onto the root regex tree.
@@ -265,37 +320,56 @@ public class Enumerant implements Comparable<Enumerant> {
   }
 
   public Synthesis synthesize (Set<String> p, Set<String> n, Diagnostic diag) throws SynthesisFailure {
-    Automaton automaton = null;
+    return this.synthesize(p, n, new RouteCache(this.toAutomaton(null), diag.deadline()), diag);
+  }
 
+  public Automaton toAutomaton (AutomatonCache cache) throws SynthesisFailure {
     try {
-      automaton = new Automaton(this.tree);
+      return new Automaton(this.tree, cache);
     } catch (TimeoutException ex) {
       String fmt = "timed-out building automaton for `%s`";
       throw new SynthesisFailure(String.format(fmt, this.tree));
+    } catch (UnsupportedOperationException ex) {
+      String fmt = "can't build automaton for `%s`";
+      throw new SynthesisFailure(String.format(fmt, this.tree));
     }
+  }
 
-    List<Set<Route>> positiveRuns = new LinkedList<>();
-    List<Set<Route>> negativeRuns = new LinkedList<>();
+  public Synthesis synthesize (Set<String> p, Set<String> n, RouteCache routes, Diagnostic diag) throws SynthesisFailure {
+    try (Formula formula = new Formula(this.trace(p, routes), this.trace(n, routes), diag)) {
+      diag.registry().maxInt("maximumRoutes", formula.countExamples());
+      return new Synthesis(this, formula, diag);
+    }
+  }
 
-    try {
-      for (String source : p) {
-        positiveRuns.add(automaton.trace(source));
-      }
+  public Formula toFormula (Set<String> p, RouteCache routes, Diagnostic diag) throws SynthesisFailure {
+    return new Formula(this.trace(p, routes), new LinkedList<>(), diag);
+  }
+
+  /**
+   * Extends a formula previously built for this template with constraints for
+   * the given negative examples and then solves the extended formula.
+   */
+  public Synthesis synthesize (Formula formula, Set<String> n, RouteCache routes, Diagnostic diag) throws SynthesisFailure {
+    formula.addNegatives(this.trace(n, routes));
+    diag.registry().maxInt("maximumRoutes", formula.countExamples());
 
-      for (String source : n) {
-        negativeRuns.add(automaton.trace(source));
+    return new Synthesis(this, formula, diag);
+  }
+
+  private List<Set<Route>> trace (Set<String> examples, RouteCache routes) throws SynthesisFailure {
+    List<Set<Route>> runs = new LinkedList<>();
+
+    try {
+      for (String source : examples) {
+        runs.add(routes.trace(source));
       }
     } catch (TimeoutException ex) {
       String fmt = "timed-out computing runs for `%s`";
       throw new SynthesisFailure(String.format(fmt, this.tree));
     }
 
-    int totalRuns = positiveRuns.size() + negativeRuns.size();
-    if (diag.getInt("maximumRoutes") < totalRuns) {
-      diag.registry().setInt("maximumRoutes", totalRuns);
-    }
-
-    return new Synthesis(this, positiveRuns, negativeRuns, diag);
+    return runs;
   }
 
   @Override
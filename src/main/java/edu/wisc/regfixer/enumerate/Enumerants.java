@@ -1,10 +1,14 @@
 package edu.wisc.regfixer.enumerate;
 
-import java.util.HashSet;
-import java.util.PriorityQueue;
-import java.util.Queue;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
+import edu.wisc.regfixer.automata.AutomatonCache;
+import edu.wisc.regfixer.automata.Route;
 import edu.wisc.regfixer.diagnostic.Diagnostic;
 import edu.wisc.regfixer.parser.RegexNode;
 
@@ -12,47 +16,178 @@ public class Enumerants {
   private final RegexNode original;
   private final Corpus corpus;
   private final Diagnostic diag;
-  private Set<String> history;
-  private Queue<Enumerant> queue;
+  private final UnknownCounter counter;
+  private final Scorer scorer;
+  private final List<Enumerant> roots;
+  private final Frontier frontier;
+  private final Conflicts conflicts;
+  private final boolean testsConflicts;
+  private History history;
+
+  // The node of the template most recently returned by #poll.
+  private Frontier.Node polled;
 
   public Enumerants (RegexNode original, Corpus corpus, Diagnostic diag) {
+    this(original, corpus, diag, Enumerants.defaultScorer(corpus, diag));
+  }
+
+  public Enumerants (RegexNode original, Corpus corpus, Diagnostic diag, Scorer scorer) {
+    this(original, corpus, diag, scorer, true);
+  }
+
+  private Enumerants (RegexNode original, Corpus corpus, Diagnostic diag, Scorer scorer, boolean seed) {
     this.original = original;
     this.corpus = corpus;
     this.diag = diag;
-    this.init();
+    this.counter = new UnknownCounter();
+    this.scorer = scorer;
+    this.roots = Slicer.slice(this.original, this.counter);
+    this.frontier = new Frontier(this.counter);
+    this.conflicts = new Conflicts();
+    this.testsConflicts = this.diag.getBool("test-all") || this.diag.getBool("test-unsat");
+    this.history = new History(this.diag.getBool("debug-history"));
+    this.polled = null;
+
+    if (seed) {
+      this.seed();
+    }
   }
 
-  public Enumerant poll () {
-    if (this.queue.isEmpty()) {
-      return null;
+  private static Scorer defaultScorer (Corpus corpus, Diagnostic diag) {
+    if (diag.getBool("test-all") || diag.getBool("test-bounds")) {
+      return Scorer.max(new LengthScorer(corpus), new LiteralScorer(corpus));
+    } else {
+      return enumerant -> 0;
     }
+  }
 
-    Enumerant enumerant = this.queue.remove();
+  /**
+   * Returns the next template to search or null once there are no more
+   * templates or the search's deadline has expired.
+   */
+  public Enumerant poll () {
+    return this.poll(null);
+  }
+
+  /**
+   * Like #poll() but builds the automata needed to check templates against
+   * recorded conflicts with the given cache (which may be null).
+   */
+  public Enumerant poll (AutomatonCache automata) {
+    while (this.frontier.isEmpty() == false && this.diag.deadline().isExpired() == false) {
+      // A template polled before the search was written has already been
+      // expanded. Expanding it again would add nothing new to the frontier
+      // but would use up unknown IDs the original search never used.
+      boolean expanded = this.frontier.hasPending();
+      Frontier.Node node = this.frontier.remove();
+      Enumerant enumerant = this.frontier.materialize(node);
+
+      if (expanded == false) {
+        for (Enumerant expansion : enumerant.expand(this.counter)) {
+          if (this.history.add(expansion)) {
+            int bound = this.score(expansion);
+            if (bound != Scorer.UNSOLVABLE) {
+              this.frontier.addExpansion(node, expansion, bound);
+            }
+          }
+        }
+      }
+
+      this.diag.registry().setInt("historyCollisions", this.history.getCollisions());
+
+      switch (enumerant.getLatestExpansion()) {
+        case SyntheticUnion:
+        case Freeze:
+          // In these expansion cases, the template is garunteed to not produce a
+          // better solution than its parent (but is kept in the queue for
+          // search completeness reasons) so return the next possible template.
+          continue;
+      }
+
+      // A template that still needs more expansions before it could match the
+      // examples can't be a solution itself.
+      if (node.getBound() > 0) {
+        continue;
+      }
 
-    for (Enumerant expansion : enumerant.expand()) {
-      if (false == this.history.contains(expansion.toString())) {
-        this.history.add(expansion.toString());
-        this.queue.add(expansion);
+      // Templates that would fail synthesis for the same reason as an earlier
+      // template are skipped. They have already been expanded above since
+      // their expansions may relax the conflict.
+      if (this.testsConflicts && this.conflicts.rulesOut(enumerant, automata, this.diag.deadline())) {
+        this.diag.registry().bumpInt("testUnsatRejections");
+        continue;
       }
+
+      this.polled = node;
+      return enumerant;
     }
 
-    switch (enumerant.getLatestExpansion()) {
-      case SyntheticUnion:
-      case Freeze:
-        // In these expansion cases, the template is garunteed to not produce a
-        // better solution than its parent (but is kept in the queue for
-        // search completeness reasons) so return the next possible template.
-        return this.poll();
-      default:
-        return enumerant;
+    this.polled = null;
+    return null;
+  }
+
+  private int score (Enumerant enumerant) {
+    this.diag.registry().bumpInt("testBoundsTotal");
+    int bound = this.scorer.score(enumerant);
+
+    if (bound > 0) {
+      this.diag.registry().bumpInt("testBoundsRejections");
     }
+
+    return bound;
   }
 
-  private void init () {
-    this.history = new HashSet<>();
-    this.queue = new PriorityQueue<>();
+  /**
+   * Records the examples (and their routes) whose constraints made the
+   * template's SAT formula unsatisfiable.
+   */
+  public void addConflict (Enumerant enumerant, Map<String, Set<Route>> core) {
+    this.conflicts.add(enumerant, core);
+  }
+
+  /**
+   * Writes the state of the search: the templates waiting to be searched and
+   * the history of templates seen so far. If 'includePolled' is true, the
+   * template most recently returned by #poll is written as if it had not been
+   * polled yet. Recorded conflicts aren't written.
+   */
+  public void write (DataOutputStream out, boolean includePolled) throws IOException {
+    // The Slicer's templates are rebuilt when the search is read back so only
+    // their fingerprints are written to check they haven't changed.
+    out.writeInt(this.roots.size());
+    for (Enumerant root : this.roots) {
+      out.writeLong(Fingerprint.of(root.getTree()));
+    }
+
+    this.history.write(out);
+    this.frontier.write(out, this.roots, includePolled ? this.polled : null);
+  }
 
-    for (Enumerant expansion : Slicer.slice(this.original)) {
+  /**
+   * Reads a search written by #write for the same regular expression and
+   * corpus.
+   */
+  public static Enumerants read (DataInputStream in, RegexNode original, Corpus corpus, Diagnostic diag) throws IOException {
+    Enumerants enumerants = new Enumerants(original, corpus, diag, Enumerants.defaultScorer(corpus, diag), false);
+
+    int roots = in.readInt();
+    if (roots != enumerants.roots.size()) {
+      throw new IOException("saved search is for a different regular expression");
+    }
+
+    for (Enumerant root : enumerants.roots) {
+      if (in.readLong() != Fingerprint.of(root.getTree())) {
+        throw new IOException("saved search is for a different regular expression");
+      }
+    }
+
+    enumerants.history = History.read(in);
+    enumerants.frontier.read(in, enumerants.roots);
+    return enumerants;
+  }
+
+  private void seed () {
+    for (Enumerant expansion : this.roots) {
       this.diag.registry().bumpInt("totalDotStarTests");
       
       this.diag.timing().startTiming("timeDotStarTest");
@@ -60,8 +195,12 @@ public class Enumerants {
       this.diag.timing().stopTimingAndAdd("timeDotStarTest");
 
       if (passesDotStarTest) {
-        this.history.add(expansion.toString());
-        this.queue.add(expansion);
+        this.history.add(expansion);
+
+        int bound = this.score(expansion);
+        if (bound != Scorer.UNSOLVABLE) {
+          this.frontier.addRoot(expansion, bound);
+        }
       } else {
         this.diag.registry().bumpInt("totalDotStarTestsRejects");
       }
@@ -0,0 +1,108 @@
+package edu.wisc.regfixer.enumerate;
+
+import edu.wisc.regfixer.parser.AnchorNode;
+import edu.wisc.regfixer.parser.ConcatNode;
+import edu.wisc.regfixer.parser.OptionalNode;
+import edu.wisc.regfixer.parser.PlusNode;
+import edu.wisc.regfixer.parser.RegexNode;
+import edu.wisc.regfixer.parser.RepetitionNode;
+import edu.wisc.regfixer.parser.StarNode;
+import edu.wisc.regfixer.parser.UnionNode;
+
+/**
+ * Computes a 64-bit fingerprint of a syntax tree. The fingerprint is a hash
+ * of exactly the characters RegexNode#toString() would produce, fed to the
+ * hash as the tree is walked, so two trees have the same fingerprint whenever
+ * they print the same (and almost never otherwise) without the string ever
+ * being built.
+ */
+public class Fingerprint {
+  private static final long OFFSET_BASIS = 0xcbf29ce484222325L;
+  private static final long PRIME = 0x100000001b3L;
+
+  public static long of (RegexNode node) {
+    return finish(hashNode(OFFSET_BASIS, node));
+  }
+
+  private static long hashNode (long h, RegexNode node) {
+         if (node instanceof ConcatNode)     { return hashConcat(h, (ConcatNode) node); }
+    else if (node instanceof UnionNode)      { return hashUnion(h, (UnionNode) node); }
+    else if (node instanceof RepetitionNode) { return hashRepetition(h, (RepetitionNode) node); }
+    else if (node instanceof OptionalNode)   { return hashQuantifier(h, ((OptionalNode) node).getChild(), '?'); }
+    else if (node instanceof StarNode)       { return hashQuantifier(h, ((StarNode) node).getChild(), '*'); }
+    else if (node instanceof PlusNode)       { return hashQuantifier(h, ((PlusNode) node).getChild(), '+'); }
+    else if (node instanceof AnchorNode)     { return hashAnchor(h, (AnchorNode) node); }
+    else                                     { return hashString(h, node.toString()); }
+  }
+
+  private static long hashConcat (long h, ConcatNode node) {
+    for (RegexNode child : node.getChildren()) {
+      if (child instanceof ConcatNode || child instanceof UnionNode) {
+        h = hashChar(h, '(');
+        h = hashNode(h, child);
+        h = hashChar(h, ')');
+      } else {
+        h = hashNode(h, child);
+      }
+    }
+
+    return h;
+  }
+
+  private static long hashUnion (long h, UnionNode node) {
+    h = hashNode(h, node.getLeftChild());
+    h = hashChar(h, '|');
+    return hashNode(h, node.getRightChild());
+  }
+
+  private static long hashRepetition (long h, RepetitionNode node) {
+    h = hashChar(h, '(');
+    h = hashNode(h, node.getChild());
+    h = hashChar(h, ')');
+    return hashString(h, node.getBounds().toString());
+  }
+
+  private static long hashQuantifier (long h, RegexNode child, char operator) {
+    h = hashChar(h, '(');
+    h = hashNode(h, child);
+    h = hashChar(h, ')');
+    return hashChar(h, operator);
+  }
+
+  private static long hashAnchor (long h, AnchorNode node) {
+    if (node.hasStart()) {
+      h = hashChar(h, '^');
+    }
+
+    h = hashNode(h, node.getChild());
+
+    if (node.hasEnd()) {
+      h = hashChar(h, '$');
+    }
+
+    return h;
+  }
+
+  private static long hashString (long h, String str) {
+    for (int i = 0; i < str.length(); i++) {
+      h = hashChar(h, str.charAt(i));
+    }
+
+    return h;
+  }
+
+  private static long hashChar (long h, char ch) {
+    return (h ^ ch) * PRIME;
+  }
+
+  private static long finish (long h) {
+    // FNV leaves the high bits poorly mixed so finish with a 64-bit mixer
+    // before the fingerprint is used to pick a slot in a hash table.
+    h ^= (h >>> 33);
+    h *= 0xff51afd7ed558ccdL;
+    h ^= (h >>> 33);
+    h *= 0xc4ceb9fe1a85ec53L;
+    h ^= (h >>> 33);
+    return h;
+  }
+}
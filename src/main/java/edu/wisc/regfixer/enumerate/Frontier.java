@@ -0,0 +1,265 @@
+package edu.wisc.regfixer.enumerate;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+/**
+ * Frontier is the priority queue of templates waiting to be searched. Holding
+ * every queued template's tree and unknowns takes kilobytes per template and
+ * on hard benchmarks the frontier grows to millions of templates, so instead
+ * each queued template is stored as the template it was expanded from plus
+ * the kind of expansion that produced it. Templates built by the Slicer are
+ * the only ones stored whole.
+ *
+ * A template is rebuilt when it's polled by repeating its expansion on its
+ * parent (which is rebuilt the same way if needed). Recently polled templates
+ * are kept so most templates are rebuilt from a parent with a single
+ * expansion. Each node remembers the unknown ID and age its expansion began
+ * with and the expansion is repeated with a counter starting there, so a
+ * rebuilt template has the same unknown IDs and ages as the original and
+ * hits the same cached automata.
+ *
+ * Nodes are ordered by their template's cost plus a lower bound on the
+ * cost still needed to reach a solution (see Scorer). Without a bound the
+ * queue orders nodes exactly as a queue of the templates themselves would.
+ */
+class Frontier {
+  private static final int MATERIALIZED_CAPACITY = 1024;
+
+  private final UnknownCounter counter;
+  private final PriorityQueue<Node> queue;
+  private final Map<Node, Enumerant> materialized;
+
+  // A node read by #read that was removed from the queue before it was
+  // written and is removed again before any queued node.
+  private Node pending;
+
+  static class Node {
+    private final Node parent;
+    private final Expansion latest;
+    private final int cost;
+    private final int bound;
+    private final Enumerant root;
+    private final int firstId;
+    private final int firstAge;
+
+    private Node (Node parent, Expansion latest, int cost, int bound, Enumerant root, int firstId, int firstAge) {
+      this.parent = parent;
+      this.latest = latest;
+      this.cost = cost;
+      this.bound = bound;
+      this.root = root;
+      this.firstId = firstId;
+      this.firstAge = firstAge;
+    }
+
+    int getCost () {
+      return this.cost;
+    }
+
+    int getBound () {
+      return this.bound;
+    }
+
+    int getPriority () {
+      return this.cost + this.bound;
+    }
+  }
+
+  Frontier (UnknownCounter counter) {
+    this.counter = counter;
+    this.queue = new PriorityQueue<>(Comparator.comparingInt(Node::getPriority));
+    this.materialized = new LinkedHashMap<Node, Enumerant>(16, 0.75f, true) {
+      @Override
+      protected boolean removeEldestEntry (Map.Entry<Node, Enumerant> eldest) {
+        return this.size() > MATERIALIZED_CAPACITY;
+      }
+    };
+    this.pending = null;
+  }
+
+  boolean isEmpty () {
+    return this.pending == null && this.queue.isEmpty();
+  }
+
+  /**
+   * Returns true if the next node removed is a pending node read by #read,
+   * whose expansions were queued before it was written.
+   */
+  boolean hasPending () {
+    return this.pending != null;
+  }
+
+  int size () {
+    return this.queue.size() + ((this.pending == null) ? 0 : 1);
+  }
+
+  void addRoot (Enumerant root, int bound) {
+    this.queue.add(new Node(null, root.getLatestExpansion(), root.getCost(), bound, root, -1, -1));
+  }
+
+  void addExpansion (Node parent, Enumerant expansion, int bound) {
+    this.queue.add(new Node(parent, expansion.getLatestExpansion(), expansion.getCost(), bound, null, expansion.getFirstId(), expansion.getFirstAge()));
+  }
+
+  Node remove () {
+    if (this.pending != null) {
+      Node node = this.pending;
+      this.pending = null;
+      return node;
+    }
+
+    return this.queue.remove();
+  }
+
+  Enumerant materialize (Node node) {
+    if (node.root != null) {
+      return node.root;
+    }
+
+    Enumerant enumerant = this.materialized.get(node);
+
+    if (enumerant == null) {
+      Enumerant parent = this.materialize(node.parent);
+      enumerant = parent.expand(node.latest, new UnknownCounter(node.firstId, node.firstAge));
+
+      if (enumerant == null) {
+        String fmt = "cannot repeat %s expansion of '%s'";
+        throw new IllegalStateException(String.format(fmt, node.latest, parent));
+      }
+
+      this.materialized.put(node, enumerant);
+    }
+
+    return enumerant;
+  }
+
+  /**
+   * Writes every queued node (plus the given pending node, which was removed
+   * from the queue but not yet searched, if it isn't null) and every node
+   * those nodes were expanded from. The pending node is the first node
+   * removed once the nodes are read back. Templates built by the Slicer are
+   * written as their position in the given list of roots. The counter's
+   * next ID and age are written too so that templates expanded after the
+   * nodes are read back don't reuse their unknown IDs.
+   */
+  void write (DataOutputStream out, List<Enumerant> roots, Node pending) throws IOException {
+    Map<Enumerant, Integer> rootIndices = new IdentityHashMap<>();
+    for (int i = 0; i < roots.size(); i++) {
+      rootIndices.put(roots.get(i), i);
+    }
+
+    // A node read back by #read that hasn't been removed yet is still
+    // pending and is written the same way.
+    if (this.pending != null) {
+      pending = this.pending;
+    }
+
+    List<Node> queued = new ArrayList<>(this.queue);
+    if (pending != null) {
+      queued.add(pending);
+    }
+
+    // Number the nodes so that every node is written after its parent.
+    Map<Node, Integer> indices = new HashMap<>();
+    List<Node> ordered = new ArrayList<>();
+    for (Node node : queued) {
+      Deque<Node> chain = new ArrayDeque<>();
+      for (Node e = node; e != null && indices.containsKey(e) == false; e = e.parent) {
+        chain.push(e);
+      }
+
+      while (chain.isEmpty() == false) {
+        Node e = chain.pop();
+        indices.put(e, ordered.size());
+        ordered.add(e);
+      }
+    }
+
+    out.writeInt(this.counter.peekId());
+    out.writeInt(this.counter.peekAge());
+
+    out.writeInt(ordered.size());
+    for (Node node : ordered) {
+      out.writeInt((node.parent == null) ? -1 : indices.get(node.parent));
+      out.writeInt((node.root == null) ? -1 : rootIndices.get(node.root));
+      out.writeByte(node.latest.ordinal());
+      out.writeInt(node.cost);
+      out.writeInt(node.bound);
+      out.writeInt(node.firstId);
+      out.writeInt(node.firstAge);
+    }
+
+    out.writeInt(this.queue.size());
+    for (Node node : this.queue) {
+      out.writeInt(indices.get(node));
+    }
+
+    out.writeInt((pending == null) ? -1 : indices.get(pending));
+  }
+
+  /**
+   * Adds the nodes written by #write to the queue. The roots have to be
+   * the same templates (in the same order) as the roots given to #write.
+   */
+  void read (DataInputStream in, List<Enumerant> roots) throws IOException {
+    Expansion[] kinds = Expansion.values();
+    int nextId = in.readInt();
+    int nextAge = in.readInt();
+    this.counter.skipTo(nextId, nextAge);
+
+    Node[] nodes = new Node[in.readInt()];
+
+    for (int i = 0; i < nodes.length; i++) {
+      int parent = in.readInt();
+      int root = in.readInt();
+      int latest = in.readByte();
+      int cost = in.readInt();
+      int bound = in.readInt();
+      int firstId = in.readInt();
+      int firstAge = in.readInt();
+
+      if (parent >= i || root >= roots.size() || latest < 0 || latest >= kinds.length || (parent < 0) == (root < 0)) {
+        throw new IOException("malformed search frontier");
+      }
+
+      nodes[i] = new Node(
+        (parent < 0) ? null : nodes[parent],
+        kinds[latest],
+        cost,
+        bound,
+        (root < 0) ? null : roots.get(root),
+        firstId,
+        firstAge);
+    }
+
+    int queued = in.readInt();
+    for (int i = 0; i < queued; i++) {
+      int index = in.readInt();
+
+      if (index < 0 || index >= nodes.length) {
+        throw new IOException("malformed search frontier");
+      }
+
+      this.queue.add(nodes[index]);
+    }
+
+    int pending = in.readInt();
+    if (pending >= nodes.length) {
+      throw new IOException("malformed search frontier");
+    }
+
+    this.pending = (pending < 0) ? null : nodes[pending];
+  }
+}
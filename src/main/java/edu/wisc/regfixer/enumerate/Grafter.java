@@ -1,5 +1,6 @@
 package edu.wisc.regfixer.enumerate;
 
+import java.util.Collection;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.stream.Collectors;
@@ -20,35 +21,52 @@ import edu.wisc.regfixer.parser.UnionNode;
  * with.
  */
 public class Grafter {
-  private static boolean checkForbiddenExpansions = true;
-  private static boolean replaceAncestorQuantifiers = false;
-  public static List<UnknownId> addedBounds = new LinkedList<>();
+  private final boolean checkForbiddenExpansions;
+  private final UnknownCounter counter;
+  private final List<UnknownId> addedBounds;
+
+  /**
+   * If a counter is given, the grafter will replace the bounds of each
+   * quantifier that is an ancestor of the grafted unknown with new unknown
+   * bounds (allocated from that counter) and will record the IDs of those
+   * unknown bounds.
+   */
+  private Grafter (boolean checkForbiddenExpansions, UnknownCounter counter) {
+    this.checkForbiddenExpansions = checkForbiddenExpansions;
+    this.counter = counter;
+    this.addedBounds = new LinkedList<>();
+  }
 
   public static RegexNode silentGraft (RegexNode original, UnknownId id, Object scion) {
     try {
-      Grafter.checkForbiddenExpansions = false;
-      RegexNode graftee = graft(original, id, scion);
-      Grafter.checkForbiddenExpansions = true;
-      return graftee;
+      return new Grafter(false, null).graftNode(original, id, scion);
     } catch (ForbiddenExpansionException ex) {
-      Grafter.checkForbiddenExpansions = true;
       return null;
     }
   }
 
-  public static RegexNode graftWithUnknownAncestors (RegexNode original, UnknownId id, Object scion) throws ForbiddenExpansionException {
-    Grafter.replaceAncestorQuantifiers = true;
-    Grafter.addedBounds = new LinkedList<>();
-    RegexNode graftee = graft(original, id, scion);
-    Grafter.replaceAncestorQuantifiers = false;
+  public static RegexNode graftWithUnknownAncestors (RegexNode original, UnknownId id, Object scion, UnknownCounter counter, Collection<UnknownId> addedBounds) throws ForbiddenExpansionException {
+    Grafter grafter = new Grafter(true, counter);
+    RegexNode graftee = grafter.graftNode(original, id, scion);
+    addedBounds.addAll(grafter.addedBounds);
     return graftee;
   }
 
   public static RegexNode graft (RegexNode original, UnknownId id, Object scion) throws ForbiddenExpansionException {
-    return graftNode(original, id, scion);
+    return new Grafter(true, null).graftNode(original, id, scion);
+  }
+
+  private boolean replaceAncestorQuantifiers () {
+    return (this.counter != null);
   }
 
-  private static RegexNode graftNode (RegexNode node, UnknownId id, Object scion) throws ForbiddenExpansionException {
+  private RegexNode graftNode (RegexNode node, UnknownId id, Object scion) throws ForbiddenExpansionException {
+    // Subtrees that can't contain the unknown are shared as-is without being
+    // searched so grafting only walks (and copies) the path to the unknown.
+    if ((node.unknownMask() & id.toMask()) == 0) {
+      return node;
+    }
+
          if (node instanceof UnknownChar)    { return graftUnknown((UnknownChar) node, id, scion); }
     else if (node instanceof ConcatNode)     { return graftConcat((ConcatNode) node, id, scion); }
     else if (node instanceof UnionNode)      { return graftUnion((UnionNode) node, id, scion); }
@@ -64,7 +82,7 @@ public class Grafter {
     }
   }
 
-  private static RegexNode graftUnknown (UnknownChar node, UnknownId id, Object scion) {
+  private RegexNode graftUnknown (UnknownChar node, UnknownId id, Object scion) {
     if (node.getId().equals(id)) {
       if (scion instanceof RegexNode) {
         return (RegexNode) scion;
@@ -77,7 +95,7 @@ public class Grafter {
     }
   }
 
-  private static RegexNode graftConcat (ConcatNode node, UnknownId id, Object scion) throws ForbiddenExpansionException {
+  private RegexNode graftConcat (ConcatNode node, UnknownId id, Object scion) throws ForbiddenExpansionException {
     List<RegexNode> children = node.getChildren();
     List<RegexNode> newChildren = new LinkedList<>(children);
     boolean childrenNoChange = true;
@@ -90,7 +108,7 @@ public class Grafter {
         newChildren.set(i, graftee);
 
         if (scion instanceof ConcatNode && i > 0) {
-          if (checkForbiddenExpansions) {
+          if (this.checkForbiddenExpansions) {
             throw new ForbiddenExpansionException("non-first child of concat cannot be expanded with concat");
           }
         }
@@ -104,11 +122,11 @@ public class Grafter {
     }
   }
 
-  private static RegexNode graftUnion (UnionNode node, UnknownId id, Object scion) throws ForbiddenExpansionException {
+  private RegexNode graftUnion (UnionNode node, UnknownId id, Object scion) throws ForbiddenExpansionException {
     if (scion instanceof UnionNode) {
       if (node.getRightChild() instanceof UnknownChar) {
         if (((UnknownChar)node.getRightChild()).getId() == id) {
-          if (checkForbiddenExpansions) {
+          if (this.checkForbiddenExpansions) {
             throw new ForbiddenExpansionException("right side of union cannot be expanded with union");
           }
         }
@@ -126,7 +144,7 @@ public class Grafter {
       UnionNode union = new UnionNode(leftGraftee, rightGraftee, node.isSynthetic());
 
       if (leftGraftee.descendants() <= rightGraftee.descendants() && node.isSynthetic()) {
-        if (checkForbiddenExpansions) {
+        if (this.checkForbiddenExpansions) {
           throw new ForbiddenExpansionException("right side of union cannot have >= nodes than left side");
         }
       }
@@ -135,7 +153,7 @@ public class Grafter {
     }
   }
 
-  private static RegexNode graftRepetition (RepetitionNode node, UnknownId id, Object scion) throws ForbiddenExpansionException {
+  private RegexNode graftRepetition (RepetitionNode node, UnknownId id, Object scion) throws ForbiddenExpansionException {
     if (node.getBounds() instanceof UnknownBounds && scion instanceof Bounds) {
       UnknownBounds unknown = (UnknownBounds)node.getBounds();
       if (unknown.getId().equals(id)) {
@@ -147,58 +165,58 @@ public class Grafter {
 
     if (graftee == node.getChild()) {
       return node;
-    } else if (replaceAncestorQuantifiers) {
-      UnknownBounds bounds = new UnknownBounds(node.getBounds());
-      addedBounds.add(bounds.getId());
+    } else if (this.replaceAncestorQuantifiers()) {
+      UnknownBounds bounds = new UnknownBounds(this.counter, node.getBounds());
+      this.addedBounds.add(bounds.getId());
       return new RepetitionNode(graftee, bounds);
     } else {
       return new RepetitionNode(graftee, node.getBounds());
     }
   }
 
-  private static RegexNode graftOptional (OptionalNode node, UnknownId id, Object scion) throws ForbiddenExpansionException {
+  private RegexNode graftOptional (OptionalNode node, UnknownId id, Object scion) throws ForbiddenExpansionException {
     RegexNode graftee = graftNode(node.getChild(), id, scion);
 
     if (graftee == node.getChild()) {
       return node;
-    } else if (replaceAncestorQuantifiers) {
-      UnknownBounds bounds = new UnknownBounds(Bounds.between(0, 1));
-      addedBounds.add(bounds.getId());
+    } else if (this.replaceAncestorQuantifiers()) {
+      UnknownBounds bounds = new UnknownBounds(this.counter, Bounds.between(0, 1));
+      this.addedBounds.add(bounds.getId());
       return new RepetitionNode(graftee, bounds);
     } else {
       return new OptionalNode(graftee);
     }
   }
 
-  private static RegexNode graftStar (StarNode node, UnknownId id, Object scion) throws ForbiddenExpansionException {
+  private RegexNode graftStar (StarNode node, UnknownId id, Object scion) throws ForbiddenExpansionException {
     RegexNode graftee = graftNode(node.getChild(), id, scion);
 
     if (graftee == node.getChild()) {
       return node;
-    } else if (replaceAncestorQuantifiers) {
-      UnknownBounds bounds = new UnknownBounds(Bounds.atLeast(0));
-      addedBounds.add(bounds.getId());
+    } else if (this.replaceAncestorQuantifiers()) {
+      UnknownBounds bounds = new UnknownBounds(this.counter, Bounds.atLeast(0));
+      this.addedBounds.add(bounds.getId());
       return new RepetitionNode(graftee, bounds);
     } else {
       return new StarNode(graftee);
     }
   }
 
-  private static RegexNode graftPlus (PlusNode node, UnknownId id, Object scion) throws ForbiddenExpansionException {
+  private RegexNode graftPlus (PlusNode node, UnknownId id, Object scion) throws ForbiddenExpansionException {
     RegexNode graftee = graftNode(node.getChild(), id, scion);
 
     if (graftee == node.getChild()) {
       return node;
-    } else if (replaceAncestorQuantifiers) {
-      UnknownBounds bounds = new UnknownBounds(Bounds.atLeast(1));
-      addedBounds.add(bounds.getId());
+    } else if (this.replaceAncestorQuantifiers()) {
+      UnknownBounds bounds = new UnknownBounds(this.counter, Bounds.atLeast(1));
+      this.addedBounds.add(bounds.getId());
       return new RepetitionNode(graftee, bounds);
     } else {
       return new PlusNode(graftee);
     }
   }
 
-  private static RegexNode graftAtom (RegexNode node) {
+  private RegexNode graftAtom (RegexNode node) {
     return node;
   }
 }
@@ -0,0 +1,165 @@
+package edu.wisc.regfixer.enumerate;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * History remembers which templates have already been added to the search
+ * queue. Instead of keeping every template's string it stores a 64-bit
+ * fingerprint of each template in a flat open-addressed table, which takes a
+ * few bytes per template instead of a String and a hash set entry.
+ *
+ * Two different templates sharing a fingerprint is astronomically unlikely
+ * but would cause the second template to be skipped. When created with
+ * verification enabled the history also keeps every template's string, uses
+ * those strings to decide what has been seen and counts any fingerprint
+ * collisions it finds.
+ */
+public class History {
+  private static final int INITIAL_CAPACITY = 1 << 10;
+
+  // Fingerprints are stored in a table of longs using linear probing. A slot
+  // holding 0 is empty so a fingerprint of 0 is tracked separately.
+  private long[] slots;
+  private int size;
+  private boolean hasZero;
+
+  private Set<String> verified;
+  private int collisions;
+
+  public History () {
+    this(false);
+  }
+
+  public History (boolean verify) {
+    this.slots = new long[INITIAL_CAPACITY];
+    this.size = 0;
+    this.hasZero = false;
+    this.verified = verify ? new HashSet<>() : null;
+    this.collisions = 0;
+  }
+
+  /**
+   * Adds the template to the history and returns true if it wasn't already
+   * in the history.
+   */
+  public boolean add (Enumerant enumerant) {
+    boolean added = this.add(Fingerprint.of(enumerant.getTree()));
+
+    if (this.verified == null) {
+      return added;
+    }
+
+    boolean addedExactly = this.verified.add(enumerant.toString());
+    if (addedExactly && !added) {
+      this.collisions++;
+    }
+
+    return addedExactly;
+  }
+
+  public int size () {
+    return (this.verified == null) ? this.size + (this.hasZero ? 1 : 0) : this.verified.size();
+  }
+
+  public int getCollisions () {
+    return this.collisions;
+  }
+
+  private boolean add (long fingerprint) {
+    if (fingerprint == 0) {
+      boolean added = !this.hasZero;
+      this.hasZero = true;
+      return added;
+    }
+
+    // Keep the table at most half full so probe sequences stay short.
+    if ((this.size + 1) * 2 > this.slots.length) {
+      this.grow();
+    }
+
+    if (insert(this.slots, fingerprint)) {
+      this.size++;
+      return true;
+    } else {
+      return false;
+    }
+  }
+
+  private void grow () {
+    long[] larger = new long[this.slots.length * 2];
+
+    for (long fingerprint : this.slots) {
+      if (fingerprint != 0) {
+        insert(larger, fingerprint);
+      }
+    }
+
+    this.slots = larger;
+  }
+
+  public void write (DataOutputStream out) throws IOException {
+    out.writeInt(this.slots.length);
+    for (long fingerprint : this.slots) {
+      out.writeLong(fingerprint);
+    }
+
+    out.writeInt(this.size);
+    out.writeBoolean(this.hasZero);
+    out.writeInt(this.collisions);
+
+    out.writeInt((this.verified == null) ? -1 : this.verified.size());
+    if (this.verified != null) {
+      for (String template : this.verified) {
+        out.writeUTF(template);
+      }
+    }
+  }
+
+  public static History read (DataInputStream in) throws IOException {
+    int capacity = in.readInt();
+
+    if (capacity < INITIAL_CAPACITY || Integer.bitCount(capacity) != 1) {
+      throw new IOException("malformed history");
+    }
+
+    History history = new History();
+    history.slots = new long[capacity];
+    for (int i = 0; i < capacity; i++) {
+      history.slots[i] = in.readLong();
+    }
+
+    history.size = in.readInt();
+    history.hasZero = in.readBoolean();
+    history.collisions = in.readInt();
+
+    int verified = in.readInt();
+    if (verified >= 0) {
+      history.verified = new HashSet<>();
+      for (int i = 0; i < verified; i++) {
+        history.verified.add(in.readUTF());
+      }
+    }
+
+    return history;
+  }
+
+  private static boolean insert (long[] slots, long fingerprint) {
+    int mask = slots.length - 1;
+    int i = (int) fingerprint & mask;
+
+    while (slots[i] != 0) {
+      if (slots[i] == fingerprint) {
+        return false;
+      }
+
+      i = (i + 1) & mask;
+    }
+
+    slots[i] = fingerprint;
+    return true;
+  }
+}
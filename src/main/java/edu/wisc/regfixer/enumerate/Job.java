@@ -1,17 +1,22 @@
 package edu.wisc.regfixer.enumerate;
 
+import java.security.MessageDigest;
 import java.util.regex.Pattern;
 import java.util.Set;
 
 import edu.wisc.regfixer.parser.RegexNode;
+import org.apache.commons.codec.binary.Hex;
 import org.apache.commons.codec.digest.DigestUtils;
 
 public class Job {
+  // The corpus is hashed this many characters at a time.
+  private static final int DIGEST_CHUNK = 1 << 16;
+
   private final String name;
   private final RegexNode tree;
   private final Corpus corpus;
 
-  public Job (String name, String regex, String corpus, Set<Range> positives) {
+  public Job (String name, String regex, CharSequence corpus, Set<Range> positives) {
     this.name = name;
 
     try {
@@ -21,12 +26,12 @@ public class Job {
       throw new RuntimeException("malformed regular expression");
     }
 
-    Pattern pattern = Pattern.compile(this.tree.toString());
+    Pattern pattern = PatternCache.compile(this.tree.toString());
     Set<Range> negatives = Corpus.inferNegativeRanges(pattern, corpus, positives);
     this.corpus = new Corpus(corpus, positives, negatives);
   }
 
-  public Job (String name, String regex, String corpus, Set<Range> positives, Set<Range> negatives) {
+  public Job (String name, String regex, CharSequence corpus, Set<Range> positives, Set<Range> negatives) {
     this.name = name;
 
     try {
@@ -58,6 +63,46 @@ public class Job {
   }
 
   public String toString () {
+    StringBuilder builder = new StringBuilder(this.getHeader());
+
+    // Print full corpus.
+    builder.append(this.getCorpus().getCorpus());
+
+    return builder.toString();
+  }
+
+  /**
+   * Hashes the same text #toString() produces (the job in the benchmark file
+   * format) without building that text, since the corpus may be very large.
+   * Jobs with explicit negative examples also hash those examples' ranges.
+   */
+  public String toDigest () {
+    MessageDigest digest = DigestUtils.getSha1Digest();
+    DigestUtils.updateDigest(digest, this.getHeader());
+
+    CharSequence corpus = this.getCorpus().getCorpus();
+    for (int start = 0; start < corpus.length(); ) {
+      int end = Math.min(corpus.length(), start + DIGEST_CHUNK);
+
+      // Don't split a surrogate pair between two chunks.
+      if (end < corpus.length() && Character.isHighSurrogate(corpus.charAt(end - 1))) {
+        end--;
+      }
+
+      DigestUtils.updateDigest(digest, corpus.subSequence(start, end).toString());
+      start = end;
+    }
+
+    if (this.getCorpus().hasAllNegativeExamples()) {
+      for (Range range : this.getCorpus().getNegativeRanges()) {
+        DigestUtils.updateDigest(digest, String.format("\n%s", range));
+      }
+    }
+
+    return Hex.encodeHexString(digest.digest());
+  }
+
+  private String getHeader () {
     StringBuilder builder = new StringBuilder();
 
     // Print regex string.
@@ -69,14 +114,8 @@ public class Job {
       builder.append(String.format("%s\n", range));
     }
 
-    // Print full corpus.
     builder.append(String.format("%s\n", Benchmark.boundary));
-    builder.append(this.getCorpus());
 
     return builder.toString();
   }
-
-  public String toDigest () {
-    return DigestUtils.sha1Hex(this.toString());
-  }
 }
@@ -0,0 +1,143 @@
+package edu.wisc.regfixer.enumerate;
+
+import edu.wisc.regfixer.parser.AnchorNode;
+import edu.wisc.regfixer.parser.Bounds;
+import edu.wisc.regfixer.parser.CharClass;
+import edu.wisc.regfixer.parser.ConcatNode;
+import edu.wisc.regfixer.parser.OptionalNode;
+import edu.wisc.regfixer.parser.PlusNode;
+import edu.wisc.regfixer.parser.RegexNode;
+import edu.wisc.regfixer.parser.RepetitionNode;
+import edu.wisc.regfixer.parser.StarNode;
+import edu.wisc.regfixer.parser.UnionNode;
+
+/**
+ * LengthScorer compares the shortest and longest strings a template could
+ * match (for any solution of its unknowns) against the lengths of the
+ * positive examples. If some positive example is too short or too long for
+ * the template then at least one more concatenation or repetition has to be
+ * added before the template could match every positive example.
+ */
+public class LengthScorer implements Scorer {
+  private static final int UNBOUNDED = Integer.MAX_VALUE;
+
+  private final int shortest;
+  private final int longest;
+
+  public LengthScorer (Corpus corpus) {
+    int shortest = UNBOUNDED;
+    int longest = 0;
+
+    for (String example : corpus.getPositiveExamples()) {
+      shortest = Math.min(shortest, example.length());
+      longest = Math.max(longest, example.length());
+    }
+
+    this.shortest = shortest;
+    this.longest = longest;
+  }
+
+  public int score (Enumerant enumerant) {
+    RegexNode tree = enumerant.getTree();
+
+    if (minLength(tree) <= this.shortest && maxLength(tree) >= this.longest) {
+      return 0;
+    }
+
+    // Only expansions of unknown chars can change which lengths the template
+    // matches so without any the template can never match the examples.
+    boolean expandable = enumerant.getIds()
+      .stream()
+      .anyMatch(id -> id.getUnknown() instanceof UnknownChar);
+
+    if (expandable) {
+      return Math.min(Enumerant.CONCAT_COST, Enumerant.REPEAT_COST);
+    } else {
+      return Scorer.UNSOLVABLE;
+    }
+  }
+
+  public static int minLength (RegexNode node) {
+         if (node instanceof ConcatNode)     { return minLength((ConcatNode) node); }
+    else if (node instanceof UnionNode)      { return Math.min(minLength(((UnionNode) node).getLeftChild()), minLength(((UnionNode) node).getRightChild())); }
+    else if (node instanceof RepetitionNode) { return minLength((RepetitionNode) node); }
+    else if (node instanceof OptionalNode)   { return 0; }
+    else if (node instanceof StarNode)       { return 0; }
+    else if (node instanceof PlusNode)       { return minLength(((PlusNode) node).getChild()); }
+    else if (node instanceof AnchorNode)     { return minLength(((AnchorNode) node).getChild()); }
+    else if (node instanceof UnknownChar)    { return 1; }
+    else if (node instanceof CharClass)      { return 1; }
+    else                                     { return 0; }
+  }
+
+  private static int minLength (ConcatNode node) {
+    int total = 0;
+
+    for (RegexNode child : node.getChildren()) {
+      total = add(total, minLength(child));
+    }
+
+    return total;
+  }
+
+  private static int minLength (RepetitionNode node) {
+    Bounds bounds = node.getBounds();
+
+    // Unknown bounds may be solved with a minimum of 0.
+    if (bounds instanceof UnknownBounds) {
+      return 0;
+    }
+
+    return multiply(bounds.getMin(), minLength(node.getChild()));
+  }
+
+  public static int maxLength (RegexNode node) {
+         if (node instanceof ConcatNode)     { return maxLength((ConcatNode) node); }
+    else if (node instanceof UnionNode)      { return Math.max(maxLength(((UnionNode) node).getLeftChild()), maxLength(((UnionNode) node).getRightChild())); }
+    else if (node instanceof RepetitionNode) { return maxLength((RepetitionNode) node); }
+    else if (node instanceof OptionalNode)   { return maxLength(((OptionalNode) node).getChild()); }
+    else if (node instanceof StarNode)       { return unbounded(maxLength(((StarNode) node).getChild())); }
+    else if (node instanceof PlusNode)       { return unbounded(maxLength(((PlusNode) node).getChild())); }
+    else if (node instanceof AnchorNode)     { return maxLength(((AnchorNode) node).getChild()); }
+    else if (node instanceof UnknownChar)    { return 1; }
+    else if (node instanceof CharClass)      { return 1; }
+    else                                     { return UNBOUNDED; }
+  }
+
+  private static int maxLength (ConcatNode node) {
+    int total = 0;
+
+    for (RegexNode child : node.getChildren()) {
+      total = add(total, maxLength(child));
+    }
+
+    return total;
+  }
+
+  private static int maxLength (RepetitionNode node) {
+    Bounds bounds = node.getBounds();
+
+    // Unknown bounds may be solved with any maximum.
+    if (bounds instanceof UnknownBounds || bounds.hasMax() == false) {
+      return unbounded(maxLength(node.getChild()));
+    }
+
+    return multiply(bounds.getMax(), maxLength(node.getChild()));
+  }
+
+  private static int unbounded (int childMax) {
+    return (childMax == 0) ? 0 : UNBOUNDED;
+  }
+
+  private static int add (int a, int b) {
+    return (a == UNBOUNDED || b == UNBOUNDED) ? UNBOUNDED : (int) Math.min(UNBOUNDED, (long) a + b);
+  }
+
+  private static int multiply (int a, int b) {
+    if (a == 0 || b == 0) {
+      return 0;
+    }
+
+    return (a == UNBOUNDED || b == UNBOUNDED) ? UNBOUNDED : (int) Math.min(UNBOUNDED, (long) a * b);
+  }
+}
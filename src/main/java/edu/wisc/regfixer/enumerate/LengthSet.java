@@ -0,0 +1,169 @@
+package edu.wisc.regfixer.enumerate;
+
+import java.util.BitSet;
+
+import edu.wisc.regfixer.parser.AnchorNode;
+import edu.wisc.regfixer.parser.Bounds;
+import edu.wisc.regfixer.parser.CharClass;
+import edu.wisc.regfixer.parser.ConcatNode;
+import edu.wisc.regfixer.parser.OptionalNode;
+import edu.wisc.regfixer.parser.PlusNode;
+import edu.wisc.regfixer.parser.RegexNode;
+import edu.wisc.regfixer.parser.RepetitionNode;
+import edu.wisc.regfixer.parser.StarNode;
+import edu.wisc.regfixer.parser.UnionNode;
+
+/**
+ * Computes the set of lengths of the strings a template could match for any
+ * solution of its unknowns. Every unknown char matches exactly one character
+ * and unknown bounds may be solved with any number of repetitions. The sets
+ * can be infinite (any quantifier makes them periodic) but only lengths up to
+ * a given limit are ever needed so each set is kept as a bit set of the
+ * lengths from 0 to the limit, which is exact for those lengths.
+ */
+public class LengthSet {
+  public static BitSet of (RegexNode node, int limit) {
+         if (node instanceof ConcatNode)     { return ofConcat((ConcatNode) node, limit); }
+    else if (node instanceof UnionNode)      { return ofUnion((UnionNode) node, limit); }
+    else if (node instanceof RepetitionNode) { return ofRepetition((RepetitionNode) node, limit); }
+    else if (node instanceof OptionalNode)   { return ofOptional((OptionalNode) node, limit); }
+    else if (node instanceof StarNode)       { return star(of(((StarNode) node).getChild(), limit), limit); }
+    else if (node instanceof PlusNode)       { return ofPlus((PlusNode) node, limit); }
+    else if (node instanceof AnchorNode)     { return of(((AnchorNode) node).getChild(), limit); }
+    else if (node instanceof UnknownChar)    { return single(1, limit); }
+    else if (node instanceof CharClass)      { return single(1, limit); }
+    else                                     { return all(limit); }
+  }
+
+  private static BitSet ofConcat (ConcatNode node, int limit) {
+    BitSet lengths = single(0, limit);
+
+    for (RegexNode child : node.getChildren()) {
+      lengths = sum(lengths, of(child, limit), limit);
+    }
+
+    return lengths;
+  }
+
+  private static BitSet ofUnion (UnionNode node, int limit) {
+    BitSet lengths = of(node.getLeftChild(), limit);
+    lengths.or(of(node.getRightChild(), limit));
+    return lengths;
+  }
+
+  private static BitSet ofRepetition (RepetitionNode node, int limit) {
+    BitSet child = of(node.getChild(), limit);
+    Bounds bounds = node.getBounds();
+
+    if (bounds instanceof UnknownBounds) {
+      return star(child, limit);
+    }
+
+    // Exactly 'min' repetitions are required.
+    BitSet lengths = single(0, limit);
+    for (int i = 0; i < bounds.getMin() && lengths.isEmpty() == false; i++) {
+      BitSet next = sum(lengths, child, limit);
+
+      if (next.equals(lengths)) {
+        break;
+      }
+
+      lengths = next;
+    }
+
+    if (bounds.hasMax() == false) {
+      return sum(lengths, star(child, limit), limit);
+    }
+
+    // Followed by up to 'max - min' optional repetitions.
+    BitSet optional = (BitSet) child.clone();
+    optional.set(0);
+    for (int i = bounds.getMin(); i < bounds.getMax(); i++) {
+      BitSet next = sum(lengths, optional, limit);
+
+      if (next.equals(lengths)) {
+        break;
+      }
+
+      lengths = next;
+    }
+
+    return lengths;
+  }
+
+  private static BitSet ofOptional (OptionalNode node, int limit) {
+    BitSet lengths = of(node.getChild(), limit);
+    lengths.set(0);
+    return lengths;
+  }
+
+  private static BitSet ofPlus (PlusNode node, int limit) {
+    BitSet child = of(node.getChild(), limit);
+    return sum(child, star(child, limit), limit);
+  }
+
+  private static BitSet single (int length, int limit) {
+    BitSet lengths = new BitSet(limit + 1);
+
+    if (length <= limit) {
+      lengths.set(length);
+    }
+
+    return lengths;
+  }
+
+  private static BitSet all (int limit) {
+    BitSet lengths = new BitSet(limit + 1);
+    lengths.set(0, limit + 1);
+    return lengths;
+  }
+
+  /**
+   * Every length of a string from the first set followed by a string from
+   * the second set.
+   */
+  private static BitSet sum (BitSet left, BitSet right, int limit) {
+    BitSet lengths = new BitSet(limit + 1);
+
+    for (int i = left.nextSetBit(0); i >= 0 && i <= limit; i = left.nextSetBit(i + 1)) {
+      lengths.or(shift(right, i, limit));
+    }
+
+    return lengths;
+  }
+
+  /**
+   * Every length of a sequence of zero or more strings from the set.
+   */
+  private static BitSet star (BitSet child, int limit) {
+    BitSet lengths = single(0, limit);
+
+    // Lengths are reached in increasing order so a single pass finds them all.
+    for (int i = 0; i >= 0 && i <= limit; i = lengths.nextSetBit(i + 1)) {
+      for (int j = child.nextSetBit(1); j >= 0 && i + j <= limit; j = child.nextSetBit(j + 1)) {
+        lengths.set(i + j);
+      }
+    }
+
+    return lengths;
+  }
+
+  private static BitSet shift (BitSet lengths, int distance, int limit) {
+    long[] words = lengths.toLongArray();
+    long[] shifted = new long[(limit >> 6) + 1];
+    int wordShift = distance >> 6;
+    int bitShift = distance & 63;
+
+    for (int i = 0; i < words.length && i + wordShift < shifted.length; i++) {
+      shifted[i + wordShift] |= words[i] << bitShift;
+
+      if (bitShift != 0 && i + wordShift + 1 < shifted.length) {
+        shifted[i + wordShift + 1] |= words[i] >>> (64 - bitShift);
+      }
+    }
+
+    BitSet result = BitSet.valueOf(shifted);
+    result.clear(limit + 1, shifted.length << 6);
+    return result;
+  }
+}
@@ -0,0 +1,92 @@
+package edu.wisc.regfixer.enumerate;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import edu.wisc.regfixer.parser.AnchorNode;
+import edu.wisc.regfixer.parser.Bounds;
+import edu.wisc.regfixer.parser.CharLiteralNode;
+import edu.wisc.regfixer.parser.ConcatNode;
+import edu.wisc.regfixer.parser.PlusNode;
+import edu.wisc.regfixer.parser.RegexNode;
+import edu.wisc.regfixer.parser.RepetitionNode;
+import edu.wisc.regfixer.parser.UnionNode;
+
+/**
+ * LiteralScorer finds the literal characters that every string matched by a
+ * template has to contain and checks that every positive example contains
+ * them. Expansions never remove literals from a template but a repetition
+ * added inside a quantifier gives that quantifier unknown bounds (which may be
+ * solved with a minimum of 0) so literals under a quantifier that has any
+ * unknowns below it aren't counted as required. If a positive example is
+ * missing a required literal then no expansion of the template can match it.
+ */
+public class LiteralScorer implements Scorer {
+  // Characters contained in every positive example.
+  private final Set<Character> common;
+
+  public LiteralScorer (Corpus corpus) {
+    Set<Character> common = null;
+
+    for (String example : corpus.getPositiveExamples()) {
+      Set<Character> chars = new HashSet<>();
+      for (int i = 0; i < example.length(); i++) {
+        chars.add(example.charAt(i));
+      }
+
+      if (common == null) {
+        common = chars;
+      } else {
+        common.retainAll(chars);
+      }
+    }
+
+    this.common = (common == null) ? new HashSet<>() : common;
+  }
+
+  public int score (Enumerant enumerant) {
+    Set<Character> required = new HashSet<>();
+    requiredLiterals(enumerant.getTree(), required);
+
+    return this.common.containsAll(required) ? 0 : Scorer.UNSOLVABLE;
+  }
+
+  private static void requiredLiterals (RegexNode node, Set<Character> required) {
+         if (node instanceof ConcatNode)      { requiredLiterals((ConcatNode) node, required); }
+    else if (node instanceof UnionNode)       { requiredLiterals((UnionNode) node, required); }
+    else if (node instanceof RepetitionNode)  { requiredLiterals((RepetitionNode) node, required); }
+    else if (node instanceof PlusNode)        { requiredInQuantifier(((PlusNode) node).getChild(), required); }
+    else if (node instanceof AnchorNode)      { requiredLiterals(((AnchorNode) node).getChild(), required); }
+    else if (node instanceof CharLiteralNode) { required.add(((CharLiteralNode) node).getChar()); }
+  }
+
+  private static void requiredLiterals (ConcatNode node, Set<Character> required) {
+    for (RegexNode child : node.getChildren()) {
+      requiredLiterals(child, required);
+    }
+  }
+
+  private static void requiredLiterals (UnionNode node, Set<Character> required) {
+    Set<Character> left = new HashSet<>();
+    Set<Character> right = new HashSet<>();
+    requiredLiterals(node.getLeftChild(), left);
+    requiredLiterals(node.getRightChild(), right);
+
+    left.retainAll(right);
+    required.addAll(left);
+  }
+
+  private static void requiredLiterals (RepetitionNode node, Set<Character> required) {
+    Bounds bounds = node.getBounds();
+
+    if (bounds instanceof UnknownBounds == false && bounds.getMin() > 0) {
+      requiredInQuantifier(node.getChild(), required);
+    }
+  }
+
+  private static void requiredInQuantifier (RegexNode child, Set<Character> required) {
+    if (child.unknownMask() == 0) {
+      requiredLiterals(child, required);
+    }
+  }
+}
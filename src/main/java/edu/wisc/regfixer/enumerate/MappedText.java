@@ -0,0 +1,137 @@
+package edu.wisc.regfixer.enumerate;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * MappedText is a read-only CharSequence view of (part of) a memory-mapped
+ * file. The bytes stay in the operating system's page cache instead of being
+ * copied onto the heap, so very large corpora can be loaded almost instantly
+ * and slicing the text with #subSequence never copies any characters.
+ *
+ * Reading a byte as a char is only correct when every byte is ASCII. Any file
+ * region containing other bytes (or carriage returns, which the line based
+ * loader used to normalize) is decoded into a heap CharBuffer instead. The
+ * decoded buffer is still sliced without copying.
+ */
+public class MappedText implements CharSequence {
+  private final ByteBuffer bytes;
+  private final int offset;
+  private final int length;
+
+  private MappedText (ByteBuffer bytes, int offset, int length) {
+    this.bytes = bytes;
+    this.offset = offset;
+    this.length = length;
+  }
+
+  /**
+   * Maps the file starting at the given byte offset. Like the old line based
+   * loader, a single line terminator at the end of the file is dropped and
+   * every other line terminator is read as '\n'.
+   */
+  public static CharSequence map (Path path, long start) throws IOException {
+    try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+      long size = channel.size() - start;
+
+      if (size > Integer.MAX_VALUE) {
+        String fmt = "corpus in '%s' is larger than 2GB";
+        throw new IOException(String.format(fmt, path));
+      }
+
+      MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, start, size);
+
+      if (isPlainAscii(buffer)) {
+        return trimTerminator(new MappedText(buffer, 0, (int) size));
+      } else {
+        return trimTerminator(decode(buffer));
+      }
+    }
+  }
+
+  private static boolean isPlainAscii (ByteBuffer buffer) {
+    for (int i = 0; i < buffer.limit(); i++) {
+      byte b = buffer.get(i);
+
+      if (b < 0 || b == '\r') {
+        return false;
+      }
+    }
+
+    return true;
+  }
+
+  private static CharSequence decode (ByteBuffer buffer) {
+    CharBuffer decoded = StandardCharsets.UTF_8.decode(buffer.duplicate());
+    CharBuffer normalized = CharBuffer.allocate(decoded.remaining());
+
+    while (decoded.hasRemaining()) {
+      char ch = decoded.get();
+
+      if (ch == '\r') {
+        // A "\r\n" pair is a single line terminator.
+        if (decoded.hasRemaining() && decoded.get(decoded.position()) == '\n') {
+          decoded.get();
+        }
+
+        normalized.put('\n');
+      } else if (ch == '\u0085' || ch == '\u2028' || ch == '\u2029') {
+        normalized.put('\n');
+      } else {
+        normalized.put(ch);
+      }
+    }
+
+    normalized.flip();
+    return normalized;
+  }
+
+  private static CharSequence trimTerminator (CharSequence text) {
+    int length = text.length();
+
+    if (length > 0 && text.charAt(length - 1) == '\n') {
+      return text.subSequence(0, length - 1);
+    } else {
+      return text;
+    }
+  }
+
+  @Override
+  public int length () {
+    return this.length;
+  }
+
+  @Override
+  public char charAt (int index) {
+    if (index < 0 || index >= this.length) {
+      throw new IndexOutOfBoundsException(String.valueOf(index));
+    }
+
+    return (char) this.bytes.get(this.offset + index);
+  }
+
+  @Override
+  public CharSequence subSequence (int start, int end) {
+    if (start < 0 || end > this.length || start > end) {
+      String fmt = "[%d, %d) out of bounds for length %d";
+      throw new IndexOutOfBoundsException(String.format(fmt, start, end, this.length));
+    }
+
+    return new MappedText(this.bytes, this.offset + start, end - start);
+  }
+
+  @Override
+  public String toString () {
+    byte[] copy = new byte[this.length];
+    ByteBuffer view = this.bytes.duplicate();
+    view.position(this.offset);
+    view.get(copy);
+    return new String(copy, StandardCharsets.US_ASCII);
+  }
+}
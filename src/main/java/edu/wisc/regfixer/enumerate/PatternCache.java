@@ -0,0 +1,58 @@
+package edu.wisc.regfixer.enumerate;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+/**
+ * PatternCache holds recently compiled regular expressions so that templates
+ * and solutions which render to the same string (for example the same
+ * solution synthesized from different templates) are only compiled once. The
+ * rendered string already reflects the fill type used for any unknowns so it
+ * is all that's needed to identify a pattern.
+ *
+ * Compiled patterns are immutable and can be shared between threads.
+ */
+public class PatternCache {
+  public static final int DEFAULT_CAPACITY = 1024;
+
+  private static final PatternCache shared = new PatternCache(DEFAULT_CAPACITY);
+
+  private final Map<String, Pattern> patterns;
+
+  public PatternCache (int capacity) {
+    this.patterns = new LinkedHashMap<String, Pattern>(16, 0.75f, true) {
+      @Override
+      protected boolean removeEldestEntry (Map.Entry<String, Pattern> eldest) {
+        return this.size() > capacity;
+      }
+    };
+  }
+
+  public static PatternCache shared () {
+    return PatternCache.shared;
+  }
+
+  public static Pattern compile (String regex) {
+    return PatternCache.shared.get(regex);
+  }
+
+  public Pattern get (String regex) {
+    synchronized (this) {
+      Pattern pattern = this.patterns.get(regex);
+      if (pattern != null) {
+        return pattern;
+      }
+    }
+
+    // Compile outside of the lock so other threads aren't held up. If two
+    // threads compile the same regex at once, either result can be kept.
+    Pattern pattern = Pattern.compile(regex);
+
+    synchronized (this) {
+      this.patterns.put(regex, pattern);
+    }
+
+    return pattern;
+  }
+}
@@ -0,0 +1,123 @@
+package edu.wisc.regfixer.enumerate;
+
+import edu.wisc.regfixer.parser.AnchorNode;
+import edu.wisc.regfixer.parser.Bounds;
+import edu.wisc.regfixer.parser.CharClass;
+import edu.wisc.regfixer.parser.ConcatNode;
+import edu.wisc.regfixer.parser.OptionalNode;
+import edu.wisc.regfixer.parser.PlusNode;
+import edu.wisc.regfixer.parser.RegexNode;
+import edu.wisc.regfixer.parser.RepetitionNode;
+import edu.wisc.regfixer.parser.StarNode;
+import edu.wisc.regfixer.parser.UnionNode;
+
+/**
+ * The Renderer class converts a regular expression syntax tree (which may
+ * contain unknowns) into a string that can be passed to the regex engine. Each
+ * renderer carries its own fill values for unknown chars and unknown bounds so
+ * that any number of templates can be rendered at the same time. Apart from
+ * the way unknowns are filled, the output is identical to RegexNode#toString().
+ */
+public class Renderer {
+  private final UnknownChar.FillType charFill;
+  private final Bounds boundsFill;
+
+  public Renderer (UnknownChar.FillType charFill, Bounds boundsFill) {
+    this.charFill = charFill;
+    this.boundsFill = boundsFill;
+  }
+
+  public static Renderer forFill (UnknownChar.FillType type) {
+    if (type == UnknownChar.FillType.EmptySet) {
+      return new Renderer(type, Bounds.exactly(0));
+    } else {
+      return new Renderer(type, Bounds.atLeast(0));
+    }
+  }
+
+  public String render (RegexNode node) {
+    StringBuilder builder = new StringBuilder();
+    this.renderNode(builder, node);
+    return builder.toString();
+  }
+
+  private void renderNode (StringBuilder builder, RegexNode node) {
+         if (node instanceof UnknownChar)    { renderUnknown(builder, (UnknownChar) node); }
+    else if (node instanceof ConcatNode)     { renderConcat(builder, (ConcatNode) node); }
+    else if (node instanceof UnionNode)      { renderUnion(builder, (UnionNode) node); }
+    else if (node instanceof RepetitionNode) { renderRepetition(builder, (RepetitionNode) node); }
+    else if (node instanceof OptionalNode)   { renderQuantifier(builder, ((OptionalNode) node).getChild(), '?'); }
+    else if (node instanceof StarNode)       { renderQuantifier(builder, ((StarNode) node).getChild(), '*'); }
+    else if (node instanceof PlusNode)       { renderQuantifier(builder, ((PlusNode) node).getChild(), '+'); }
+    else if (node instanceof AnchorNode)     { renderAnchor(builder, (AnchorNode) node); }
+    else if (node instanceof CharClass)      { builder.append(node.toString()); }
+    else {
+      System.err.printf("Unknown AST class: %s\n", node.getClass().getName());
+      System.exit(1);
+    }
+  }
+
+  private void renderUnknown (StringBuilder builder, UnknownChar node) {
+    switch (this.charFill) {
+      case Dot:
+        builder.append(".");
+        break;
+      case DotStar:
+        builder.append(".*");
+        break;
+      case EmptySet:
+        // FIXME
+        builder.append("\0000");
+        break;
+      case Default:
+        builder.append(node.toString());
+        break;
+      default:
+        builder.append("■");
+        break;
+    }
+  }
+
+  private void renderConcat (StringBuilder builder, ConcatNode node) {
+    for (RegexNode child : node.getChildren()) {
+      if (child instanceof ConcatNode || child instanceof UnionNode) {
+        builder.append("(");
+        renderNode(builder, child);
+        builder.append(")");
+      } else {
+        renderNode(builder, child);
+      }
+    }
+  }
+
+  private void renderUnion (StringBuilder builder, UnionNode node) {
+    renderNode(builder, node.getLeftChild());
+    builder.append("|");
+    renderNode(builder, node.getRightChild());
+  }
+
+  private void renderRepetition (StringBuilder builder, RepetitionNode node) {
+    builder.append("(");
+    renderNode(builder, node.getChild());
+    builder.append(")");
+
+    if (node.getBounds() instanceof UnknownBounds && this.boundsFill != null) {
+      builder.append(this.boundsFill.toString());
+    } else {
+      builder.append(node.getBounds().toString());
+    }
+  }
+
+  private void renderQuantifier (StringBuilder builder, RegexNode child, char operator) {
+    builder.append("(");
+    renderNode(builder, child);
+    builder.append(")");
+    builder.append(operator);
+  }
+
+  private void renderAnchor (StringBuilder builder, AnchorNode node) {
+    builder.append(node.hasStart() ? "^" : "");
+    renderNode(builder, node.getChild());
+    builder.append(node.hasEnd() ? "$" : "");
+  }
+}
@@ -0,0 +1,37 @@
+package edu.wisc.regfixer.enumerate;
+
+/**
+ * A Scorer computes a cheap lower bound on how much more expansion cost a
+ * template needs before it (or one of its expansions) could be a solution.
+ * Enumerants adds the bound to each template's cost when ordering the search
+ * so templates that obviously can't work are searched after the templates of
+ * the same cost that might. A template with a bound above zero can't itself
+ * be a solution so it's expanded but never evaluated.
+ *
+ * Bounds must never be larger than the true cost to reach a solution or
+ * solutions could be missed. A scorer returns UNSOLVABLE when no expansion of
+ * the template could ever be a solution, in which case the template is
+ * dropped from the search.
+ */
+@FunctionalInterface
+public interface Scorer {
+  public static final int UNSOLVABLE = Integer.MAX_VALUE;
+
+  int score (Enumerant enumerant);
+
+  /**
+   * Combines scorers by taking the largest of their bounds, which is still a
+   * lower bound.
+   */
+  public static Scorer max (Scorer... scorers) {
+    return enumerant -> {
+      int bound = 0;
+
+      for (Scorer scorer : scorers) {
+        bound = Math.max(bound, scorer.score(enumerant));
+      }
+
+      return bound;
+    };
+  }
+}
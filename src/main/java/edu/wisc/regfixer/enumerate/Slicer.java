@@ -26,11 +26,17 @@ import edu.wisc.regfixer.parser.UnionNode;
  * - concatenated with the wunknown expression (preceeding and succeeding)
  */
 public class Slicer {
-  public static List<Enumerant> slice (RegexNode node) {
-    return sliceNode(node, new LinkedList<>());
+  private final UnknownCounter counter;
+
+  private Slicer (UnknownCounter counter) {
+    this.counter = counter;
+  }
+
+  public static List<Enumerant> slice (RegexNode node, UnknownCounter counter) {
+    return new Slicer(counter).sliceNode(node, new LinkedList<>());
   }
 
-  private static List<Enumerant> sliceNode (RegexNode node, List<Expansion> history) {
+  private List<Enumerant> sliceNode (RegexNode node, List<Expansion> history) {
          if (node instanceof ConcatNode)     { return sliceConcat((ConcatNode) node, history); }
     else if (node instanceof UnionNode)      { return sliceUnion((UnionNode) node, history); }
     else if (node instanceof RepetitionNode) { return sliceRepetition((RepetitionNode) node, history); }
@@ -45,7 +51,7 @@ public class Slicer {
     }
   }
 
-  private static List<Enumerant> sliceConcat (ConcatNode node, List<Expansion> history) {
+  private List<Enumerant> sliceConcat (ConcatNode node, List<Expansion> history) {
     List<Enumerant> partials = new LinkedList<>();
     List<Expansion> newHistory = new LinkedList<>(history);
     newHistory.add(Expansion.Concat);
@@ -68,7 +74,7 @@ public class Slicer {
         if (midfix.size() == 1) {
           midfixPartials.addAll(sliceNode(midfix.get(0), newHistory));
         } else {
-          UnknownChar un = new UnknownChar(history, Expansion.Concat);
+          UnknownChar un = new UnknownChar(this.counter, history, Expansion.Concat);
           int cost = midfix.stream().mapToInt(RegexNode::descendants).sum();
           midfixPartials.add(new Enumerant(un, un.getId(), cost, Expansion.Concat));
         }
@@ -94,7 +100,7 @@ public class Slicer {
 
     // Add unknowns between children
     for (int i = 0; i <= totalChildren; i++) {
-      UnknownChar newUnknown = new UnknownChar((i == totalChildren) ? history : newHistory);
+      UnknownChar newUnknown = new UnknownChar(this.counter, (i == totalChildren) ? history : newHistory);
       List<RegexNode> newChildren = new LinkedList<>();
 
       if (i < totalChildren) {
@@ -113,7 +119,7 @@ public class Slicer {
     return partials;
   }
 
-  private static List<Enumerant> sliceUnion (UnionNode node, List<Expansion> history) {
+  private List<Enumerant> sliceUnion (UnionNode node, List<Expansion> history) {
     List<Enumerant> partials = new LinkedList<>();
     List<Expansion> newHistory = new LinkedList<>(history);
     newHistory.add(Expansion.Union);
@@ -128,13 +134,13 @@ public class Slicer {
       partials.add(new Enumerant(branch, partial.getIds(), partial.getCost(), Expansion.Union));
     }
 
-    UnknownChar unknown = new UnknownChar(history);
+    UnknownChar unknown = new UnknownChar(this.counter, history);
     partials.add(new Enumerant(unknown, unknown.getId(), node.descendants(), Expansion.Union));
     return partials;
   }
 
-  private static Enumerant mkRepetitionNode (Enumerant child, Bounds original) {
-    UnknownBounds unknown = new UnknownBounds(original);
+  private Enumerant mkRepetitionNode (Enumerant child, Bounds original) {
+    UnknownBounds unknown = new UnknownBounds(this.counter, original);
     Set<UnknownId> ids = new HashSet<>(child.getIds());
     ids.add(unknown.getId());
 
@@ -143,15 +149,15 @@ public class Slicer {
     return new Enumerant(branch, ids, child.getCost() + 1, Expansion.Repeat);
   }
 
-  private static Enumerant mkRepetitionNode (RegexNode child, Bounds original) {
-    UnknownBounds unknown = new UnknownBounds(original);
+  private Enumerant mkRepetitionNode (RegexNode child, Bounds original) {
+    UnknownBounds unknown = new UnknownBounds(this.counter, original);
 
     RepetitionNode branch = new RepetitionNode(child, unknown);
 
     return new Enumerant(branch, unknown.getId(), 1, Expansion.Repeat);
   }
 
-  private static List<Enumerant> sliceRepetition (RepetitionNode node, List<Expansion> history) {
+  private List<Enumerant> sliceRepetition (RepetitionNode node, List<Expansion> history) {
     List<Enumerant> partials = new LinkedList<>();
     List<Expansion> newHistory = new LinkedList<>(history);
     newHistory.add(Expansion.Repeat);
@@ -164,12 +170,12 @@ public class Slicer {
     // Wrap child node (with no unknowns) in unknown bounds.
     partials.add(mkRepetitionNode(node.getChild(), node.getBounds()));
 
-    UnknownChar unknown = new UnknownChar(history);
+    UnknownChar unknown = new UnknownChar(this.counter, history);
     partials.add(new Enumerant(unknown, unknown.getId(), node.descendants(), Expansion.Repeat));
     return partials;
   }
 
-  private static List<Enumerant> sliceOptional (OptionalNode node, List<Expansion> history) {
+  private List<Enumerant> sliceOptional (OptionalNode node, List<Expansion> history) {
     List<Enumerant> partials = new LinkedList<>();
     List<Expansion> newHistory = new LinkedList<>(history);
     newHistory.add(Expansion.Repeat);
@@ -182,12 +188,12 @@ public class Slicer {
     // Wrap child node (with no unknowns) in unknown bounds.
     partials.add(mkRepetitionNode(node.getChild(), Bounds.between(0, 1)));
 
-    UnknownChar unknown = new UnknownChar(history);
+    UnknownChar unknown = new UnknownChar(this.counter, history);
     partials.add(new Enumerant(unknown, unknown.getId(), node.descendants(), Expansion.Optional));
     return partials;
   }
 
-  private static List<Enumerant> sliceStar (StarNode node, List<Expansion> history) {
+  private List<Enumerant> sliceStar (StarNode node, List<Expansion> history) {
     List<Enumerant> partials = new LinkedList<>();
     List<Expansion> newHistory = new LinkedList<>(history);
     newHistory.add(Expansion.Repeat);
@@ -200,12 +206,12 @@ public class Slicer {
     // Wrap child node (with no unknowns) in unknown bounds.
     partials.add(mkRepetitionNode(node.getChild(), Bounds.atLeast(0)));
 
-    UnknownChar unknown = new UnknownChar(history);
+    UnknownChar unknown = new UnknownChar(this.counter, history);
     partials.add(new Enumerant(unknown, unknown.getId(), node.descendants(), Expansion.Star));
     return partials;
   }
 
-  private static List<Enumerant> slicePlus (PlusNode node, List<Expansion> history) {
+  private List<Enumerant> slicePlus (PlusNode node, List<Expansion> history) {
     List<Enumerant> partials = new LinkedList<>();
     List<Expansion> newHistory = new LinkedList<>(history);
     newHistory.add(Expansion.Repeat);
@@ -218,13 +224,13 @@ public class Slicer {
     // Wrap child node (with no unknowns) in unknown bounds.
     partials.add(mkRepetitionNode(node.getChild(), Bounds.atLeast(1)));
 
-    UnknownChar unknown = new UnknownChar(history);
+    UnknownChar unknown = new UnknownChar(this.counter, history);
     partials.add(new Enumerant(unknown, unknown.getId(), node.descendants(), Expansion.Plus));
     return partials;
   }
 
-  private static List<Enumerant> sliceAtomic (List<Expansion> history) {
-    UnknownChar unknown = new UnknownChar(history);
+  private List<Enumerant> sliceAtomic (List<Expansion> history) {
+    UnknownChar unknown = new UnknownChar(this.counter, history);
     return Arrays.asList(new Enumerant(unknown, unknown.getId(), 1, Expansion.Concat));
   }
 }
@@ -0,0 +1,49 @@
+package edu.wisc.regfixer.enumerate;
+
+/**
+ * UnknownCounter hands out the IDs and ages given to unknowns as they are
+ * created. Each repair job gets its own counter so that jobs running in the
+ * same process never share (or race on) ID state.
+ */
+public class UnknownCounter {
+  private int nextId;
+  private int nextAge;
+
+  public UnknownCounter () {
+    this(0, 0);
+  }
+
+  /**
+   * Creates a counter that hands out the IDs and ages another counter would
+   * have handed out after reaching the given ones. Used to rebuild a template
+   * with the same unknowns as the original.
+   */
+  UnknownCounter (int nextId, int nextAge) {
+    this.nextId = nextId;
+    this.nextAge = nextAge;
+  }
+
+  public synchronized int nextId () {
+    return this.nextId++;
+  }
+
+  public synchronized int nextAge () {
+    return this.nextAge++;
+  }
+
+  synchronized int peekId () {
+    return this.nextId;
+  }
+
+  synchronized int peekAge () {
+    return this.nextAge;
+  }
+
+  /**
+   * Makes sure no ID or age below the given ones is handed out again.
+   */
+  synchronized void skipTo (int nextId, int nextAge) {
+    this.nextId = Math.max(this.nextId, nextId);
+    this.nextAge = Math.max(this.nextAge, nextAge);
+  }
+}
@@ -4,8 +4,8 @@ public class UnknownId {
   private int id;
   private Unknown unknown;
 
-  public UnknownId (Unknown unknown) {
-    this.id = UnknownId.getNextId();
+  public UnknownId (UnknownCounter counter, Unknown unknown) {
+    this.id = counter.nextId();
     this.unknown = unknown;
   }
 
@@ -13,6 +13,13 @@ public class UnknownId {
     return this.unknown;
   }
 
+  /**
+   * The bit this unknown sets in RegexNode#unknownMask().
+   */
+  public long toMask () {
+    return 1L << (this.id & 63);
+  }
+
   @Override
   public boolean equals (Object obj) {
     if (obj instanceof UnknownId) {
@@ -31,10 +38,4 @@ public class UnknownId {
   public String toString () {
     return String.format("H%d", this.id);
   }
-
-  private static int nextId = 0;
-
-  private static int getNextId () {
-    return UnknownId.nextId++;
-  }
 }
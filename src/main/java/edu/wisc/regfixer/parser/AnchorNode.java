@@ -1,9 +1,9 @@
 package edu.wisc.regfixer.parser;
 
 public class AnchorNode implements RegexNode {
-  private RegexNode child;
-  private boolean start;
-  private boolean end;
+  private final RegexNode child;
+  private final boolean start;
+  private final boolean end;
 
   public AnchorNode (RegexNode child, boolean start, boolean end) {
     this.child = child;
@@ -11,10 +11,26 @@ public class AnchorNode implements RegexNode {
     this.end = end;
   }
 
+  public RegexNode getChild () {
+    return this.child;
+  }
+
+  public boolean hasStart () {
+    return this.start;
+  }
+
+  public boolean hasEnd () {
+    return this.end;
+  }
+
   public int descendants () {
     return 1 + this.child.descendants();
   }
 
+  public long unknownMask () {
+    return this.child.unknownMask();
+  }
+
   public String toString () {
     return (
       ((this.start) ? "^" : "") +
@@ -36,6 +36,10 @@ public class Bounds {
     this.max = max;
   }
 
+  public long unknownMask () {
+    return 0;
+  }
+
   public int getMin () {
     return this.min;
   }
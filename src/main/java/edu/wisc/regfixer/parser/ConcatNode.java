@@ -1,17 +1,32 @@
 package edu.wisc.regfixer.parser;
 
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
 
 public class ConcatNode implements RegexNode {
-  private List<RegexNode> children;
+  private final List<RegexNode> children;
+  private final int descendants;
+  private final long unknownMask;
+  private String string;
 
   public ConcatNode (List<RegexNode> children) {
-    this.children = children;
+    this.children = Collections.unmodifiableList(new ArrayList<>(children));
+
+    int descendants = 0;
+    long unknownMask = 0;
+    for (RegexNode child : this.children) {
+      descendants += child.descendants();
+      unknownMask |= child.unknownMask();
+    }
+
+    this.descendants = descendants;
+    this.unknownMask = unknownMask;
   }
 
   public ConcatNode (RegexNode... children) {
-    this.children = Arrays.asList(children);
+    this(Arrays.asList(children));
   }
 
   public List<RegexNode> getChildren () {
@@ -19,20 +34,28 @@ public class ConcatNode implements RegexNode {
   }
 
   public int descendants () {
-    return this.children.stream().mapToInt(RegexNode::descendants).sum();
+    return this.descendants;
   }
 
-  public String toString () {
-    String out = "";
+  public long unknownMask () {
+    return this.unknownMask;
+  }
 
-    for (RegexNode child : this.children) {
-      if (child instanceof ConcatNode) {
-        out += "(" + child.toString() + ")";
-      } else {
-        out += child.toString();
+  public String toString () {
+    if (this.string == null) {
+      StringBuilder out = new StringBuilder();
+
+      for (RegexNode child : this.children) {
+        if (child instanceof ConcatNode || child instanceof UnionNode) {
+          out.append("(").append(child.toString()).append(")");
+        } else {
+          out.append(child.toString());
+        }
       }
+
+      this.string = out.toString();
     }
 
-    return out;
+    return this.string;
   }
 }
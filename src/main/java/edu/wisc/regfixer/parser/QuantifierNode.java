@@ -1,12 +1,17 @@
 package edu.wisc.regfixer.parser;
 
 public abstract class QuantifierNode implements RegexNode {
-  private char operator;
-  private RegexNode child;
+  private final char operator;
+  private final RegexNode child;
+  private final int descendants;
+  private final long unknownMask;
+  private String string;
 
   public QuantifierNode (char operator, RegexNode child) {
     this.operator = operator;
     this.child = child;
+    this.descendants = 1 + child.descendants();
+    this.unknownMask = child.unknownMask();
   }
 
   public RegexNode getChild () {
@@ -14,10 +19,18 @@ public abstract class QuantifierNode implements RegexNode {
   }
 
   public int descendants () {
-    return 1 + this.child.descendants();
+    return this.descendants;
+  }
+
+  public long unknownMask () {
+    return this.unknownMask;
   }
 
   public String toString () {
-    return "(" + this.child + ")" + Character.toString(this.operator);
+    if (this.string == null) {
+      this.string = "(" + this.child + ")" + Character.toString(this.operator);
+    }
+
+    return this.string;
   }
 }
@@ -3,4 +3,14 @@ package edu.wisc.regfixer.parser;
 public interface RegexNode {
   public String toString ();
   public int descendants ();
+
+  /**
+   * Every unknown sets one of 64 bits (chosen by its ID) in this mask and a
+   * node's mask includes the bits of every unknown below it. A subtree whose
+   * mask doesn't have an unknown's bit set definitely doesn't contain that
+   * unknown so it can be skipped when searching for the unknown.
+   */
+  public default long unknownMask () {
+    return 0;
+  }
 }
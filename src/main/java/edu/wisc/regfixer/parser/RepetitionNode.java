@@ -1,22 +1,25 @@
 package edu.wisc.regfixer.parser;
 
 public class RepetitionNode implements RegexNode {
-  private RegexNode child;
-  private Bounds bounds;
+  private final RegexNode child;
+  private final Bounds bounds;
+  private final int descendants;
+  private final long unknownMask;
+  private String string;
 
   public RepetitionNode (RegexNode child, int min) {
-    this.child = child;
-    this.bounds = Bounds.atLeast(min);
+    this(child, Bounds.atLeast(min));
   }
 
   public RepetitionNode (RegexNode child, int min, int max) {
-    this.child = child;
-    this.bounds = Bounds.between(min, max);
+    this(child, Bounds.between(min, max));
   }
 
   public RepetitionNode (RegexNode child, Bounds bounds) {
     this.child = child;
     this.bounds = bounds;
+    this.descendants = 1 + child.descendants();
+    this.unknownMask = child.unknownMask() | bounds.unknownMask();
   }
 
   public RegexNode getChild () {
@@ -28,10 +31,18 @@ public class RepetitionNode implements RegexNode {
   }
 
   public int descendants () {
-    return 1 + this.child.descendants();
+    return this.descendants;
+  }
+
+  public long unknownMask () {
+    return this.unknownMask;
   }
 
   public String toString () {
-    return String.format("(%s)%s", this.child, this.bounds);
+    if (this.string == null) {
+      this.string = String.format("(%s)%s", this.child, this.bounds);
+    }
+
+    return this.string;
   }
 }
@@ -1,20 +1,23 @@
 package edu.wisc.regfixer.parser;
 
 public class UnionNode implements RegexNode {
-  private RegexNode left;
-  private RegexNode right;
-  private boolean synthetic;
+  private final RegexNode left;
+  private final RegexNode right;
+  private final boolean synthetic;
+  private final int descendants;
+  private final long unknownMask;
+  private String string;
 
   public UnionNode (RegexNode left, RegexNode right) {
-    this.left = left;
-    this.right = right;
-    this.synthetic = false;
+    this(left, right, false);
   }
 
   public UnionNode (RegexNode left, RegexNode right, boolean isSynthetic) {
     this.left = left;
     this.right = right;
     this.synthetic = isSynthetic;
+    this.descendants = 1 + left.descendants() + right.descendants();
+    this.unknownMask = left.unknownMask() | right.unknownMask();
   }
 
   public RegexNode getLeftChild () {
@@ -30,10 +33,18 @@ public class UnionNode implements RegexNode {
   }
 
   public int descendants () {
-    return 1 + this.left.descendants() + this.right.descendants();
+    return this.descendants;
+  }
+
+  public long unknownMask () {
+    return this.unknownMask;
   }
 
   public String toString () {
-    return String.format("%s|%s", this.left.toString(), this.right.toString());
+    if (this.string == null) {
+      this.string = String.format("%s|%s", this.left.toString(), this.right.toString());
+    }
+
+    return this.string;
   }
 }
@@ -0,0 +1,132 @@
+package edu.wisc.regfixer.server;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import com.google.gson.Gson;
+import edu.wisc.regfixer.SearchListener;
+import edu.wisc.regfixer.diagnostic.Deadline;
+
+/**
+ * EventStream writes the progress of a search to an HTTP response as a stream
+ * of Server-Sent Events. Each solution is sent as a 'solution' event as soon
+ * as it's found and, if requested, each template searched is sent as a
+ * 'template' event. The search is cancelled once the client disconnects,
+ * including any template being evaluated at the time (through the search's
+ * deadline).
+ *
+ * A write is the only way to notice the client has gone, and a search can go
+ * a long time between events, so a comment line is also sent every
+ * 'heartbeatMillis' from a background thread until the stream is closed.
+ */
+public class EventStream implements SearchListener, AutoCloseable {
+  public static final long HEARTBEAT_MILLIS = 1000;
+
+  private final OutputStream out;
+  private final Gson gson;
+  private final boolean sendsTemplates;
+  private final Deadline deadline;
+  private final ScheduledExecutorService heartbeat;
+  private volatile boolean disconnected;
+
+  private static class TemplateEvent {
+    private final int cost;
+    private final String template;
+    private final String result;
+
+    private TemplateEvent (int cost, String template, String result) {
+      this.cost = cost;
+      this.template = template;
+      this.result = result;
+    }
+  }
+
+  private static class SolutionEvent {
+    private final int cost;
+    private final String fix;
+
+    private SolutionEvent (int cost, String fix) {
+      this.cost = cost;
+      this.fix = fix;
+    }
+  }
+
+  public EventStream (OutputStream out, boolean sendsTemplates, Deadline deadline) {
+    this(out, sendsTemplates, deadline, HEARTBEAT_MILLIS);
+  }
+
+  public EventStream (OutputStream out, boolean sendsTemplates, Deadline deadline, long heartbeatMillis) {
+    this.out = out;
+    this.gson = new Gson();
+    this.sendsTemplates = sendsTemplates;
+    this.deadline = deadline;
+    this.disconnected = false;
+
+    this.heartbeat = Executors.newSingleThreadScheduledExecutor(runnable -> {
+      Thread thread = new Thread(runnable, "event-stream-heartbeat");
+      thread.setDaemon(true);
+      return thread;
+    });
+
+    this.heartbeat.scheduleWithFixedDelay(() -> this.write(": heartbeat\n\n"), heartbeatMillis, heartbeatMillis, TimeUnit.MILLISECONDS);
+  }
+
+  @Override
+  public void onTemplate (int cost, String template, String result) {
+    if (this.sendsTemplates) {
+      this.send("template", new TemplateEvent(cost, template, result));
+    }
+  }
+
+  @Override
+  public void onSolution (int cost, String solution) {
+    this.send("solution", new SolutionEvent(cost, solution));
+  }
+
+  @Override
+  public boolean isCancelled () {
+    return this.disconnected;
+  }
+
+  /**
+   * Sends an event whose data is the given object encoded as JSON. Nothing is
+   * sent once the client has disconnected.
+   */
+  public void send (String event, Object data) {
+    if (this.disconnected) {
+      return;
+    }
+
+    // JSON encoded by Gson never contains a newline so the data always fits
+    // on a single 'data' line.
+    this.write(String.format("event: %s\ndata: %s\n\n", event, this.gson.toJson(data)));
+  }
+
+  /**
+   * Stops the heartbeat. Events can still be sent afterwards.
+   */
+  @Override
+  public void close () {
+    this.heartbeat.shutdownNow();
+  }
+
+  // Called from both the search and the heartbeat threads.
+  private synchronized void write (String message) {
+    if (this.disconnected) {
+      return;
+    }
+
+    try {
+      this.out.write(message.getBytes(StandardCharsets.UTF_8));
+      this.out.flush();
+    } catch (IOException ex) {
+      this.disconnected = true;
+      this.deadline.cancel();
+      this.heartbeat.shutdown();
+    }
+  }
+}
@@ -0,0 +1,135 @@
+package edu.wisc.regfixer.synthesize;
+
+import java.util.Deque;
+import java.util.LinkedList;
+
+import com.microsoft.z3.Context;
+import com.microsoft.z3.Native;
+import com.microsoft.z3.Optimize;
+import edu.wisc.regfixer.diagnostic.Diagnostic;
+
+/**
+ * Creating a Z3 context is expensive compared to solving most of the small
+ * formulae built for a single template so contexts are recycled between
+ * formulae instead of being created (and leaked) for every formula.
+ *
+ * A context is leased by a Formula for as long as the formula is in use and
+ * is given back when the formula is closed. Each leased context comes with an
+ * optimizer whose assertions and objectives are pushed when the lease starts
+ * and popped when it ends so no solver state is carried from one formula to
+ * the next.
+ *
+ * The Z3 Java bindings only release an expression once its wrapper has been
+ * garbage collected and the context that made it creates another object, and
+ * IDecRefQueue#forceClear can't be used on a context that is still in use
+ * because it doesn't forget the references it decrements. The only way to
+ * free everything a context owns is to close it, so a context is retired
+ * (closed rather than pooled) after it has been leased MAX_USES times or if Z3
+ * is holding more than MAX_NATIVE_MEMORY kilobytes when it is given back.
+ * Wrappers that outlive a closed context are collected with it: a closed
+ * context never drains its reference queues again so they can't touch freed
+ * memory. At most a fixed number of idle contexts are kept and any context
+ * given back to a full (or closed) pool is closed right away.
+ */
+public class ContextPool implements AutoCloseable {
+  private static final ContextPool shared = new ContextPool(Runtime.getRuntime().availableProcessors());
+
+  public static final int MAX_USES = 64;
+  public static final int MAX_NATIVE_MEMORY = 1024 * 1024;
+
+  /**
+   * A context together with the optimizer that formulae built in that
+   * context add their constraints to.
+   */
+  public static class Lease {
+    private final Context ctx;
+    private final Optimize opt;
+    private int uses;
+
+    private Lease (Context ctx) {
+      this.ctx = ctx;
+      this.opt = ctx.mkOptimize();
+      this.uses = 0;
+    }
+
+    public Context getContext () {
+      return this.ctx;
+    }
+
+    public Optimize getOptimize () {
+      return this.opt;
+    }
+  }
+
+  private final int capacity;
+  private final Deque<Lease> idle;
+  private boolean closed;
+
+  public ContextPool (int capacity) {
+    this.capacity = capacity;
+    this.idle = new LinkedList<>();
+    this.closed = false;
+  }
+
+  public static ContextPool shared () {
+    return ContextPool.shared;
+  }
+
+  public Lease acquire (Diagnostic diag) {
+    Lease lease = null;
+
+    synchronized (this) {
+      lease = this.idle.pollFirst();
+    }
+
+    if (lease == null) {
+      diag.registry().bumpInt("contextPoolMisses");
+      lease = new Lease(new Context());
+    } else {
+      diag.registry().bumpInt("contextPoolHits");
+    }
+
+    lease.uses++;
+    lease.opt.Push();
+    return lease;
+  }
+
+  public void release (Lease lease) {
+    lease.opt.Pop();
+
+    if (lease.uses < ContextPool.MAX_USES && estimateNativeMemory() < ContextPool.MAX_NATIVE_MEMORY) {
+      synchronized (this) {
+        if (this.closed == false && this.idle.size() < this.capacity) {
+          this.idle.addFirst(lease);
+          return;
+        }
+      }
+    }
+
+    lease.ctx.close();
+  }
+
+  @Override
+  public void close () {
+    synchronized (this) {
+      this.closed = true;
+    }
+
+    Lease lease = null;
+    while ((lease = this.poll()) != null) {
+      lease.ctx.close();
+    }
+  }
+
+  private synchronized Lease poll () {
+    return this.idle.pollFirst();
+  }
+
+  /**
+   * Returns an estimate (in kilobytes) of the native memory currently
+   * allocated by Z3 across all contexts.
+   */
+  public static int estimateNativeMemory () {
+    return (int) (Native.getEstimatedAllocSize() / 1024);
+  }
+}
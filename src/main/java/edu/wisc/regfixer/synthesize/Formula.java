@@ -1,5 +1,6 @@
 package edu.wisc.regfixer.synthesize;
 
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
@@ -16,8 +17,11 @@ import com.microsoft.z3.IntExpr;
 import com.microsoft.z3.IntNum;
 import com.microsoft.z3.Model;
 import com.microsoft.z3.Optimize;
+import com.microsoft.z3.Params;
+import com.microsoft.z3.Solver;
 import com.microsoft.z3.Status;
 import edu.wisc.regfixer.automata.Route;
+import edu.wisc.regfixer.diagnostic.Deadline;
 import edu.wisc.regfixer.diagnostic.Diagnostic;
 import edu.wisc.regfixer.enumerate.UnknownBounds;
 import edu.wisc.regfixer.enumerate.UnknownId;
@@ -28,11 +32,12 @@ import edu.wisc.regfixer.parser.CharLiteralNode;
 import edu.wisc.regfixer.parser.CharRangeNode;
 import edu.wisc.regfixer.parser.ConcreteCharClass;
 
-public class Formula {
+public class Formula implements AutoCloseable {
   private List<Set<Route>> positives;
   private List<Set<Route>> negatives;
   private Diagnostic diag;
 
+  private ContextPool.Lease lease;
   private Context ctx;
   private Optimize opt;
   private Model model;
@@ -47,22 +52,35 @@ public class Formula {
   private Set<MetaClassTree> misc;
   private Map<UnknownId, Map<Character, BoolExpr>> unknownToCharToVar;
 
+  private Map<UnknownId, Map<MetaClassTree, BoolExpr>> unknownToTreeToMetaVar;
+  private Map<BoolExpr, Set<BoolExpr>> metaVarToChildVars;
+
   private Set<UnknownId> unknownBounds;
   private Map<UnknownId, IntExpr> unknownToMinVar;
   private Map<UnknownId, IntExpr> unknownToMaxVar;
+  private List<IntExpr> quantCosts;
+
+  // The constraint asserted for each example (and the routes it was built
+  // from) and the basic limits on every repetition's bounds are kept so that
+  // an unsat core can be found if the formula can't be satisfied.
+  private List<BoolExpr> exampleConstraints;
+  private List<Set<Route>> constrainedExamples;
+  private List<BoolExpr> boundsConstraints;
+  private boolean unsatisfiable;
 
   public Formula (List<Set<Route>> positives, List<Set<Route>> negatives) {
     this(positives, negatives, new Diagnostic());
   }
 
   public Formula (List<Set<Route>> positives, List<Set<Route>> negatives, Diagnostic diag) {
-    this.positives = positives;
-    this.negatives = negatives;
+    this.positives = new LinkedList<>(positives);
+    this.negatives = new LinkedList<>(negatives);
     this.diag = diag;
 
     // Initialize SAT formula objects
-    this.ctx = new Context();
-    this.opt = this.ctx.mkOptimize();
+    this.lease = ContextPool.shared().acquire(diag);
+    this.ctx = this.lease.getContext();
+    this.opt = this.lease.getOptimize();
     this.model = null;
 
     // Initialize structures for tracking state
@@ -75,63 +93,26 @@ public class Formula {
     this.tree = MetaClassTree.initialize();
     this.unknownToCharToVar = new HashMap<>();
     this.misc = new HashSet<>();
+    this.unknownToTreeToMetaVar = new HashMap<>();
+    this.metaVarToChildVars = new HashMap<>();
 
     this.unknownBounds = new HashSet<>();
     this.unknownToMinVar = new HashMap<>();
     this.unknownToMaxVar = new HashMap<>();
+    this.quantCosts = new LinkedList<>();
 
-    // Build a list of all unknown IDs encountered by these automata routes.
-    this.getAllRelevantUnknownExits(this.positives);
-    this.getAllRelevantUnknownExits(this.negatives);
-
-    IntExpr zero = this.ctx.mkInt(0);
-    IntExpr one  = this.ctx.mkInt(1);
-
-    // Create all 'H?_max' and 'H?_min' variables for all relevant IDs.
-    List<IntExpr> quantCosts = new LinkedList<>();
-    for (UnknownId id : this.unknownBounds) {
-      UnknownBounds unknown = (UnknownBounds)(id.getUnknown());
-
-      // Create minimum and maximum bound variables.
-      IntExpr minVar = this.ctx.mkIntConst(id.toString() + "_min");
-      IntExpr maxVar = this.ctx.mkIntConst(id.toString() + "_max");
-
-      // Associate minimum and maximum bound variables with appropriate ID.
-      this.unknownToMinVar.put(id, minVar);
-      this.unknownToMaxVar.put(id, maxVar);
+    this.exampleConstraints = new ArrayList<>();
+    this.constrainedExamples = new ArrayList<>();
+    this.boundsConstraints = new ArrayList<>();
+    this.unsatisfiable = false;
 
-      // Force every minimum bound to be <= corresponding maximum bound.
-      this.opt.Assert(this.ctx.mkLe(minVar, maxVar));
-      this.opt.Assert(this.ctx.mkGe(minVar, zero));
-      this.opt.Assert(this.ctx.mkGe(maxVar, one));
+    // Create all 'H?_max' and 'H?_min' variables for all unknown IDs
+    // encountered by these automata routes.
+    this.encodeAllRelevantUnknownExits(this.positives);
+    this.encodeAllRelevantUnknownExits(this.negatives);
 
-      // (declare H0_min_cost Int)
-      // (declare H0_max_cost Int)
-      // (assert (= H0_min_cost (ite (= H0_min <old minimum>) 0 1)))
-      // (assert (= H0_max_cost (ite (= H0_max <old maximum>) 0 1)))
-      // (minimize (+ H0_min_cost H0_max_cost))
-      int oldMin = unknown.getMin();
-      int oldMax = unknown.hasMax() ? unknown.getMax() : Bounds.MAX_BOUND;
-
-      IntExpr minCost = this.ctx.mkIntConst(id.toString() + "_min_cost");
-      IntExpr maxCost = this.ctx.mkIntConst(id.toString() + "_max_cost");
-
-      this.opt.Assert(this.ctx.mkEq(minCost, this.ctx.mkITE(
-        this.ctx.mkEq(minVar, this.ctx.mkInt(oldMin)),
-        zero,
-        one)));
-
-      this.opt.Assert(this.ctx.mkEq(maxCost, this.ctx.mkITE(
-        this.ctx.mkEq(maxVar, this.ctx.mkInt(oldMax)),
-        zero,
-        one)));
-
-      quantCosts.add(maxCost);
-      quantCosts.add(minCost);
-    }
-
-    if (quantCosts.size() > 0) {
-      IntExpr[] costArray = quantCosts.toArray(new IntExpr[quantCosts.size()]);
+    if (this.quantCosts.size() > 0) {
+      IntExpr[] costArray = this.quantCosts.toArray(new IntExpr[this.quantCosts.size()]);
       // this.opt.MkMinimize(this.ctx.mkAdd(costArray));
     }
 
@@ -150,6 +131,90 @@ public class Formula {
     }
   }
 
+  /**
+   * Adds constraints for more negative examples to a formula that has already
+   * been built (and possibly solved). Every constraint added by new examples
+   * only narrows the set of satisfying models so the existing Z3 context and
+   * the constraints already asserted in it are kept and only the constraints
+   * introduced by the new examples are asserted. This lets the solver reuse
+   * what it learned while solving earlier versions of the formula.
+   */
+  public void addNegatives (List<Set<Route>> negatives) {
+    this.negatives.addAll(negatives);
+    this.model = null;
+
+    this.encodeAllRelevantUnknownExits(negatives);
+
+    for (Set<Route> example : negatives) {
+      this.encodeNegativeExample(example);
+    }
+
+    // New characters may have been tallied in the meta-class tree which can
+    // introduce new candidate classes or new children of existing candidates.
+    for (UnknownId id : this.unknownChars) {
+      this.encodeCharClass(id, this.tree);
+    }
+  }
+
+  public int countExamples () {
+    return this.positives.size() + this.negatives.size();
+  }
+
+  private void encodeUnknownBounds (UnknownId id) {
+    UnknownBounds unknown = (UnknownBounds)(id.getUnknown());
+
+    IntExpr zero = this.ctx.mkInt(0);
+    IntExpr one  = this.ctx.mkInt(1);
+
+    // Create minimum and maximum bound variables.
+    IntExpr minVar = this.ctx.mkIntConst(id.toString() + "_min");
+    IntExpr maxVar = this.ctx.mkIntConst(id.toString() + "_max");
+
+    // Associate minimum and maximum bound variables with appropriate ID.
+    this.unknownToMinVar.put(id, minVar);
+    this.unknownToMaxVar.put(id, maxVar);
+
+    // Force every minimum bound to be <= corresponding maximum bound.
+    this.assertBoundsConstraint(this.ctx.mkLe(minVar, maxVar));
+    this.assertBoundsConstraint(this.ctx.mkGe(minVar, zero));
+    this.assertBoundsConstraint(this.ctx.mkGe(maxVar, one));
+
+    // (declare H0_min_cost Int)
+    // (declare H0_max_cost Int)
+    // (assert (= H0_min_cost (ite (= H0_min <old minimum>) 0 1)))
+    // (assert (= H0_max_cost (ite (= H0_max <old maximum>) 0 1)))
+    // (minimize (+ H0_min_cost H0_max_cost))
+    int oldMin = unknown.getMin();
+    int oldMax = unknown.hasMax() ? unknown.getMax() : Bounds.MAX_BOUND;
+
+    IntExpr minCost = this.ctx.mkIntConst(id.toString() + "_min_cost");
+    IntExpr maxCost = this.ctx.mkIntConst(id.toString() + "_max_cost");
+
+    this.opt.Assert(this.ctx.mkEq(minCost, this.ctx.mkITE(
+      this.ctx.mkEq(minVar, this.ctx.mkInt(oldMin)),
+      zero,
+      one)));
+
+    this.opt.Assert(this.ctx.mkEq(maxCost, this.ctx.mkITE(
+      this.ctx.mkEq(maxVar, this.ctx.mkInt(oldMax)),
+      zero,
+      one)));
+
+    this.quantCosts.add(maxCost);
+    this.quantCosts.add(minCost);
+  }
+
+  private void assertBoundsConstraint (BoolExpr constraint) {
+    this.opt.Assert(constraint);
+    this.boundsConstraints.add(constraint);
+  }
+
+  private void addExampleConstraint (Set<Route> example, BoolExpr constraint) {
+    this.opt.Add(constraint);
+    this.exampleConstraints.add(constraint);
+    this.constrainedExamples.add(example);
+  }
+
   private void encodeRoutes () {
     for (Set<Route> example : this.positives) {
       this.encodePositiveExample(example);
@@ -194,7 +259,7 @@ public class Formula {
     }
 
     if (whole != null) {
-      this.opt.Add(whole);
+      this.addExampleConstraint(example, whole);
     }
   }
 
@@ -262,7 +327,7 @@ public class Formula {
     }
 
     if (whole != null) {
-      this.opt.Add(whole);
+      this.addExampleConstraint(example, whole);
     }
   }
 
@@ -364,11 +429,13 @@ public class Formula {
     return var;
   }
 
-  private void getAllRelevantUnknownExits (List<Set<Route>> data) {
+  private void encodeAllRelevantUnknownExits (List<Set<Route>> data) {
     for (Set<Route> s : data) {
       for (Route r : s) {
         for (UnknownId id : r.getExits().keySet()) {
-          this.unknownBounds.add(id);
+          if (this.unknownBounds.add(id)) {
+            this.encodeUnknownBounds(id);
+          }
         }
       }
     }
@@ -468,10 +535,26 @@ public class Formula {
   }
 
   private BoolExpr encodeMetaCharClass (UnknownId id, Set<BoolExpr> vars, MetaClassTree tree) {
-    BoolExpr var = this.encodeWeightedConstraint(id, tree);
+    if (this.unknownToTreeToMetaVar.containsKey(id) == false) {
+      this.unknownToTreeToMetaVar.put(id, new HashMap<>());
+    }
+
+    // If the formula is being extended with new examples, this meta-class may
+    // already have a variable in which case only the relations to any new
+    // child classes need to be added.
+    BoolExpr var = this.unknownToTreeToMetaVar.get(id).get(tree);
+    if (var == null) {
+      var = this.encodeWeightedConstraint(id, tree);
+      this.unknownToTreeToMetaVar.get(id).put(tree, var);
+      this.metaVarToChildVars.put(var, new HashSet<>());
+    }
+
+    BoolExpr metaVar = var;
+    Set<BoolExpr> related = this.metaVarToChildVars.get(metaVar);
     BoolExpr relations = vars
       .stream()
-      .map(v -> this.ctx.mkOr(this.ctx.mkNot(var), v))
+      .filter(v -> related.add(v))
+      .map(v -> this.ctx.mkOr(this.ctx.mkNot(metaVar), v))
       .reduce(null, (accum, v) -> (accum == null) ? v : this.ctx.mkAnd(accum, v));
 
     if (relations != null) {
@@ -513,8 +596,26 @@ public class Formula {
     /**
      * First, check that the formula was satisifed
      */
-    if (this.opt.Check() == Status.UNSATISFIABLE) {
+    // The optimizer is shared with earlier formulae built in the same context
+    // so a time limit one of them set has to be replaced even if this search
+    // has no time limit.
+    Params params = this.getTimeLimit();
+    if (params == null) {
+      params = this.ctx.mkParams();
+      params.add("timeout", Integer.MAX_VALUE);
+    }
+    this.opt.setParameters(params);
+
+    Status status = this.opt.Check();
+    this.diag.registry().maxInt("maximumNativeMemory", ContextPool.estimateNativeMemory());
+    this.unsatisfiable = (status == Status.UNSATISFIABLE);
+
+    if (status == Status.UNSATISFIABLE) {
       throw new SynthesisFailure("unsatisfiable SAT formula");
+    } else if (status == Status.UNKNOWN) {
+      // The solver gives up when it runs out of time.
+      this.diag.deadline().check();
+      throw new SynthesisFailure("SAT solver gave up: " + this.opt.getReasonUnknown());
     } else {
       // Use the SAT solver to attempt to resolve the variables and their constraints.
       this.model = this.opt.getModel();
@@ -528,6 +629,81 @@ public class Formula {
     }
   }
 
+  public boolean isUnsatisfiable () {
+    return this.unsatisfiable;
+  }
+
+  /**
+   * After the formula was found to be unsatisfiable, returns the routes of
+   * some of the examples whose constraints can't be satisfied together. Only
+   * the constraints built from the examples' routes (and the basic limits on
+   * repetition bounds) are considered so any formula containing the same
+   * routes for those examples is unsatisfiable too. Returns null if the
+   * examples' constraints are only unsatisfiable together with the rest of
+   * the formula.
+   */
+  public List<Set<Route>> getUnsatCore () {
+    if (this.unsatisfiable == false) {
+      throw new IllegalStateException("unsat core requested before formula was unsatisfiable");
+    }
+
+    Solver solver = this.ctx.mkSolver();
+    Params params = this.getTimeLimit();
+    if (params != null) {
+      solver.setParameters(params);
+    }
+
+    for (BoolExpr constraint : this.boundsConstraints) {
+      solver.add(constraint);
+    }
+
+    // Each example's constraint is guarded by its own indicator variable so
+    // the solver can report which examples it needed to reach a conflict.
+    BoolExpr[] indicators = new BoolExpr[this.exampleConstraints.size()];
+    Map<BoolExpr, Set<Route>> indicatorToExample = new HashMap<>();
+    for (int i = 0; i < indicators.length; i++) {
+      indicators[i] = this.ctx.mkBoolConst(String.format("E%d_core", i));
+      solver.add(this.ctx.mkImplies(indicators[i], this.exampleConstraints.get(i)));
+      indicatorToExample.put(indicators[i], this.constrainedExamples.get(i));
+    }
+
+    try {
+      if (solver.check(indicators) != Status.UNSATISFIABLE) {
+        return null;
+      }
+
+      List<Set<Route>> core = new ArrayList<>();
+      for (BoolExpr indicator : solver.getUnsatCore()) {
+        core.add(indicatorToExample.get(indicator));
+      }
+
+      return core;
+    } finally {
+      // Drop the solver's assertions now rather than leaving them in the
+      // context (which may be reused) until the solver is garbage collected.
+      solver.reset();
+    }
+  }
+
+  /**
+   * Returns solver parameters that stop the solver at the search's deadline
+   * or null if the search has no time limit. Throws if the deadline has
+   * already passed.
+   */
+  private Params getTimeLimit () {
+    Deadline deadline = this.diag.deadline();
+    deadline.check();
+
+    long remaining = deadline.getRemainingMillis();
+    if (remaining == Long.MAX_VALUE) {
+      return null;
+    }
+
+    Params params = this.ctx.mkParams();
+    params.add("timeout", (int) Math.min(Integer.MAX_VALUE, remaining));
+    return params;
+  }
+
   public Map<UnknownId, CharClass> getCharSolutions () throws SynthesisFailure {
     if (this.model == null) {
       throw new IllegalStateException("solutions requested before model was solved");
@@ -639,6 +815,21 @@ public class Formula {
     return Bounds.between(min, max);
   }
 
+  /**
+   * Gives the formula's Z3 context back to the shared pool. The formula (and
+   * any solutions that haven't been extracted yet) can't be used afterwards.
+   */
+  @Override
+  public void close () {
+    if (this.lease != null) {
+      this.model = null;
+      this.opt = null;
+      this.ctx = null;
+      ContextPool.shared().release(this.lease);
+      this.lease = null;
+    }
+  }
+
   @Override
   public String toString () {
     return this.opt.toString();
@@ -10,6 +10,8 @@ import edu.wisc.regfixer.automata.Route;
 import edu.wisc.regfixer.diagnostic.Diagnostic;
 import edu.wisc.regfixer.enumerate.Enumerant;
 import edu.wisc.regfixer.enumerate.Grafter;
+import edu.wisc.regfixer.enumerate.PatternCache;
+import edu.wisc.regfixer.enumerate.Renderer;
 import edu.wisc.regfixer.enumerate.Unknown;
 import edu.wisc.regfixer.enumerate.UnknownBounds;
 import edu.wisc.regfixer.enumerate.UnknownChar;
@@ -22,6 +24,9 @@ import edu.wisc.regfixer.parser.CharRangeNode;
 import edu.wisc.regfixer.parser.RegexNode;
 
 public class Synthesis {
+  // Any unknown bounds left in a synthesized tree are rendered as {0}.
+  private static final Renderer renderer = new Renderer(UnknownChar.FillType.Default, Bounds.exactly(0));
+
   private RegexNode tree;
   private int totalCharLiterals;
 
@@ -30,7 +35,16 @@ public class Synthesis {
   }
 
   public Synthesis (Enumerant enumerant, List<Set<Route>> positives, List<Set<Route>> negatives, Diagnostic diag) throws SynthesisFailure {
-    Formula formula = new Formula(positives, negatives, diag);
+    try (Formula formula = new Formula(positives, negatives, diag)) {
+      this.solve(enumerant, formula, diag);
+    }
+  }
+
+  public Synthesis (Enumerant enumerant, Formula formula, Diagnostic diag) throws SynthesisFailure {
+    this.solve(enumerant, formula, diag);
+  }
+
+  private void solve (Enumerant enumerant, Formula formula, Diagnostic diag) throws SynthesisFailure {
     diag.timing().startTiming("timeSATSolver");
     formula.solve();
     diag.timing().stopTimingAndAdd("timeSATSolver");
@@ -86,22 +100,17 @@ public class Synthesis {
   }
 
   public Pattern toPattern (boolean withAnchors) {
-    UnknownBounds.setFill(Bounds.exactly(0));
+    String regex = Synthesis.renderer.render(this.tree);
 
-    Pattern p = this.toPattern();
     if (withAnchors) {
-      p = Pattern.compile(String.format("^%s$", this.tree));
+      return PatternCache.compile(String.format("^%s$", regex));
+    } else {
+      return PatternCache.compile(regex);
     }
-
-    UnknownBounds.clearFill();
-    return p;
   }
 
   public Pattern toPattern () {
-    UnknownBounds.setFill(Bounds.exactly(0));
-    Pattern p = Pattern.compile(this.tree.toString());
-    UnknownBounds.clearFill();
-    return p;
+    return this.toPattern(false);
   }
 
   @Override
@@ -0,0 +1,94 @@
+package edu.wisc.regfixer;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import edu.wisc.regfixer.diagnostic.Diagnostic;
+import edu.wisc.regfixer.enumerate.Enumerant;
+import edu.wisc.regfixer.enumerate.Enumerants;
+import edu.wisc.regfixer.enumerate.Job;
+import edu.wisc.regfixer.enumerate.Range;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class CheckpointTest {
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  private static Job job () {
+    Set<Range> positives = new HashSet<>();
+    positives.add(new Range(0, 3));
+    return new Job("test", "a(b|c)\\d", "ab1 ac2", positives);
+  }
+
+  @Test
+  public void testResumesWithThePolledTemplate () throws Exception {
+    Path file = this.folder.getRoot().toPath().resolve("search.checkpoint");
+    Job job = job();
+
+    Diagnostic diag = new Diagnostic();
+    diag.registry().setInt("templatesTotal", 20);
+    Enumerants enumerants = new Enumerants(job.getTree(), job.getCorpus(), diag);
+    Enumerant polled = null;
+    for (int i = 0; i < 20; i++) {
+      polled = enumerants.poll();
+    }
+
+    Map<String, Integer> solutions = new HashMap<>();
+    solutions.put("a[bc]\\d", 4);
+    Checkpoint.save(file, job, enumerants, true, 7, solutions, diag);
+
+    Diagnostic resumedDiag = new Diagnostic();
+    Checkpoint resumed = Checkpoint.load(file, job, resumedDiag);
+    assertEquals(7, resumed.getCostCutoff());
+    assertEquals(solutions, resumed.getSolutions());
+    assertEquals(20, resumedDiag.getInt("templatesTotal"));
+
+    Enumerant next = resumed.getEnumerants().poll();
+    assertEquals(polled.toString(), next.toString());
+    assertEquals(polled.getIds(), next.getIds());
+    assertEquals(enumerants.poll().toString(), resumed.getEnumerants().poll().toString());
+  }
+
+  @Test
+  public void testWriterSavesOncePerInterval () throws Exception {
+    Path file = this.folder.getRoot().toPath().resolve("search.checkpoint");
+    Job job = job();
+    Diagnostic diag = new Diagnostic();
+    Enumerants enumerants = new Enumerants(job.getTree(), job.getCorpus(), diag);
+
+    try (Checkpoint.Writer checkpoints = new Checkpoint.Writer(file, 200)) {
+      assertFalse(checkpoints.isDue());
+      Thread.sleep(250);
+      assertTrue(checkpoints.isDue());
+
+      enumerants.poll();
+      checkpoints.save(Checkpoint.snapshot(job, enumerants, false, Integer.MAX_VALUE, new HashMap<>(), diag));
+      assertFalse(checkpoints.isDue());
+    }
+
+    // Closing the writer waits for the snapshot to be written.
+    assertTrue(Files.exists(file));
+    Enumerant next = enumerants.poll();
+    assertEquals(next.toString(), Checkpoint.load(file, job, new Diagnostic()).getEnumerants().poll().toString());
+  }
+
+  @Test
+  public void testWriterWithoutAFileSavesNothing () throws Exception {
+    try (Checkpoint.Writer checkpoints = new Checkpoint.Writer(null, 0)) {
+      assertFalse(checkpoints.isDue());
+      checkpoints.save(new byte[0]);
+    }
+
+    assertEquals(0, this.folder.getRoot().list().length);
+  }
+}
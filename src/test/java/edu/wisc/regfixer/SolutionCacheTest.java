@@ -0,0 +1,179 @@
+package edu.wisc.regfixer;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicReference;
+
+import edu.wisc.regfixer.diagnostic.Deadline;
+import edu.wisc.regfixer.diagnostic.Diagnostic;
+import edu.wisc.regfixer.enumerate.Job;
+import edu.wisc.regfixer.enumerate.Range;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class SolutionCacheTest {
+  private static final int LIMIT = 1000;
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  private static Job job (String regex) {
+    Set<Range> positives = new HashSet<>();
+    positives.add(new Range(0, 3));
+    return new Job("test", regex, "abc abd", positives);
+  }
+
+  private static Path entry (Path directory, Job job) {
+    return directory.resolve(SolutionCache.getKey(job, LIMIT, new Diagnostic()) + ".json");
+  }
+
+  private static List<Path> files (Path directory) throws Exception {
+    List<Path> files = new ArrayList<>();
+
+    try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory)) {
+      for (Path file : stream) {
+        files.add(file);
+      }
+    }
+
+    return files;
+  }
+
+  @Test
+  public void testRoundTrip () throws Exception {
+    SolutionCache cache = new SolutionCache(this.folder.getRoot().toPath());
+    Job job = job("ab\\w");
+
+    Diagnostic search = new Diagnostic();
+    search.registry().setInt("templatesTotal", 42);
+    cache.put(job, LIMIT, "abc", 1234, search);
+
+    Diagnostic diag = new Diagnostic();
+    assertEquals("abc", cache.get(job, LIMIT, diag));
+    assertEquals(42, diag.getInt("templatesTotal"));
+    assertEquals(1234, diag.getInt("cachedSearchMillis"));
+
+    assertNull(cache.get(job("a\\w\\w"), LIMIT, new Diagnostic()));
+  }
+
+  @Test
+  public void testKeyIncludesSearchOptions () throws Exception {
+    SolutionCache cache = new SolutionCache(this.folder.getRoot().toPath());
+    Job job = job("ab\\w");
+    cache.put(job, LIMIT, "abc", 1, new Diagnostic());
+
+    // A different loop limit or different pruning tests may find another
+    // repair so they don't share entries.
+    assertNull(cache.get(job, LIMIT + 1, new Diagnostic()));
+
+    Diagnostic tested = new Diagnostic();
+    tested.registry().setBool("test-dot", true);
+    assertNull(cache.get(job, LIMIT, tested));
+    assertNotEquals(
+      SolutionCache.getKey(job, LIMIT, new Diagnostic()),
+      SolutionCache.getKey(job, LIMIT, tested));
+
+    // A search with a deadline may stop before it finds the repair an
+    // unlimited search would.
+    Diagnostic limited = new Diagnostic();
+    limited.setDeadline(new Deadline(60000));
+    assertNull(cache.get(job, LIMIT, limited));
+
+    assertEquals("abc", cache.get(job, LIMIT, new Diagnostic()));
+  }
+
+  @Test
+  public void testEvictsLeastRecentlyUsed () throws Exception {
+    Path directory = this.folder.newFolder().toPath();
+    Job first = job("a\\w\\w");
+    Job second = job("ab\\w");
+    Job third = job("\\w\\w\\w");
+
+    // Measure one entry to size the cache for two.
+    Path sizing = this.folder.newFolder().toPath();
+    new SolutionCache(sizing).put(first, LIMIT, "abc", 1, new Diagnostic());
+    long entryBytes = Files.size(files(sizing).get(0));
+
+    SolutionCache cache = new SolutionCache(directory, 2 * entryBytes + entryBytes / 2);
+    cache.put(first, LIMIT, "abc", 1, new Diagnostic());
+    cache.put(second, LIMIT, "abc", 1, new Diagnostic());
+
+    // Make the first entry the older one, then read it so that it's the most
+    // recently used.
+    long now = System.currentTimeMillis();
+    Files.setLastModifiedTime(entry(directory, first), FileTime.fromMillis(now - 120000));
+    Files.setLastModifiedTime(entry(directory, second), FileTime.fromMillis(now - 60000));
+    assertEquals("abc", cache.get(first, LIMIT, new Diagnostic()));
+
+    cache.put(third, LIMIT, "abc", 1, new Diagnostic());
+
+    assertEquals(2, files(directory).size());
+    assertEquals("abc", cache.get(first, LIMIT, new Diagnostic()));
+    assertNull(cache.get(second, LIMIT, new Diagnostic()));
+    assertEquals("abc", cache.get(third, LIMIT, new Diagnostic()));
+  }
+
+  @Test
+  public void testUnreadableEntriesAreMisses () throws Exception {
+    Path directory = this.folder.getRoot().toPath();
+    SolutionCache cache = new SolutionCache(directory);
+    Job job = job("ab\\w");
+    cache.put(job, LIMIT, "abc", 1, new Diagnostic());
+
+    Files.write(entry(directory, job), "{\"solution\": \"ab".getBytes(StandardCharsets.UTF_8));
+    assertNull(cache.get(job, LIMIT, new Diagnostic()));
+  }
+
+  /**
+   * Entries are written to a temporary file and moved into place so readers
+   * racing a writer see the old entry or the new one, never a partial one,
+   * and no temporary files are left behind.
+   */
+  @Test
+  public void testWritesAreAtomic () throws Exception {
+    Path directory = this.folder.getRoot().toPath();
+    SolutionCache cache = new SolutionCache(directory);
+    Job job = job("ab\\w");
+
+    StringBuilder longer = new StringBuilder();
+    for (int i = 0; i < 10000; i++) {
+      longer.append("(abc)");
+    }
+
+    String[] solutions = { "abc", longer.toString() };
+    cache.put(job, LIMIT, solutions[0], 1, new Diagnostic());
+
+    AtomicReference<String> unexpected = new AtomicReference<>();
+    Thread writer = new Thread(() -> {
+      for (int i = 0; i < 200; i++) {
+        cache.put(job, LIMIT, solutions[i % 2], 1, new Diagnostic());
+      }
+    });
+
+    writer.start();
+    while (writer.isAlive()) {
+      String read = cache.get(job, LIMIT, new Diagnostic());
+      if (solutions[0].equals(read) == false && solutions[1].equals(read) == false) {
+        unexpected.set(String.valueOf(read));
+      }
+    }
+    writer.join();
+
+    assertNull(unexpected.get());
+    assertEquals(1, files(directory).size());
+    assertTrue(files(directory).get(0).toString().endsWith(".json"));
+  }
+}
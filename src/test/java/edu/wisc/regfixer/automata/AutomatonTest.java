@@ -0,0 +1,56 @@
+package edu.wisc.regfixer.automata;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedList;
+import java.util.Set;
+
+import edu.wisc.regfixer.enumerate.UnknownBounds;
+import edu.wisc.regfixer.enumerate.UnknownCounter;
+import edu.wisc.regfixer.enumerate.UnknownId;
+import edu.wisc.regfixer.parser.CharLiteralNode;
+import edu.wisc.regfixer.parser.ConcatNode;
+import edu.wisc.regfixer.parser.OptionalNode;
+import edu.wisc.regfixer.parser.RegexNode;
+import edu.wisc.regfixer.parser.RepetitionNode;
+import edu.wisc.regfixer.parser.UnionNode;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class AutomatonTest {
+  private static Set<Integer> exitsOf (RegexNode tree, UnknownId id, String source) throws Exception {
+    Set<Route> routes = new Automaton(tree).trace(source);
+    assertEquals(1, routes.size());
+    return routes.iterator().next().getExits().get(id);
+  }
+
+  @Test
+  public void testQuantifierInsideOptionalIsTallied () throws Exception {
+    UnknownBounds bounds = new UnknownBounds(new UnknownCounter());
+    RegexNode repetition = new RepetitionNode(new CharLiteralNode('b'), bounds);
+    RegexNode tree = new ConcatNode(new LinkedList<>(Arrays.asList(new CharLiteralNode('a'), new OptionalNode(repetition))));
+
+    // a((b){■})? on abbb repeats the quantifier 3 times.
+    assertEquals(Collections.singleton(3), exitsOf(tree, bounds.getId(), "abbb"));
+  }
+
+  @Test
+  public void testQuantifierInsideAlternativeIsTallied () throws Exception {
+    UnknownBounds bounds = new UnknownBounds(new UnknownCounter());
+    RegexNode repetition = new RepetitionNode(new CharLiteralNode('b'), bounds);
+    RegexNode tree = new UnionNode(new CharLiteralNode('x'), repetition);
+
+    // x|(b){■} on bb repeats the quantifier twice.
+    assertEquals(Collections.singleton(2), exitsOf(tree, bounds.getId(), "bb"));
+  }
+
+  @Test
+  public void testQuantifierInsideManyAlternativesIsTallied () throws Exception {
+    UnknownBounds bounds = new UnknownBounds(new UnknownCounter());
+    RegexNode repetition = new RepetitionNode(new CharLiteralNode('c'), bounds);
+    RegexNode tree = new UnionNode(new UnionNode(new CharLiteralNode('a'), new CharLiteralNode('b')), repetition);
+
+    assertEquals(Collections.singleton(4), exitsOf(tree, bounds.getId(), "cccc"));
+  }
+}
@@ -0,0 +1,156 @@
+package edu.wisc.regfixer.automata;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.regex.Pattern;
+
+import edu.wisc.regfixer.diagnostic.Diagnostic;
+import edu.wisc.regfixer.enumerate.Corpus;
+import edu.wisc.regfixer.enumerate.Enumerant;
+import edu.wisc.regfixer.enumerate.Enumerants;
+import edu.wisc.regfixer.enumerate.Range;
+import edu.wisc.regfixer.parser.Main;
+import edu.wisc.regfixer.parser.RegexNode;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class CompiledAutomatonTest {
+  private static final String[] PATTERNS = {
+    "abc",
+    "a|b",
+    "(ab|a)c",
+    "(a|ab)(c|bcd)",
+    "(a(b)+)+",
+    "(ab*)*c",
+    "a*(ab)?",
+    "((a|b)*c)+",
+    "(a?)*b",
+    "a{2,3}b?",
+    "(a{1,2}){2}",
+    "(a|(b){1,2})*c",
+    "\\d+\\w*",
+    "[^a]b?",
+  };
+
+  // Each seed is enumerated into templates (the original expression with
+  // parts replaced by unknown characters and bounds) whose traces are
+  // compared against the reference trace.
+  private static final String[] SEEDS = {
+    "abc",
+    "(a|b)c",
+    "a(b)*c",
+    "(ab)+",
+    "(a(b)+)+",
+    "x|(b)?",
+    "(a)*(b)*x",
+  };
+
+  private static final int TEMPLATES_PER_SEED = 40;
+
+  private static List<String> strings (String alphabet, int maxLength) {
+    List<String> strs = new ArrayList<>();
+    strs.add("");
+
+    for (int i = 0; i < strs.size(); i++) {
+      if (strs.get(i).length() < maxLength) {
+        for (char ch : alphabet.toCharArray()) {
+          strs.add(strs.get(i) + ch);
+        }
+      }
+    }
+
+    return strs;
+  }
+
+  @Test
+  public void testAcceptsAgreesWithRegex () throws Exception {
+    List<String> inputs = strings("abc1", 5);
+
+    for (String pattern : PATTERNS) {
+      Automaton automaton = new Automaton(Main.parse(pattern));
+      Pattern compiled = Pattern.compile(pattern);
+
+      for (String input : inputs) {
+        boolean expected = compiled.matcher(input).matches();
+        assertEquals(pattern + " on \"" + input + "\"", expected, automaton.accepts(input));
+      }
+    }
+  }
+
+  @Test
+  public void testAcceptsAllAgreesWithRegex () throws Exception {
+    List<String> inputs = strings("abc", 4);
+
+    for (String pattern : PATTERNS) {
+      Automaton automaton = new Automaton(Main.parse(pattern));
+      Pattern compiled = Pattern.compile(pattern);
+      Set<String> accepted = new TreeSet<>();
+      Set<String> rejected = new TreeSet<>();
+
+      for (String input : inputs) {
+        if (compiled.matcher(input).matches()) {
+          accepted.add(input);
+        } else {
+          rejected.add(input);
+        }
+      }
+
+      assertTrue(pattern, automaton.acceptsAll(accepted));
+      assertTrue(pattern, automaton.acceptsNone(rejected));
+      assertEquals(pattern, rejected.isEmpty(), automaton.acceptsAll(inputs));
+      assertEquals(pattern, accepted.isEmpty(), automaton.acceptsNone(inputs));
+    }
+  }
+
+  @Test
+  public void testTraceAgreesWithReference () throws Exception {
+    List<String> inputs = strings("abc", 4);
+
+    for (String pattern : PATTERNS) {
+      Automaton automaton = new Automaton(Main.parse(pattern));
+      ReferenceTrace reference = new ReferenceTrace(automaton);
+
+      for (String input : inputs) {
+        assertEquals(pattern + " on \"" + input + "\"", reference.trace(input), automaton.trace(input));
+      }
+    }
+  }
+
+  @Test
+  public void testTemplateTraceAgreesWithReference () throws Exception {
+    List<String> inputs = strings("abx", 4);
+    int traced = 0;
+
+    for (String seed : SEEDS) {
+      RegexNode tree = Main.parse(seed);
+      Set<Range> positives = new HashSet<>();
+      positives.add(new Range(0, 3));
+      Corpus corpus = new Corpus("abc abbc", positives, new HashSet<>());
+      Enumerants enumerants = new Enumerants(tree, corpus, new Diagnostic());
+
+      for (int i = 0; i < TEMPLATES_PER_SEED; i++) {
+        Enumerant enumerant = enumerants.poll();
+        if (enumerant == null) {
+          break;
+        }
+
+        Automaton automaton = new Automaton(enumerant.getTree());
+        ReferenceTrace reference = new ReferenceTrace(automaton);
+
+        for (String input : inputs) {
+          String message = enumerant + " on \"" + input + "\"";
+          assertEquals(message, reference.accepts(input), automaton.accepts(input));
+          assertEquals(message, reference.trace(input), automaton.trace(input));
+          traced++;
+        }
+      }
+    }
+
+    assertTrue(traced > 0);
+  }
+}
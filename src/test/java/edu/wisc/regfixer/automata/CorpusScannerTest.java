@@ -0,0 +1,176 @@
+package edu.wisc.regfixer.automata;
+
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import edu.wisc.regfixer.enumerate.Corpus;
+import edu.wisc.regfixer.enumerate.Range;
+import edu.wisc.regfixer.parser.Main;
+import edu.wisc.regfixer.parser.RegexNode;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class CorpusScannerTest {
+  private static final String[] PATTERNS = {
+    "abc",
+    "a|b",
+    "(ab|a)c",
+    "(a|ab)(c|bcd)",
+    "^ab",
+    "b$",
+    "^(a|b)+$",
+    "(a(b)+)+",
+    "(ab*)*c",
+    "a*(ab)?",
+    "((a|b)*c)+",
+    "(a?)*b",
+    "a{2,3}b?",
+    "(a{1,2}){2}",
+    "\\d+\\w*",
+    "[^a]b?",
+    "(\\w)+c",
+    "(a|ab)+b",
+    "((a|b)(b|a))+",
+    "(\\w+x|a)",
+    "a.c|.",
+    "^.+$",
+    "(ab|a){2,3}",
+  };
+
+  private static final String[] CORPORA = {
+    "",
+    "abc",
+    "aabcabbbcacbdab",
+    "ab ab\nabbc cab\n\nb",
+    "12ab3c aaab a1c bcd\nabcbcd",
+    "aaaaaaaabaaabbbbcccab",
+    "abx\r\n",
+    "a\rc a\u2028c\u0085",
+  };
+
+  private static Set<Range> find (String pattern, String corpus) {
+    Set<Range> ranges = new TreeSet<>();
+    Matcher matcher = Pattern.compile(pattern).matcher(corpus);
+
+    while (matcher.find()) {
+      ranges.add(new Range(matcher.start(), matcher.end()));
+    }
+
+    return ranges;
+  }
+
+  @Test
+  public void testScanAgreesWithRegex () throws Exception {
+    int scanned = 0;
+
+    for (String pattern : PATTERNS) {
+      RegexNode tree = Main.parse(pattern);
+
+      for (String corpus : CORPORA) {
+        if (CorpusScanner.supports(tree, CorpusScanner.containsSurrogates(corpus))) {
+          Set<Range> found = new CorpusScanner(tree).scan(corpus);
+          assertEquals(pattern + " in \"" + corpus + "\"", find(pattern, corpus), found);
+          scanned++;
+        }
+      }
+    }
+
+    assertTrue(scanned > 0);
+  }
+
+  @Test
+  public void testCorpusMatchesAgreeWithRegex () throws Exception {
+    for (String pattern : PATTERNS) {
+      RegexNode tree = Main.parse(pattern);
+
+      for (String corpus : CORPORA) {
+        Corpus c = new Corpus(corpus, new HashSet<>(), new HashSet<>());
+        assertEquals(pattern + " in \"" + corpus + "\"", find(pattern, corpus), c.getMatches(tree));
+      }
+    }
+  }
+
+  /**
+   * Compares the scanner with the regex engine on random trees full of
+   * unions and nested quantifiers, where the order in which the engine
+   * tries alternatives decides which match it finds.
+   */
+  @Test
+  public void testRandomTreesAgreeWithRegex () throws Exception {
+    Random random = new Random(7);
+    int scanned = 0;
+
+    for (int t = 0; t < 5000; t++) {
+      String pattern = randomPattern(random, 3);
+      RegexNode tree = Main.parse(pattern);
+
+      StringBuilder corpus = new StringBuilder();
+      int length = random.nextInt(16);
+      for (int i = 0; i < length; i++) {
+        corpus.append("ab1c x\n".charAt(random.nextInt(7)));
+      }
+
+      if (CorpusScanner.supports(tree, false)) {
+        Set<Range> found = new CorpusScanner(tree).scan(corpus);
+        assertEquals(pattern + " in \"" + corpus + "\"", find(pattern, corpus.toString()), found);
+        scanned++;
+      }
+    }
+
+    assertTrue(scanned > 2500);
+  }
+
+  private static String randomPattern (Random random, int depth) {
+    String[] atoms = { "a", "b", "c", "[ab]", "\\d", "[^a]", "\\w", "." };
+
+    switch (depth == 0 ? 6 : random.nextInt(8)) {
+      case 0:  return randomPattern(random, depth - 1) + randomPattern(random, depth - 1);
+      case 1:  return "(" + randomPattern(random, depth - 1) + ")*";
+      case 2:  return "(" + randomPattern(random, depth - 1) + ")+";
+      case 3:  return "(" + randomPattern(random, depth - 1) + ")?";
+      case 4:  return "(" + randomPattern(random, depth - 1) + "|" + randomPattern(random, depth - 1) + ")";
+      case 5:  return "(" + randomPattern(random, depth - 1) + "){1,2}";
+      default: return atoms[random.nextInt(atoms.length)];
+    }
+  }
+
+  @Test(timeout = 10000)
+  public void testNestedQuantifiersScanInLinearTime () throws Exception {
+    StringBuilder corpus = new StringBuilder();
+    for (int i = 0; i < 100000; i++) {
+      corpus.append('a');
+    }
+
+    RegexNode tree = Main.parse("(a(a)+)+b");
+    assertTrue(CorpusScanner.supports(tree, false));
+    assertTrue(new CorpusScanner(tree).scan(corpus).isEmpty());
+  }
+
+  @Test
+  public void testSupports () throws Exception {
+    assertTrue(CorpusScanner.supports(Main.parse("abc"), false));
+    assertTrue(CorpusScanner.supports(Main.parse("(a(b)+)+"), false));
+    assertTrue(CorpusScanner.supports(Main.parse("(ab*)*c"), false));
+    assertTrue(CorpusScanner.supports(Main.parse("a.c"), false));
+    assertTrue(CorpusScanner.supports(Main.parse("a|b"), false));
+    assertTrue(CorpusScanner.supports(Main.parse("a*(ab)?"), false));
+    assertTrue(CorpusScanner.supports(Main.parse("^ab"), false));
+    assertTrue(CorpusScanner.supports(Main.parse("b$"), false));
+
+    // The regex engine stops repeating a body after an empty iteration.
+    assertFalse(CorpusScanner.supports(Main.parse("(a?)*b"), false));
+
+    // The regex engine reads ^a|b$ as (^a)|(b$).
+    assertFalse(CorpusScanner.supports(Main.parse("^a|b$"), false));
+
+    // The regex engine matches surrogate pairs as a single character.
+    assertFalse(CorpusScanner.supports(Main.parse("abc"), true));
+  }
+}
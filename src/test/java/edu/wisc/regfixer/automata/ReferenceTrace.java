@@ -0,0 +1,205 @@
+package edu.wisc.regfixer.automata;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.Stack;
+import java.util.stream.Collectors;
+
+import automata.Move;
+import automata.sfa.SFAInputMove;
+import edu.wisc.regfixer.enumerate.UnknownId;
+import org.sat4j.specs.TimeoutException;
+import theory.characters.CharPred;
+import theory.intervals.UnaryCharIntervalSolver;
+
+/**
+ * ReferenceTrace is the simulation Automaton used before it was compiled into
+ * a CompiledAutomaton. It walks the automaton's moves directly so it is slow
+ * but easy to check by hand, and the tests use it as the expected result for
+ * Automaton#trace and Automaton#accepts.
+ *
+ * Its trace lists every path that reads the source one at a time (any path
+ * that doesn't visit the same state twice between two characters) and walks
+ * each one back from its end to build its route.
+ */
+class ReferenceTrace {
+  private static final UnaryCharIntervalSolver solver = new UnaryCharIntervalSolver();
+
+  private final Automaton automaton;
+
+  private static class Step {
+    private final int stateId;
+    private final Step parent;
+    private final Character value;
+    private final UnknownId id;
+
+    private Step (int stateId, Step parent, Character value, UnknownId id) {
+      this.stateId = stateId;
+      this.parent = parent;
+      this.value = value;
+      this.id = id;
+    }
+  }
+
+  ReferenceTrace (Automaton automaton) {
+    this.automaton = automaton;
+  }
+
+  boolean accepts (String source) throws TimeoutException {
+    List<Step> frontier = getEpsClosure(Collections.singletonList(new Step(this.automaton.getInitialState(), null, null, null)));
+
+    for (int i = 0; i < source.length(); i++) {
+      frontier = getEpsClosure(getNextSteps(frontier, source.charAt(i)));
+
+      if (frontier.isEmpty()) {
+        return false;
+      }
+    }
+
+    return frontier.stream().anyMatch(s -> isFinalState(s.stateId));
+  }
+
+  Set<Route> trace (String source) throws TimeoutException {
+    Set<Route> routes = new HashSet<>();
+    Set<Integer> visited = new HashSet<>();
+    visited.add(this.automaton.getInitialState());
+    this.follow(source, 0, new Step(this.automaton.getInitialState(), null, null, null), visited, routes);
+    return routes;
+  }
+
+  /**
+   * Follows every path that continues the path ending in 'step' (which has
+   * read the first 'read' characters of the source and visited the states in
+   * 'visited' since it read its last character) and adds the routes of those
+   * that end in a final state once the whole source is read.
+   */
+  private void follow (String source, int read, Step step, Set<Integer> visited, Set<Route> routes) throws TimeoutException {
+    if (read == source.length() && isFinalState(step.stateId)) {
+      routes.add(traceFromStep(step));
+    }
+
+    for (Move<CharPred, Character> move : this.automaton.getMovesFrom(step.stateId)) {
+      if (move.isEpsilonTransition()) {
+        if (visited.add(move.to)) {
+          this.follow(source, read, new Step(move.to, step, null, null), visited, routes);
+          visited.remove(move.to);
+        }
+      } else if (read < source.length() && move.hasModel(source.charAt(read), solver)) {
+        UnknownId id = null;
+        if (move instanceof SFAInputMove && ((SFAInputMove) move).guard instanceof UnknownPred) {
+          id = ((UnknownPred) ((SFAInputMove) move).guard).getId();
+        }
+
+        Set<Integer> next = new HashSet<>();
+        next.add(move.to);
+        this.follow(source, read + 1, new Step(move.to, step, source.charAt(read), id), next, routes);
+      }
+    }
+  }
+
+  private boolean isFinalState (int stateId) {
+    return this.automaton.getFinalStates().contains(stateId);
+  }
+
+  private List<Step> getEpsClosure (List<Step> frontier) {
+    List<Step> reached = new LinkedList<>(frontier);
+    Set<Integer> seen = frontier.stream()
+      .map(s -> s.stateId)
+      .collect(Collectors.toSet());
+    LinkedList<Step> toVisit = new LinkedList<>(frontier);
+
+    while (toVisit.size() > 0) {
+      Step curr = toVisit.removeFirst();
+      for (Move<CharPred, Character> move : this.automaton.getMovesFrom(curr.stateId)) {
+        if (move.isEpsilonTransition()) {
+          Step next = new Step(move.to, curr, null, null);
+          reached.add(next);
+
+          if (seen.add(next.stateId)) {
+            toVisit.add(next);
+          }
+        }
+      }
+    }
+
+    return reached;
+  }
+
+  private List<Step> getNextSteps (List<Step> frontier, char ch) throws TimeoutException {
+    List<Step> next = new LinkedList<>();
+
+    for (Step step : frontier) {
+      for (Move<CharPred, Character> move : this.automaton.getMovesFrom(step.stateId)) {
+        if (move.isEpsilonTransition() || move.hasModel(ch, solver) == false) {
+          continue;
+        }
+
+        UnknownId id = null;
+        if (move instanceof SFAInputMove && ((SFAInputMove) move).guard instanceof UnknownPred) {
+          id = ((UnknownPred) ((SFAInputMove) move).guard).getId();
+        }
+
+        next.add(new Step(move.to, step, ch, id));
+      }
+    }
+
+    return next;
+  }
+
+  private Route traceFromStep (Step end) {
+    Map<UnknownId, Integer> entryStates = this.automaton.unknownToEntryState;
+    Map<UnknownId, Set<Integer>> exitStates = this.automaton.unknownToExitStates;
+    Map<UnknownId, Set<Character>> crosses = new HashMap<>();
+    Map<UnknownId, Stack<Integer>> tally = new HashMap<>();
+
+    for (UnknownId id : entryStates.keySet()) {
+      tally.put(id, new Stack<>());
+      tally.get(id).push(null);
+    }
+
+    Step prev = null;
+    for (Step curr = end; curr != null; curr = curr.parent) {
+      if (curr.value != null && curr.id != null) {
+        crosses.computeIfAbsent(curr.id, k -> new HashSet<>()).add(curr.value);
+      }
+
+      for (Map.Entry<UnknownId, Integer> entry : entryStates.entrySet()) {
+        if (entry.getValue() == curr.stateId) {
+          Integer old = tally.get(entry.getKey()).pop();
+          tally.get(entry.getKey()).push((old == null) ? 1 : old + 1);
+        }
+      }
+
+      for (Map.Entry<UnknownId, Set<Integer>> entry : exitStates.entrySet()) {
+        Integer entryState = entryStates.get(entry.getKey());
+        if (entry.getValue().contains(curr.stateId) && prev != null && entryState != null && entryState != prev.stateId) {
+          // This exit doesn't loop back to the start of the quantifier so
+          // the next entries are counted separately.
+          tally.get(entry.getKey()).push(null);
+        }
+      }
+
+      prev = curr;
+    }
+
+    // Routes only keep the fewest and most repetitions.
+    Map<UnknownId, Set<Integer>> exits = new HashMap<>();
+    for (Map.Entry<UnknownId, Stack<Integer>> entry : tally.entrySet()) {
+      Set<Integer> counts = entry.getValue().stream()
+        .filter(i -> i != null)
+        .collect(Collectors.toSet());
+
+      exits.put(entry.getKey(), counts.isEmpty()
+        ? counts
+        : new HashSet<>(Arrays.asList(Collections.min(counts), Collections.max(counts))));
+    }
+
+    return new Route(crosses, exits);
+  }
+}
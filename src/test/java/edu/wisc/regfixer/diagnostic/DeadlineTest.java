@@ -0,0 +1,134 @@
+package edu.wisc.regfixer.diagnostic;
+
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.regex.Pattern;
+
+import edu.wisc.regfixer.enumerate.Corpus;
+import edu.wisc.regfixer.enumerate.Enumerants;
+import edu.wisc.regfixer.enumerate.Range;
+import edu.wisc.regfixer.parser.Main;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class DeadlineTest {
+  @Test
+  public void testUnlimited () {
+    Deadline deadline = new Deadline();
+    deadline.check();
+
+    assertFalse(deadline.isExpired());
+    assertEquals(-1, deadline.getMillis());
+    assertEquals(Long.MAX_VALUE, deadline.getRemainingMillis());
+  }
+
+  @Test
+  public void testTimeLimit () throws Exception {
+    Deadline deadline = new Deadline(50);
+    assertFalse(deadline.isExpired());
+    assertEquals(50, deadline.getMillis());
+    assertTrue(deadline.getRemainingMillis() >= 1 && deadline.getRemainingMillis() <= 50);
+
+    Thread.sleep(100);
+    assertTrue(deadline.isExpired());
+    assertEquals(1, deadline.getRemainingMillis());
+
+    try {
+      deadline.check();
+      fail();
+    } catch (DeadlineExceeded ex) {
+      assertEquals("search deadline reached", ex.getMessage());
+    }
+  }
+
+  @Test
+  public void testCancel () {
+    Deadline deadline = new Deadline(60000);
+    deadline.cancel();
+    assertTrue(deadline.isExpired());
+
+    try {
+      deadline.check();
+      fail();
+    } catch (DeadlineExceeded ex) {
+      assertEquals("search cancelled", ex.getMessage());
+    }
+  }
+
+  @Test
+  public void testWatchedCharsStopOnceCancelled () {
+    StringBuilder chars = new StringBuilder();
+    for (int i = 0; i < 100000; i++) {
+      chars.append('a');
+    }
+
+    Deadline deadline = new Deadline();
+    CharSequence watched = deadline.watch(chars);
+    for (int i = 0; i < watched.length(); i++) {
+      watched.charAt(i);
+    }
+
+    deadline.cancel();
+    try {
+      for (int i = 0; i < watched.length(); i++) {
+        watched.charAt(i);
+      }
+      fail();
+    } catch (DeadlineExceeded ex) {
+      assertEquals("search cancelled", ex.getMessage());
+    }
+  }
+
+  /**
+   * A backtracking match can't be interrupted but reads the corpus through
+   * the deadline so cancelling from another thread still stops it.
+   */
+  @Test(timeout = 10000)
+  public void testCancelStopsABacktrackingMatch () throws Exception {
+    StringBuilder chars = new StringBuilder();
+    for (int i = 0; i < 40; i++) {
+      chars.append('a');
+    }
+
+    Deadline deadline = new Deadline();
+    CharSequence watched = deadline.watch(chars);
+    AtomicReference<RuntimeException> thrown = new AtomicReference<>();
+
+    Thread matcher = new Thread(() -> {
+      try {
+        Pattern.compile("((a+)+)+b").matcher(watched).find();
+      } catch (RuntimeException ex) {
+        thrown.set(ex);
+      }
+    });
+
+    matcher.start();
+    Thread.sleep(100);
+    assertTrue(matcher.isAlive());
+
+    deadline.cancel();
+    matcher.join();
+    assertTrue(thrown.get() instanceof DeadlineExceeded);
+  }
+
+  @Test
+  public void testCancelledSearchPollsNothing () throws Exception {
+    Set<Range> positives = new HashSet<>();
+    positives.add(new Range(0, 3));
+    Corpus corpus = new Corpus("abc abd", positives, new HashSet<>());
+
+    Diagnostic diag = new Diagnostic();
+    Enumerants enumerants = new Enumerants(Main.parse("ab\\d"), corpus, diag);
+    assertNotNull(enumerants.poll());
+
+    diag.deadline().cancel();
+    assertNull(enumerants.poll());
+  }
+}
@@ -0,0 +1,45 @@
+package edu.wisc.regfixer.diagnostic;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class TimingTest {
+  @Test
+  public void testStartAndStopAddsDuration () throws Exception {
+    Timing timing = new Timing();
+    timing.startTiming("t");
+    Thread.sleep(2);
+    timing.stopTimingAndAdd("t");
+
+    long first = timing.getTiming("t");
+    assertTrue(first > 0);
+
+    timing.startTiming("t");
+    timing.stopTimingAndAdd("t");
+    assertTrue(timing.getTiming("t") >= first);
+  }
+
+  @Test
+  public void testStopWithoutStartIsIgnored () {
+    Timing timing = new Timing();
+    timing.stopTimingAndAdd("t");
+    assertEquals(0, timing.getTiming("t"));
+  }
+
+  @Test
+  public void testStopOnAnotherThreadIsIgnored () throws Exception {
+    Timing timing = new Timing();
+    timing.startTiming("t");
+
+    Thread worker = new Thread(() -> timing.stopTimingAndAdd("t"));
+    worker.start();
+    worker.join();
+    assertEquals(0, timing.getTiming("t"));
+
+    // The timing is still pending on the thread that started it.
+    timing.stopTimingAndAdd("t");
+    assertTrue(timing.getTiming("t") > 0);
+  }
+}
@@ -0,0 +1,101 @@
+package edu.wisc.regfixer.enumerate;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
+import edu.wisc.regfixer.automata.Route;
+import edu.wisc.regfixer.diagnostic.Deadline;
+import edu.wisc.regfixer.parser.Main;
+import org.junit.Test;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+public class ConflictsTest {
+  /**
+   * Returns the template the Slicer builds from the regex that prints as
+   * the given string (with ? in place of the unknown).
+   */
+  private static Enumerant slice (String regex, String template, UnknownCounter counter) throws Exception {
+    for (Enumerant enumerant : Slicer.slice(Main.parse(regex), counter)) {
+      if (enumerant.toString().equals(template)) {
+        return enumerant;
+      }
+    }
+
+    throw new IllegalArgumentException("no template " + template);
+  }
+
+  private static Map<String, Set<Route>> core (Enumerant enumerant, String... examples) throws Exception {
+    Map<String, Set<Route>> core = new HashMap<>();
+
+    for (String example : examples) {
+      core.put(example, enumerant.toAutomaton(null).trace(example));
+    }
+
+    return core;
+  }
+
+  @Test
+  public void testRulesOutTheFailedTemplate () throws Exception {
+    Enumerant failed = slice("abc", "a■c", new UnknownCounter());
+    Conflicts conflicts = new Conflicts();
+    conflicts.add(failed, core(failed, "abc", "aac"));
+
+    assertTrue(conflicts.rulesOut(failed, null, new Deadline()));
+  }
+
+  @Test
+  public void testRulesOutTheSameShapeWithOtherUnknowns () throws Exception {
+    Enumerant failed = slice("abc", "a■c", new UnknownCounter());
+    Conflicts conflicts = new Conflicts();
+    conflicts.add(failed, core(failed, "abc"));
+
+    UnknownCounter counter = new UnknownCounter();
+    for (int i = 0; i < 100; i++) {
+      counter.nextId();
+    }
+
+    Enumerant other = slice("abc", "a■c", counter);
+    assertNotEquals(failed.getIds(), other.getIds());
+    assertTrue(conflicts.rulesOut(other, null, new Deadline()));
+  }
+
+  @Test
+  public void testKeepsTemplatesWithUnknownsElsewhere () throws Exception {
+    UnknownCounter counter = new UnknownCounter();
+    Enumerant failed = slice("abc", "a■c", counter);
+    Conflicts conflicts = new Conflicts();
+    conflicts.add(failed, core(failed, "abc"));
+
+    assertFalse(conflicts.rulesOut(slice("abc", "■bc", counter), null, new Deadline()));
+    assertFalse(conflicts.rulesOut(slice("a(b|c)", "a(b|■)", counter), null, new Deadline()));
+  }
+
+  @Test
+  public void testKeepsTemplatesWithOtherRoutes () throws Exception {
+    UnknownCounter counter = new UnknownCounter();
+    Enumerant failed = slice("abc", "a■c", counter);
+    Conflicts conflicts = new Conflicts();
+    conflicts.add(failed, core(failed, "abc"));
+
+    // The unknown is in the same place but the example doesn't match, so
+    // the template's constraints differ from the failed template's.
+    Enumerant other = slice("abc", "a■", counter);
+    assertFalse(conflicts.rulesOut(other, null, new Deadline()));
+  }
+
+  @Test
+  public void testIgnoresCoresForOtherTemplates () throws Exception {
+    UnknownCounter counter = new UnknownCounter();
+    Enumerant failed = slice("abc", "a■c", counter);
+    Enumerant other = slice("abc", "ab■c", counter);
+    Conflicts conflicts = new Conflicts();
+
+    // The routes name an unknown that isn't in the failed template.
+    conflicts.add(failed, core(other, "abbc"));
+    assertFalse(conflicts.rulesOut(failed, null, new Deadline()));
+  }
+}
@@ -0,0 +1,100 @@
+package edu.wisc.regfixer.enumerate;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import edu.wisc.regfixer.diagnostic.Diagnostic;
+import edu.wisc.regfixer.parser.Main;
+import edu.wisc.regfixer.parser.RegexNode;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+
+public class EnumerantsTest {
+  private static final String REGEX = "a(b|c)\\d";
+
+  private static Corpus corpus () {
+    Set<Range> positives = new HashSet<>();
+    positives.add(new Range(0, 3));
+    positives.add(new Range(4, 8));
+    return new Corpus("ab1 acc2 ad", positives, new HashSet<>());
+  }
+
+  /**
+   * Describes the template by its tree and its unknowns so that templates
+   * rebuilt with other unknown IDs don't compare equal.
+   */
+  private static String describe (Enumerant enumerant) {
+    return (enumerant == null) ? "null" : enumerant.toString() + " " + enumerant.getIds();
+  }
+
+  private static List<String> poll (Enumerants enumerants, int count) {
+    List<String> polled = new ArrayList<>();
+
+    for (int i = 0; i < count; i++) {
+      polled.add(describe(enumerants.poll()));
+    }
+
+    return polled;
+  }
+
+  private static Enumerants roundTrip (Enumerants enumerants, boolean includePolled) throws Exception {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    try (DataOutputStream out = new DataOutputStream(bytes)) {
+      enumerants.write(out, includePolled);
+    }
+
+    try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes.toByteArray()))) {
+      return Enumerants.read(in, Main.parse(REGEX), corpus(), new Diagnostic());
+    }
+  }
+
+  @Test
+  public void testResumesWithTheNextTemplate () throws Exception {
+    RegexNode tree = Main.parse(REGEX);
+    Enumerants enumerants = new Enumerants(tree, corpus(), new Diagnostic());
+    poll(enumerants, 40);
+
+    Enumerants resumed = roundTrip(enumerants, false);
+    List<String> expected = poll(enumerants, 200);
+    assertEquals(expected, poll(resumed, 200));
+  }
+
+  @Test
+  public void testResumesWithThePolledTemplate () throws Exception {
+    RegexNode tree = Main.parse(REGEX);
+    Enumerants enumerants = new Enumerants(tree, corpus(), new Diagnostic());
+    poll(enumerants, 40);
+
+    Enumerant polled = enumerants.poll();
+    assertNotNull(polled);
+
+    // The polled template hasn't been searched so it comes first again.
+    Enumerants resumed = roundTrip(enumerants, true);
+    assertEquals(describe(polled), describe(resumed.poll()));
+    assertEquals(poll(enumerants, 200), poll(resumed, 200));
+  }
+
+  @Test
+  public void testResumesAResumedSearch () throws Exception {
+    RegexNode tree = Main.parse(REGEX);
+    Enumerants enumerants = new Enumerants(tree, corpus(), new Diagnostic());
+    Enumerant polled = null;
+    for (int i = 0; i < 40; i++) {
+      polled = enumerants.poll();
+    }
+
+    // A search written again before its pending template is polled still
+    // starts with that template.
+    Enumerants twice = roundTrip(roundTrip(enumerants, true), false);
+    assertEquals(describe(polled), describe(twice.poll()));
+    assertEquals(poll(enumerants, 200), poll(twice, 200));
+  }
+}
@@ -0,0 +1,181 @@
+package edu.wisc.regfixer.enumerate;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import edu.wisc.regfixer.parser.Main;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class FrontierTest {
+  /**
+   * Maps each of the template's unknown IDs to the unknown's age (or -1 for
+   * unknown bounds).
+   */
+  private static Map<UnknownId, Integer> unknowns (Enumerant enumerant) {
+    Map<UnknownId, Integer> ages = new HashMap<>();
+
+    for (UnknownId id : enumerant.getIds()) {
+      Unknown unknown = id.getUnknown();
+      ages.put(id, (unknown instanceof UnknownChar) ? ((UnknownChar) unknown).getAge() : -1);
+    }
+
+    return ages;
+  }
+
+  /**
+   * Queues every expansion of the template (and of those expansions, down
+   * to the given depth) and records the node each expansion was queued as.
+   */
+  private static void expand (Frontier frontier, Frontier.Node parent, Enumerant template, UnknownCounter counter, int depth, Map<Frontier.Node, Enumerant> queued) {
+    if (depth == 0) {
+      return;
+    }
+
+    for (Enumerant expansion : template.expand(counter)) {
+      frontier.addExpansion(parent, expansion, 0);
+      Frontier.Node node = frontier.remove();
+      queued.put(node, expansion);
+      expand(frontier, node, expansion, counter, depth - 1, queued);
+    }
+  }
+
+  @Test
+  public void testRebuiltTemplatesKeepTheirUnknowns () throws Exception {
+    UnknownCounter counter = new UnknownCounter();
+    List<Enumerant> roots = Slicer.slice(Main.parse("ab*c"), counter);
+    Frontier frontier = new Frontier(counter);
+    frontier.addRoot(roots.get(0), 0);
+
+    Frontier.Node root = frontier.remove();
+    Map<Frontier.Node, Enumerant> queued = new LinkedHashMap<>();
+    expand(frontier, root, frontier.materialize(root), counter, 3, queued);
+    assertTrue(queued.size() > 10);
+
+    int nextId = counter.peekId();
+    int nextAge = counter.peekAge();
+
+    // A new frontier has nothing materialized so every template is rebuilt
+    // from the root, most of them from a parent that was rebuilt too.
+    Frontier rebuilt = new Frontier(counter);
+    for (Map.Entry<Frontier.Node, Enumerant> entry : queued.entrySet()) {
+      Enumerant original = entry.getValue();
+      Enumerant again = rebuilt.materialize(entry.getKey());
+      assertEquals(original.getTree().toString(), again.getTree().toString());
+      assertEquals(unknowns(original), unknowns(again));
+    }
+
+    // Rebuilding doesn't take IDs or ages from the search's counter.
+    assertEquals(nextId, counter.peekId());
+    assertEquals(nextAge, counter.peekAge());
+  }
+
+  /**
+   * Removes every node left in the frontier and describes each one's
+   * template, priority and unknowns.
+   */
+  private static List<String> drain (Frontier frontier) {
+    List<String> removed = new ArrayList<>();
+
+    while (frontier.isEmpty() == false) {
+      removed.add(describe(frontier, frontier.remove()));
+    }
+
+    return removed;
+  }
+
+  private static String describe (Frontier frontier, Frontier.Node node) {
+    Enumerant enumerant = frontier.materialize(node);
+    return node.getPriority() + " " + enumerant + " " + unknowns(enumerant);
+  }
+
+  /**
+   * Searches part of the frontier of the regex's templates, giving some
+   * expansions a bound so that not every node has the same priority, then
+   * removes one more node (returned) that is left pending.
+   */
+  private static Frontier.Node search (Frontier frontier, List<Enumerant> roots, UnknownCounter counter) {
+    for (Enumerant root : roots) {
+      frontier.addRoot(root, 0);
+    }
+
+    for (int i = 0; i < 30; i++) {
+      Frontier.Node node = frontier.remove();
+      int bound = 0;
+
+      for (Enumerant expansion : frontier.materialize(node).expand(counter)) {
+        frontier.addExpansion(node, expansion, bound++ % 3);
+      }
+    }
+
+    return frontier.remove();
+  }
+
+  /**
+   * Writes the frontier and reads it back into a new frontier whose roots
+   * are sliced again with the given counter (as Enumerants#read does).
+   */
+  private static Frontier roundTrip (Frontier frontier, List<Enumerant> roots, Frontier.Node pending, UnknownCounter counter, List<Enumerant> readRoots) throws Exception {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    try (DataOutputStream out = new DataOutputStream(bytes)) {
+      frontier.write(out, roots, pending);
+    }
+
+    readRoots.addAll(Slicer.slice(Main.parse("a(b|c)*d"), counter));
+    Frontier read = new Frontier(counter);
+    try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes.toByteArray()))) {
+      read.read(in, readRoots);
+    }
+
+    return read;
+  }
+
+  @Test
+  public void testReadsTheWrittenNodes () throws Exception {
+    UnknownCounter counter = new UnknownCounter();
+    List<Enumerant> roots = Slicer.slice(Main.parse("a(b|c)*d"), counter);
+    Frontier frontier = new Frontier(counter);
+    search(frontier, roots, counter);
+
+    // The pending node isn't written so it's skipped.
+    UnknownCounter other = new UnknownCounter();
+    Frontier read = roundTrip(frontier, roots, null, other, new ArrayList<>());
+    assertEquals(counter.peekId(), other.peekId());
+    assertEquals(counter.peekAge(), other.peekAge());
+    assertEquals(drain(frontier), drain(read));
+  }
+
+  @Test
+  public void testReadsThePendingNodeFirst () throws Exception {
+    UnknownCounter counter = new UnknownCounter();
+    List<Enumerant> roots = Slicer.slice(Main.parse("a(b|c)*d"), counter);
+    Frontier frontier = new Frontier(counter);
+    Frontier.Node pending = search(frontier, roots, counter);
+    String expected = describe(frontier, pending);
+
+    List<Enumerant> readRoots = new ArrayList<>();
+    Frontier read = roundTrip(frontier, roots, pending, new UnknownCounter(), readRoots);
+    assertEquals(frontier.size() + 1, read.size());
+
+    // Writing a frontier that was read back keeps its pending node even if
+    // the node isn't given again.
+    Frontier again = roundTrip(read, readRoots, null, new UnknownCounter(), new ArrayList<>());
+    assertEquals(read.size(), again.size());
+
+    assertEquals(expected, describe(read, read.remove()));
+    assertEquals(expected, describe(again, again.remove()));
+
+    List<String> remaining = drain(frontier);
+    assertEquals(remaining, drain(read));
+    assertEquals(remaining, drain(again));
+  }
+}
@@ -0,0 +1,135 @@
+package edu.wisc.regfixer.enumerate;
+
+import java.util.BitSet;
+import java.util.Random;
+
+import edu.wisc.regfixer.automata.Automaton;
+import edu.wisc.regfixer.parser.Bounds;
+import edu.wisc.regfixer.parser.ConcatNode;
+import edu.wisc.regfixer.parser.Main;
+import edu.wisc.regfixer.parser.RegexNode;
+import edu.wisc.regfixer.parser.RepetitionNode;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class LengthSetTest {
+  private static BitSet lengths (int... lengths) {
+    BitSet set = new BitSet();
+
+    for (int length : lengths) {
+      set.set(length);
+    }
+
+    return set;
+  }
+
+  private static BitSet of (String regex, int limit) throws Exception {
+    return LengthSet.of(Main.parse(regex), limit);
+  }
+
+  @Test
+  public void testFiniteSets () throws Exception {
+    assertEquals(lengths(3), of("abc", 10));
+    assertEquals(lengths(1, 2), of("a|bc", 10));
+    assertEquals(lengths(4, 6), of("(ab){2,3}", 10));
+    assertEquals(lengths(1, 2), of("ab?", 10));
+    assertEquals(lengths(2, 3, 4), of("[ab]\\d{1,3}", 10));
+  }
+
+  @Test
+  public void testQuantifiers () throws Exception {
+    assertEquals(lengths(0, 2, 4, 6), of("(ab)*", 7));
+    assertEquals(lengths(3, 5, 7), of("a(bc)+", 7));
+    assertEquals(lengths(4, 6, 8), of("(ab){2,}", 8));
+    assertEquals(lengths(0, 3, 5, 6, 8, 9, 10), of("(abc|defgh)*", 10));
+  }
+
+  @Test
+  public void testLimit () throws Exception {
+    assertEquals(lengths(), of("abc", 2));
+    assertEquals(lengths(3), of("abc", 3));
+    assertEquals(lengths(0, 1, 2), of("a*", 2));
+
+    // Lengths beyond the first word of the bit set.
+    assertEquals(lengths(64), of("a{64}", 64));
+    assertEquals(lengths(), of("a{64}", 63));
+    assertEquals(lengths(60, 90), of("(a{30}){2,3}", 100));
+    assertEquals(lengths(65, 130), of("(a{65}){1,2}", 200));
+  }
+
+  @Test
+  public void testUnknowns () throws Exception {
+    UnknownCounter counter = new UnknownCounter();
+
+    // An unknown char matches one character and unknown bounds may be
+    // solved with any number of repetitions.
+    RegexNode unknown = new UnknownChar(counter, Expansion.Concat);
+    assertEquals(lengths(1), LengthSet.of(unknown, 5));
+
+    RegexNode bounded = new ConcatNode(
+      Main.parse("a"),
+      new RepetitionNode(Main.parse("bc"), new UnknownBounds(counter, Bounds.exactly(2))));
+    assertEquals(lengths(1, 3, 5, 7), LengthSet.of(bounded, 7));
+  }
+
+  /**
+   * Compares the sets with the lengths of strings of a single repeated
+   * character accepted by the automaton of the same regex with every
+   * character class replaced by that character.
+   */
+  @Test
+  public void testRandomRegexesAgreeWithAutomata () throws Exception {
+    Random random = new Random(16);
+
+    for (int t = 0; t < 2000; t++) {
+      String[] regex = randomRegex(random, 3);
+      int limit = random.nextInt(80);
+      Automaton unary = new Automaton(Main.parse(regex[1]));
+
+      BitSet expected = new BitSet();
+      StringBuilder string = new StringBuilder();
+      for (int length = 0; length <= limit; length++) {
+        if (unary.accepts(string.toString())) {
+          expected.set(length);
+        }
+
+        string.append('x');
+      }
+
+      assertEquals(regex[0] + " up to " + limit, expected, of(regex[0], limit));
+    }
+  }
+
+  /**
+   * Returns a random regex and the same regex over the single character x.
+   */
+  private static String[] randomRegex (Random random, int depth) {
+    String[][] atoms = { { "a", "x" }, { "[ab]", "x" }, { "\\d", "x" }, { "[^a]", "x" } };
+
+    if (depth == 0) {
+      return atoms[random.nextInt(atoms.length)];
+    }
+
+    String[] a = randomRegex(random, depth - 1);
+    String[] b = randomRegex(random, depth - 1);
+
+    switch (random.nextInt(8)) {
+      case 0:  return new String[] { a[0] + b[0], a[1] + b[1] };
+      case 1:  return new String[] { "(" + a[0] + "|" + b[0] + ")", "(" + a[1] + "|" + b[1] + ")" };
+      case 2:  return new String[] { "(" + a[0] + ")*", "(" + a[1] + ")*" };
+      case 3:  return new String[] { "(" + a[0] + ")+", "(" + a[1] + ")+" };
+      case 4:  return new String[] { "(" + a[0] + ")?", "(" + a[1] + ")?" };
+      case 5: {
+        int min = random.nextInt(4);
+        String bounds = "{" + min + "," + (min + random.nextInt(4)) + "}";
+        return new String[] { "(" + a[0] + ")" + bounds, "(" + a[1] + ")" + bounds };
+      }
+      case 6: {
+        String bounds = "{" + random.nextInt(4) + ",}";
+        return new String[] { "(" + a[0] + ")" + bounds, "(" + a[1] + ")" + bounds };
+      }
+      default: return atoms[random.nextInt(atoms.length)];
+    }
+  }
+}
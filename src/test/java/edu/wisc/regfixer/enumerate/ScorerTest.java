@@ -0,0 +1,217 @@
+package edu.wisc.regfixer.enumerate;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+import edu.wisc.regfixer.parser.CharClass;
+import edu.wisc.regfixer.parser.CharLiteralNode;
+import edu.wisc.regfixer.parser.ConcatNode;
+import edu.wisc.regfixer.parser.Main;
+import edu.wisc.regfixer.parser.OptionalNode;
+import edu.wisc.regfixer.parser.PlusNode;
+import edu.wisc.regfixer.parser.RegexNode;
+import edu.wisc.regfixer.parser.RepetitionNode;
+import edu.wisc.regfixer.parser.StarNode;
+import edu.wisc.regfixer.parser.UnionNode;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+public class ScorerTest {
+  /**
+   * Known solutions and positive examples they match.
+   */
+  private static final String[][] SOLUTIONS = {
+    { "ab*c", "ac", "abc", "abbbc" },
+    { "(a|b)+c", "ac", "bc", "abbac" },
+    { "x[0-9]{2,3}y", "x12y", "x345y" },
+    { "a(bc)?d", "ad", "abcd" },
+    { "(ab)+|c", "c", "ab", "ababab" },
+    { "\\w+@\\w+", "a@b", "abc@de" },
+    { "x{0,2}y", "y", "xxy" },
+    { "(ab){1,3}c", "abc", "ababc" },
+  };
+
+  /**
+   * A template made from a solution by replacing some of its subtrees with
+   * unknowns. It's fillable if every unknown replaced a single character
+   * class or the bounds of a repetition, in which case the template itself
+   * can be solved to the solution.
+   */
+  private static class Template {
+    private final RegexNode tree;
+    private final boolean fillable;
+
+    private Template (RegexNode tree, boolean fillable) {
+      this.tree = tree;
+      this.fillable = fillable;
+    }
+  }
+
+  private static Corpus corpus (String... examples) {
+    StringBuilder text = new StringBuilder();
+    Set<Range> positives = new HashSet<>();
+
+    for (String example : examples) {
+      positives.add(new Range(text.length(), text.length() + example.length()));
+      text.append(example).append('\n');
+    }
+
+    return new Corpus(text.toString(), positives, new HashSet<>());
+  }
+
+  private static Enumerant enumerant (RegexNode tree) {
+    return new Enumerant(tree, Conflicts.locate(tree).keySet(), 0, Expansion.Concat);
+  }
+
+  private static List<Template> generalize (RegexNode node, UnknownCounter counter) {
+    List<Template> templates = new ArrayList<>();
+
+    if (node instanceof CharClass) {
+      templates.add(new Template(node, true));
+      templates.add(new Template(new UnknownChar(counter, Expansion.Concat), true));
+      return templates;
+    }
+
+    if (node instanceof ConcatNode) {
+      List<Template> partials = new ArrayList<>();
+      partials.add(new Template(null, true));
+
+      for (RegexNode child : ((ConcatNode) node).getChildren()) {
+        List<Template> extended = new ArrayList<>();
+        for (Template partial : partials) {
+          for (Template option : generalize(child, counter)) {
+            List<RegexNode> children = new ArrayList<>();
+            if (partial.tree != null) {
+              children.addAll(((ConcatNode) partial.tree).getChildren());
+            }
+            children.add(option.tree);
+            extended.add(new Template(new ConcatNode(children), partial.fillable && option.fillable));
+          }
+        }
+        partials = extended;
+      }
+
+      templates.addAll(partials);
+    } else if (node instanceof UnionNode) {
+      for (Template left : generalize(((UnionNode) node).getLeftChild(), counter)) {
+        for (Template right : generalize(((UnionNode) node).getRightChild(), counter)) {
+          templates.add(new Template(new UnionNode(left.tree, right.tree), left.fillable && right.fillable));
+        }
+      }
+    } else if (node instanceof RepetitionNode) {
+      for (Template child : generalize(((RepetitionNode) node).getChild(), counter)) {
+        templates.add(new Template(new RepetitionNode(child.tree, ((RepetitionNode) node).getBounds()), child.fillable));
+        templates.add(new Template(new RepetitionNode(child.tree, new UnknownBounds(counter)), child.fillable));
+      }
+    } else if (node instanceof OptionalNode) {
+      for (Template child : generalize(((OptionalNode) node).getChild(), counter)) {
+        templates.add(new Template(new OptionalNode(child.tree), child.fillable));
+      }
+    } else if (node instanceof StarNode) {
+      for (Template child : generalize(((StarNode) node).getChild(), counter)) {
+        templates.add(new Template(new StarNode(child.tree), child.fillable));
+      }
+    } else if (node instanceof PlusNode) {
+      for (Template child : generalize(((PlusNode) node).getChild(), counter)) {
+        templates.add(new Template(new PlusNode(child.tree), child.fillable));
+      }
+    }
+
+    templates.add(new Template(new UnknownChar(counter, Expansion.Concat), false));
+    return templates;
+  }
+
+  @Test
+  public void testNeverPrunesAKnownSolution () throws Exception {
+    int checked = 0;
+
+    for (String[] solution : SOLUTIONS) {
+      String[] examples = Arrays.copyOfRange(solution, 1, solution.length);
+      for (String example : examples) {
+        assertTrue(Pattern.matches(solution[0], example));
+      }
+
+      Corpus corpus = corpus(examples);
+      Scorer scorer = Scorer.max(new LengthScorer(corpus), new LiteralScorer(corpus));
+
+      for (Template template : generalize(Main.parse(solution[0]), new UnknownCounter())) {
+        int bound = scorer.score(enumerant(template.tree));
+        String message = solution[0] + " as " + template.tree;
+
+        // Every template can still be expanded into the solution and a
+        // fillable template needs no expansion at all.
+        assertNotEquals(message, Scorer.UNSOLVABLE, bound);
+        if (template.fillable) {
+          assertEquals(message, 0, bound);
+        }
+
+        checked++;
+      }
+    }
+
+    assertTrue(checked > 100);
+  }
+
+  @Test
+  public void testLengths () throws Exception {
+    assertEquals(2, LengthScorer.minLength(Main.parse("ab*c")));
+    assertEquals(Integer.MAX_VALUE, LengthScorer.maxLength(Main.parse("ab*c")));
+    assertEquals(1, LengthScorer.minLength(Main.parse("a|bc")));
+    assertEquals(2, LengthScorer.maxLength(Main.parse("a|bc")));
+    assertEquals(4, LengthScorer.minLength(Main.parse("(ab){2,3}")));
+    assertEquals(6, LengthScorer.maxLength(Main.parse("(ab){2,3}")));
+    assertEquals(0, LengthScorer.minLength(Main.parse("(ab)?")));
+
+    UnknownCounter counter = new UnknownCounter();
+    RegexNode bounded = new RepetitionNode(Main.parse("ab"), new UnknownBounds(counter));
+    assertEquals(0, LengthScorer.minLength(bounded));
+    assertEquals(Integer.MAX_VALUE, LengthScorer.maxLength(bounded));
+  }
+
+  @Test
+  public void testLengthScorer () throws Exception {
+    UnknownCounter counter = new UnknownCounter();
+    LengthScorer scorer = new LengthScorer(corpus("ab", "abcd"));
+
+    // One unknown char matches a single character while the examples need
+    // two to four, so the template has to be expanded first.
+    RegexNode unknown = new UnknownChar(counter, Expansion.Concat);
+    assertEquals(Math.min(Enumerant.CONCAT_COST, Enumerant.REPEAT_COST), scorer.score(enumerant(unknown)));
+
+    RegexNode pair = new ConcatNode(new UnknownChar(counter, Expansion.Concat), new UnknownChar(counter, Expansion.Concat));
+    assertEquals(Math.min(Enumerant.CONCAT_COST, Enumerant.REPEAT_COST), scorer.score(enumerant(pair)));
+
+    RegexNode repeated = new ConcatNode(new CharLiteralNode('a'), new StarNode(new UnknownChar(counter, Expansion.Concat)));
+    assertEquals(0, scorer.score(enumerant(repeated)));
+
+    // Without unknown chars nothing can change the lengths the template
+    // matches.
+    assertEquals(Scorer.UNSOLVABLE, scorer.score(enumerant(Main.parse("abc"))));
+  }
+
+  @Test
+  public void testLiteralScorer () throws Exception {
+    UnknownCounter counter = new UnknownCounter();
+    LiteralScorer scorer = new LiteralScorer(corpus("ab1", "ba2"));
+
+    assertEquals(0, scorer.score(enumerant(new ConcatNode(new CharLiteralNode('a'), new UnknownChar(counter, Expansion.Concat)))));
+    assertEquals(Scorer.UNSOLVABLE, scorer.score(enumerant(new ConcatNode(new CharLiteralNode('1'), new UnknownChar(counter, Expansion.Concat)))));
+
+    // Every alternative needs the literal so the union does too.
+    assertEquals(Scorer.UNSOLVABLE, scorer.score(enumerant(Main.parse("1x|1y"))));
+    assertEquals(0, scorer.score(enumerant(Main.parse("a1|b"))));
+
+    // A literal under a quantifier is only required if nothing below the
+    // quantifier can still be expanded into a repetition with a minimum of 0.
+    assertEquals(Scorer.UNSOLVABLE, scorer.score(enumerant(Main.parse("(1)+"))));
+    RegexNode open = new PlusNode(new ConcatNode(new CharLiteralNode('1'), new UnknownChar(counter, Expansion.Concat)));
+    assertEquals(0, scorer.score(enumerant(open)));
+  }
+}
@@ -0,0 +1,86 @@
+package edu.wisc.regfixer.server;
+
+import java.io.BufferedReader;
+import java.io.InputStreamReader;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.regex.Pattern;
+
+import edu.wisc.regfixer.diagnostic.Deadline;
+import edu.wisc.regfixer.diagnostic.DeadlineExceeded;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class EventStreamTest {
+  @Test(timeout = 10000)
+  public void testSendsEventsAndHeartbeats () throws Exception {
+    try (ServerSocket listener = new ServerSocket(0);
+         Socket client = new Socket("localhost", listener.getLocalPort());
+         Socket server = listener.accept()) {
+      BufferedReader in = new BufferedReader(new InputStreamReader(client.getInputStream(), StandardCharsets.UTF_8));
+
+      try (EventStream events = new EventStream(server.getOutputStream(), false, new Deadline(), 10)) {
+        // Comment lines keep the connection busy while nothing is found.
+        assertEquals(": heartbeat", in.readLine());
+        assertEquals("", in.readLine());
+
+        events.onSolution(3, "abc");
+        String line = in.readLine();
+        while (line.equals(": heartbeat") || line.isEmpty()) {
+          line = in.readLine();
+        }
+
+        assertEquals("event: solution", line);
+        assertEquals("data: {\"cost\":3,\"fix\":\"abc\"}", in.readLine());
+        assertEquals("", in.readLine());
+        assertFalse(events.isCancelled());
+      }
+    }
+  }
+
+  /**
+   * A template being evaluated sends no events, so the client closing the
+   * connection is only noticed by a heartbeat, which then cancels the search
+   * through its deadline.
+   */
+  @Test(timeout = 10000)
+  public void testClosingTheClientStopsTheSearch () throws Exception {
+    try (ServerSocket listener = new ServerSocket(0);
+         Socket client = new Socket("localhost", listener.getLocalPort());
+         Socket server = listener.accept()) {
+      Deadline deadline = new Deadline();
+      StringBuilder chars = new StringBuilder();
+      for (int i = 0; i < 40; i++) {
+        chars.append('a');
+      }
+
+      try (EventStream events = new EventStream(server.getOutputStream(), false, deadline, 10)) {
+        AtomicReference<RuntimeException> thrown = new AtomicReference<>();
+        Thread search = new Thread(() -> {
+          try {
+            Pattern.compile("((a+)+)+b").matcher(deadline.watch(chars)).find();
+          } catch (RuntimeException ex) {
+            thrown.set(ex);
+          }
+        });
+
+        search.start();
+        Thread.sleep(100);
+        assertTrue(search.isAlive());
+        assertFalse(events.isCancelled());
+
+        client.close();
+        search.join();
+
+        assertTrue(thrown.get() instanceof DeadlineExceeded);
+        assertTrue(deadline.isExpired());
+        assertTrue(events.isCancelled());
+      }
+    }
+  }
+}
@@ -0,0 +1,111 @@
+package edu.wisc.regfixer.synthesize;
+
+import com.microsoft.z3.Context;
+import com.microsoft.z3.Status;
+import edu.wisc.regfixer.diagnostic.Diagnostic;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+public class ContextPoolTest {
+  @Before
+  public void requireZ3 () {
+    Z3.assumeAvailable();
+  }
+
+  @Test
+  public void testReleasedContextIsReused () {
+    Diagnostic diag = new Diagnostic();
+
+    try (ContextPool pool = new ContextPool(1)) {
+      ContextPool.Lease first = pool.acquire(diag);
+      Context ctx = first.getContext();
+      pool.release(first);
+
+      ContextPool.Lease second = pool.acquire(diag);
+      assertSame(ctx, second.getContext());
+      pool.release(second);
+    }
+
+    assertEquals(1, diag.getInt("contextPoolMisses"));
+    assertEquals(1, diag.getInt("contextPoolHits"));
+  }
+
+  @Test
+  public void testAssertionsDontOutliveTheLease () {
+    Diagnostic diag = new Diagnostic();
+
+    try (ContextPool pool = new ContextPool(1)) {
+      ContextPool.Lease first = pool.acquire(diag);
+      first.getOptimize().Add(first.getContext().mkFalse());
+      assertEquals(Status.UNSATISFIABLE, first.getOptimize().Check());
+      pool.release(first);
+
+      ContextPool.Lease second = pool.acquire(diag);
+      assertSame(first.getContext(), second.getContext());
+      assertEquals(Status.SATISFIABLE, second.getOptimize().Check());
+      pool.release(second);
+    }
+  }
+
+  @Test
+  public void testContextIsRetiredAfterMaxUses () {
+    Diagnostic diag = new Diagnostic();
+
+    try (ContextPool pool = new ContextPool(1)) {
+      ContextPool.Lease lease = pool.acquire(diag);
+      Context ctx = lease.getContext();
+      pool.release(lease);
+
+      for (int i = 1; i < ContextPool.MAX_USES; i++) {
+        lease = pool.acquire(diag);
+        assertSame(ctx, lease.getContext());
+        pool.release(lease);
+      }
+
+      lease = pool.acquire(diag);
+      assertNotSame(ctx, lease.getContext());
+      pool.release(lease);
+    }
+
+    assertEquals(2, diag.getInt("contextPoolMisses"));
+  }
+
+  @Test
+  public void testContextsBeyondCapacityAreClosed () {
+    Diagnostic diag = new Diagnostic();
+
+    try (ContextPool pool = new ContextPool(1)) {
+      ContextPool.Lease first = pool.acquire(diag);
+      ContextPool.Lease second = pool.acquire(diag);
+      pool.release(first);
+      pool.release(second);
+
+      ContextPool.Lease third = pool.acquire(diag);
+      ContextPool.Lease fourth = pool.acquire(diag);
+      assertSame(first.getContext(), third.getContext());
+      assertNotSame(second.getContext(), fourth.getContext());
+      pool.release(third);
+      pool.release(fourth);
+    }
+
+    assertEquals(3, diag.getInt("contextPoolMisses"));
+  }
+
+  @Test
+  public void testClosedPoolKeepsNothing () {
+    Diagnostic diag = new Diagnostic();
+    ContextPool pool = new ContextPool(1);
+    ContextPool.Lease lease = pool.acquire(diag);
+    pool.close();
+    pool.release(lease);
+
+    ContextPool.Lease next = pool.acquire(diag);
+    assertNotSame(lease.getContext(), next.getContext());
+    pool.release(next);
+    assertEquals(2, diag.getInt("contextPoolMisses"));
+  }
+}
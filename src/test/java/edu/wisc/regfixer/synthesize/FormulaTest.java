@@ -0,0 +1,116 @@
+package edu.wisc.regfixer.synthesize;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+import edu.wisc.regfixer.automata.Route;
+import edu.wisc.regfixer.diagnostic.Diagnostic;
+import edu.wisc.regfixer.enumerate.Expansion;
+import edu.wisc.regfixer.enumerate.UnknownChar;
+import edu.wisc.regfixer.enumerate.UnknownCounter;
+import edu.wisc.regfixer.enumerate.UnknownId;
+import edu.wisc.regfixer.parser.CharClass;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class FormulaTest {
+  private UnknownId id;
+
+  @Before
+  public void setUp () {
+    Z3.assumeAvailable();
+    this.id = new UnknownChar(new UnknownCounter(), Expansion.Concat).getId();
+  }
+
+  // An example whose only route crosses the unknown with the given character.
+  private Set<Route> crossing (char ch) {
+    Map<UnknownId, Set<Character>> spans = new HashMap<>();
+    spans.put(this.id, Collections.singleton(ch));
+    return Collections.singleton(new Route(spans, new HashMap<>()));
+  }
+
+  private boolean solutionMatches (Formula formula, char ch) throws Exception {
+    CharClass solution = formula.getCharSolutions().get(this.id);
+    return Pattern.matches(solution.toString(), String.valueOf(ch));
+  }
+
+  @Test
+  public void testNegativesAddedBetweenRoundsNarrowTheSolution () throws Exception {
+    List<Set<Route>> positives = Arrays.asList(crossing('a'));
+
+    try (Formula formula = new Formula(positives, Collections.emptyList(), new Diagnostic())) {
+      formula.solve();
+      assertTrue(solutionMatches(formula, 'a'));
+
+      formula.addNegatives(Arrays.asList(crossing('b')));
+      assertEquals(2, formula.countExamples());
+      formula.solve();
+      assertTrue(solutionMatches(formula, 'a'));
+      assertFalse(solutionMatches(formula, 'b'));
+    }
+  }
+
+  @Test
+  public void testIncrementalFormulaAgreesWithRebuiltFormula () throws Exception {
+    List<Set<Route>> positives = Arrays.asList(crossing('a'), crossing('c'));
+    List<Set<Route>> negatives = Arrays.asList(crossing('b'), crossing('d'));
+
+    try (Formula incremental = new Formula(positives, negatives.subList(0, 1), new Diagnostic())) {
+      incremental.solve();
+      incremental.addNegatives(negatives.subList(1, 2));
+      incremental.solve();
+
+      try (Formula rebuilt = new Formula(positives, negatives, new Diagnostic())) {
+        rebuilt.solve();
+
+        for (char ch : "abcd".toCharArray()) {
+          assertEquals(String.valueOf(ch), solutionMatches(rebuilt, ch), solutionMatches(incremental, ch));
+        }
+      }
+    }
+  }
+
+  @Test
+  public void testUnsatCoreNamesTheConflictingExamples () throws Exception {
+    Set<Route> acceptA = crossing('a');
+    Set<Route> rejectB = crossing('b');
+    Set<Route> rejectA = crossing('a');
+
+    try (Formula formula = new Formula(Arrays.asList(acceptA), Arrays.asList(rejectB), new Diagnostic())) {
+      formula.solve();
+      assertFalse(formula.isUnsatisfiable());
+
+      formula.addNegatives(Arrays.asList(rejectA));
+
+      try {
+        formula.solve();
+        fail("a formula that accepts and rejects the same route can't be satisfied");
+      } catch (SynthesisFailure ex) {
+        assertTrue(formula.isUnsatisfiable());
+      }
+
+      List<Set<Route>> core = formula.getUnsatCore();
+      assertEquals(2, core.size());
+      assertTrue(core.contains(acceptA));
+      assertFalse(core.contains(rejectB));
+    }
+  }
+
+  @Test(expected = IllegalStateException.class)
+  public void testUnsatCoreNeedsAnUnsatisfiableFormula () throws Exception {
+    try (Formula formula = new Formula(Arrays.asList(crossing('a')), Collections.emptyList(), new Diagnostic())) {
+      formula.solve();
+      formula.getUnsatCore();
+    }
+  }
+}
@@ -0,0 +1,18 @@
+package edu.wisc.regfixer.synthesize;
+
+import com.microsoft.z3.Context;
+import org.junit.Assume;
+
+/**
+ * The Z3 bindings need the native Z3 library. Tests that call into Z3 are
+ * skipped (rather than failed) where it can't be loaded.
+ */
+class Z3 {
+  static void assumeAvailable () {
+    try {
+      new Context().close();
+    } catch (LinkageError err) {
+      Assume.assumeNoException("the native Z3 library can't be loaded", err);
+    }
+  }
+}